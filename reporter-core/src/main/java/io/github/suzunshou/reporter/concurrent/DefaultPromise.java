@@ -46,6 +46,13 @@ public class DefaultPromise<V> extends AbstractFuture<V> implements Promise<V> {
 
     private short waiters;
 
+    //waiters park on the monitor, notifyAll needs to own it
+    private synchronized void checkNotifyWaiters() {
+        if (hasWaiters()) {
+            notifyAll();
+        }
+    }
+
     private boolean hasWaiters() {
         return waiters > 0;
     }
@@ -158,9 +165,7 @@ public class DefaultPromise<V> extends AbstractFuture<V> implements Promise<V> {
     private boolean setResult(Object result) {
         if (RESULT_UPDATER.compareAndSet(this, null, result)
                 || RESULT_UPDATER.compareAndSet(this, RESULT.UNCANCELLABLE, result)) {
-            if (hasWaiters()) {
-                notifyAll();
-            }
+            checkNotifyWaiters();
             return true;
         }
         return false;
@@ -210,8 +215,9 @@ public class DefaultPromise<V> extends AbstractFuture<V> implements Promise<V> {
             throw new NullPointerException("listener");
         }
 
+        //listeners were already notified, only the new one is left
         if (isDone()) {
-            notifyListeners();
+            notifyListener(executor(), this, listener);
             return this;
         }
 
@@ -472,9 +478,7 @@ public class DefaultPromise<V> extends AbstractFuture<V> implements Promise<V> {
 
     public boolean cancel(boolean mayInterruptIfRunning) {
         if (RESULT_UPDATER.compareAndSet(this, null, CANCELLATION_CAUSE_HOLDER)) {
-            if (hasWaiters()) {
-                notifyAll();
-            }
+            checkNotifyWaiters();
             notifyListeners();
             return true;
         }
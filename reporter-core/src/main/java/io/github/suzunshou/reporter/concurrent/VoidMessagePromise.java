@@ -0,0 +1,247 @@
+package io.github.suzunshou.reporter.concurrent;
+
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Placeholder promise of a message nobody waits for. It keeps no state and takes no listeners,
+ * a failure is only counted as a dropped message, so queueing a message costs one small object
+ * and no listener or composite bookkeeping.
+ * <p>
+ * Like a void promise it never completes, {@link #isDone()} is always {@code false}. Listeners are
+ * ignored and waiting returns at once, so code written against regular promises does not block
+ * or fail on it. Only the first failure is counted.
+ */
+public final class VoidMessagePromise<V> implements MessagePromise<V> {
+    private static final Logger logger = LoggerFactory.getLogger(VoidMessagePromise.class);
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<VoidMessagePromise> DROPPED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(VoidMessagePromise.class, "dropped");
+
+    private final Message message;
+    private final ReporterMetrics metrics;
+    private final DeadLetterHandler deadLetterHandler;
+    private volatile int dropped;
+
+    public VoidMessagePromise(Message message, ReporterMetrics metrics) {
+        this(message, metrics, null);
+    }
+
+    /**
+     * @param deadLetterHandler receives the message if it is dropped before it is sent, may be {@code null}
+     */
+    public VoidMessagePromise(Message message, ReporterMetrics metrics, DeadLetterHandler deadLetterHandler) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        this.message = message;
+        this.metrics = metrics;
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * Return {@code true} if nobody listens to the promise.
+     *
+     * @param promise
+     * @return
+     */
+    public static boolean isVoid(Future<?> promise) {
+        return promise instanceof VoidMessagePromise;
+    }
+
+    /**
+     * Return a regular promise of the same message for code that has to listen to it,
+     * its failure is counted like a failure of this one and an overflow drop is handed to the
+     * dead letter handler.
+     *
+     * @return
+     */
+    public MessagePromise<V> unvoid() {
+        MessagePromise<V> promise = new DefaultMessagePromise<>(message);
+        promise.addListener(new GenericFutureListener<Future<? super V>>() {
+            @Override
+            public void operationComplete(Future<? super V> future) {
+                if (!future.isSuccess()) {
+                    //failed sends reach the dead letter handler through the sender
+                    dropped(isOverflow(future.cause()) ? future.cause() : null);
+                }
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public Message message() {
+        return message;
+    }
+
+    @Override
+    public MessagePromise<V> setSuccess(V result) {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> setSuccess() {
+        return this;
+    }
+
+    @Override
+    public boolean trySuccess() {
+        return false;
+    }
+
+    @Override
+    public boolean trySuccess(V result) {
+        return false;
+    }
+
+    @Override
+    public MessagePromise<V> setFailure(Throwable cause) {
+        dropped(cause);
+        return this;
+    }
+
+    @Override
+    public boolean tryFailure(Throwable cause) {
+        dropped(cause);
+        return false;
+    }
+
+    private static boolean isOverflow(Throwable cause) {
+        return cause instanceof MessageDroppedException && ((MessageDroppedException) cause).isOverflow();
+    }
+
+    private void dropped(Throwable cause) {
+        if (!DROPPED_UPDATER.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        metrics.incrementMessagesDropped(1);
+        if (deadLetterHandler != null && cause instanceof MessageDroppedException) {
+            try {
+                deadLetterHandler.onDropped(((MessageDroppedException) cause).only(message));
+            } catch (Exception e) {
+                logger.warn("Dead letter handler failed: {}", e.toString());
+            }
+        }
+    }
+
+    @Override
+    public boolean setUncancellable() {
+        return true;
+    }
+
+    @Override
+    public MessagePromise<V> addListener(GenericFutureListener<? extends Future<? super V>> listener) {
+        return this;
+    }
+
+    @SafeVarargs
+    @Override
+    public final MessagePromise<V> addListeners(GenericFutureListener<? extends Future<? super V>>... listeners) {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> removeListener(GenericFutureListener<? extends Future<? super V>> listener) {
+        return this;
+    }
+
+    @SafeVarargs
+    @Override
+    public final MessagePromise<V> removeListeners(GenericFutureListener<? extends Future<? super V>>... listeners) {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> sync() {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> syncUninterruptibly() {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> await() {
+        return this;
+    }
+
+    @Override
+    public MessagePromise<V> awaitUninterruptibly() {
+        return this;
+    }
+
+    @Override
+    public boolean await(long timeout, TimeUnit unit) {
+        return false;
+    }
+
+    @Override
+    public boolean await(long timeoutMillis) {
+        return false;
+    }
+
+    @Override
+    public boolean awaitUninterruptibly(long timeout, TimeUnit unit) {
+        return false;
+    }
+
+    @Override
+    public boolean awaitUninterruptibly(long timeoutMillis) {
+        return false;
+    }
+
+    @Override
+    public boolean isSuccess() {
+        return false;
+    }
+
+    @Override
+    public boolean isCancellable() {
+        return false;
+    }
+
+    @Override
+    public Throwable cause() {
+        return null;
+    }
+
+    @Override
+    public V getNow() {
+        return null;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return false;
+    }
+
+    @Override
+    public V get() {
+        return null;
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) {
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import io.github.suzunshou.reporter.reporter.BatchReporter;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Reports the messages of the sealed segments of a {@link DeadLetterSink} directory again,
+ * oldest segment first and at most messagesPerSecond, so a recovered sink is not flooded. A
+ * segment is deleted once all of its messages are reported, a replayer stopped in the middle of
+ * a segment reports its messages again on the next start.
+ */
+public final class DeadLetterReplayer<M extends Message> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterReplayer.class);
+
+    //no more than this much idle time is made up with a burst
+    private static final long MAX_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File directory;
+    private final MessageCodec<M> codec;
+    private final BatchReporter<M, ?> reporter;
+    private final long intervalNanos;
+    private final long pollNanos;
+
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile boolean closed;
+    private final Thread worker;
+
+    //only touched by the worker
+    private long nextNanos;
+
+    /**
+     * @param messagesPerSecond rate of the replay
+     * @param poll              how often the directory is looked at for new sealed segments
+     * @param unit              unit of poll
+     */
+    public DeadLetterReplayer(File directory, MessageCodec<M> codec, BatchReporter<M, ?> reporter,
+                              double messagesPerSecond, long poll, TimeUnit unit) {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+        if (reporter == null) {
+            throw new NullPointerException("reporter");
+        }
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("messagesPerSecond should be greater than 0.");
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.reporter = reporter;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        this.pollNanos = unit.toNanos(poll);
+        this.worker = ReporterExecutors.daemonThreadFactory("DeadLetterReplayer-").newThread(new Worker());
+    }
+
+    public DeadLetterReplayer<M> start() {
+        worker.start();
+        return this;
+    }
+
+    /**
+     * messages reported again so far.
+     */
+    public long replayed() {
+        return replayed.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(worker);
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return {@code false} if the replayer was closed in the middle of the segment
+     */
+    private boolean replay(File segment) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = segment.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            byte[] payload;
+            while ((payload = DeadLetterSegments.read(in, length, crc)) != null) {
+                M message;
+                try {
+                    message = codec.decode(payload);
+                } catch (Exception e) {
+                    logger.warn("Skip undecodable dead letter in {}: {}", segment, e.toString());
+                    continue;
+                }
+                if (!throttle()) {
+                    return false;
+                }
+                reporter.reportAndForget(message);
+                replayed.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * wait for the next slot of the rate.
+     *
+     * @return {@code false} if closed meanwhile
+     */
+    private boolean throttle() {
+        long now = System.nanoTime();
+        nextNanos = Math.max(nextNanos + intervalNanos, now - MAX_BURST_NANOS);
+        long delay;
+        while (!closed && (delay = nextNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, delay);
+        }
+        return !closed;
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            nextNanos = System.nanoTime();
+            while (!closed) {
+                try {
+                    for (File segment : DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX)) {
+                        if (!segment.exists()) {
+                            //deleted for the disk budget meanwhile
+                            continue;
+                        }
+                        if (!replay(segment)) {
+                            return;
+                        }
+                        if (!segment.delete() && segment.exists()) {
+                            logger.warn("Can not delete replayed dead letter segment {}", segment);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.warn("Can not replay dead letters of " + directory, e);
+                }
+                if (!closed) {
+                    LockSupport.parkNanos(this, pollNanos);
+                }
+            }
+        }
+    }
+}
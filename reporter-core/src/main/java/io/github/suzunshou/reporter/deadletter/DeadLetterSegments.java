@@ -0,0 +1,111 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * File layout shared by the {@link DeadLetterSink} and the {@link DeadLetterReplayer}.
+ * <p>
+ * A directory holds numbered segments, the one being written ends with {@link #OPEN_SUFFIX} and
+ * is renamed to {@link #SUFFIX} once it is sealed, only sealed segments are replayed. A record is
+ * {@code varint length | int crc32 | payload}, a torn or corrupted record ends its segment.
+ */
+final class DeadLetterSegments {
+
+    static final String SUFFIX = ".dlq";
+    static final String OPEN_SUFFIX = ".dlq.open";
+
+    private DeadLetterSegments() {
+    }
+
+    static File open(File directory, long number) {
+        return new File(directory, String.format("%020d%s", number, OPEN_SUFFIX));
+    }
+
+    static File sealed(File open) {
+        String name = open.getName();
+        return new File(open.getParentFile(), name.substring(0, name.length() - OPEN_SUFFIX.length()) + SUFFIX);
+    }
+
+    static long number(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.indexOf('.')));
+    }
+
+    /**
+     * the segments of the directory with the suffix, oldest first.
+     */
+    static File[] list(File directory, final String suffix) throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(suffix) && name.indexOf('.') == 20;
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can not list dead letter directory " + directory);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * @return the bytes written
+     */
+    static int write(OutputStream out, byte[] payload, CRC32 crc) throws IOException {
+        int written = 0;
+        int length = payload.length;
+        while ((length & ~0x7F) != 0) {
+            out.write((length & 0x7F) | 0x80);
+            length >>>= 7;
+            written++;
+        }
+        out.write(length);
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        int checksum = (int) crc.getValue();
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+        out.write(payload);
+        return written + 1 + 4 + payload.length;
+    }
+
+    /**
+     * @param maxLength the size of the segment, a longer record is corrupted
+     * @return the next payload, {@code null} at the end of the segment or at a torn record
+     */
+    static byte[] read(DataInputStream in, long maxLength, CRC32 crc) throws IOException {
+        int length = 0;
+        try {
+            for (int shift = 0; ; shift += 7) {
+                int b = in.readUnsignedByte();
+                if (shift > 28) {
+                    return null;
+                }
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            int checksum = in.readInt();
+            if (length < 0 || length > maxLength) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Dead letter handler which keeps the dropped messages in rotating segment files of a local
+ * directory, see {@link DeadLetterSegments} for the layout.
+ * <p>
+ * {@link #onDropped(MessageDroppedException)} only puts the messages into a bounded in-memory
+ * queue, it never waits for the disk. A single writer thread encodes and appends them, seals a
+ * segment once it is full or older than maxSegmentAge and then deletes the oldest sealed
+ * segments while the directory is over its disk budget. Messages which find the queue full are
+ * counted as {@link #lost()}, segments deleted for the budget are logged.
+ * <p>
+ * Close the sink after the reporters using it, so the messages they drop on close are kept.
+ */
+public final class DeadLetterSink<M extends Message> implements DeadLetterHandler, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterSink.class);
+
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    private static final int DRAIN_BATCH = 256;
+
+    private final File directory;
+    private final MessageCodec<M> codec;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final long maxSegmentAgeNanos;
+
+    private final ArrayBlockingQueue<Message> pending;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private volatile boolean closed;
+    //the writer took the queue for the last time
+    private volatile boolean stopped;
+    private final Thread writer;
+
+    //only touched by the writer
+    private final CRC32 crc = new CRC32();
+    private long nextSegment;
+    private File current;
+    private OutputStream out;
+    private long currentBytes;
+    private long currentOpenedNanos;
+
+    /**
+     * @param directory      where the segments are written, shared with a {@link DeadLetterReplayer}
+     * @param codec          how messages are stored
+     * @param segmentBytes   a segment is sealed once it holds this many bytes
+     * @param maxBytes       disk budget of the sealed segments, zero or negative means unbounded
+     * @param maxSegmentAge  a segment is sealed once it is this old, so its messages can be replayed
+     * @param unit           unit of maxSegmentAge
+     * @param queueCapacity  messages waiting for the writer, further messages are lost
+     */
+    public DeadLetterSink(File directory, MessageCodec<M> codec, long segmentBytes, long maxBytes,
+                          long maxSegmentAge, TimeUnit unit, int queueCapacity) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes should be greater than 0.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create dead letter directory " + directory);
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.maxSegmentAgeNanos = unit.toNanos(maxSegmentAge);
+        this.pending = new ArrayBlockingQueue<>(queueCapacity);
+        recover();
+        this.writer = ReporterExecutors.daemonThreadFactory("DeadLetterSink-writer-").newThread(new Writer());
+        this.writer.start();
+    }
+
+    public static <M extends Message> DeadLetterSink<M> create(File directory, MessageCodec<M> codec) throws IOException {
+        return new DeadLetterSink<>(directory, codec, DEFAULT_SEGMENT_BYTES, 0L, 10, TimeUnit.SECONDS, 65536);
+    }
+
+    /**
+     * seal the segments a crashed writer left open and continue after the last segment.
+     */
+    private void recover() throws IOException {
+        for (File open : DeadLetterSegments.list(directory, DeadLetterSegments.OPEN_SUFFIX)) {
+            nextSegment = Math.max(nextSegment, DeadLetterSegments.number(open) + 1);
+            seal(open);
+        }
+        for (File sealed : DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX)) {
+            nextSegment = Math.max(nextSegment, DeadLetterSegments.number(sealed) + 1);
+        }
+    }
+
+    @Override
+    public void onDropped(MessageDroppedException dropped) {
+        List<? extends Message> messages = dropped.droppedMessages();
+        if (closed) {
+            lost.addAndGet(messages.size());
+            return;
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (!pending.offer(messages.get(i))) {
+                lost.addAndGet(messages.size() - i);
+                break;
+            }
+        }
+        //closed meanwhile and the writer is gone, nobody else will take them
+        if (stopped) {
+            discardPending();
+        }
+    }
+
+    private void discardPending() {
+        int discarded = 0;
+        while (pending.poll() != null) {
+            discarded++;
+        }
+        if (discarded > 0) {
+            lost.addAndGet(discarded);
+        }
+    }
+
+    /**
+     * messages written to a segment.
+     */
+    public long written() {
+        return written.get();
+    }
+
+    /**
+     * messages never written because the writer fell behind, the sink was closed or the codec
+     * failed. Segments deleted for the disk budget are logged, not counted here.
+     */
+    public long lost() {
+        return lost.get();
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    /**
+     * write the queued messages, seal the current segment and stop the writer.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void append(Message message) throws IOException {
+        byte[] payload;
+        try {
+            payload = codec.encode((M) message);
+        } catch (Exception e) {
+            logger.warn("Can not encode dead letter {}: {}", message, e.toString());
+            lost.incrementAndGet();
+            return;
+        }
+        if (out == null) {
+            current = DeadLetterSegments.open(directory, nextSegment++);
+            out = new BufferedOutputStream(new FileOutputStream(current), 64 * 1024);
+            currentBytes = 0;
+            currentOpenedNanos = System.nanoTime();
+        }
+        currentBytes += DeadLetterSegments.write(out, payload, crc);
+        written.incrementAndGet();
+    }
+
+    private void sealCurrent() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.close();
+        out = null;
+        seal(current);
+        current = null;
+        enforceBudget();
+    }
+
+    private static void seal(File open) throws IOException {
+        File sealed = DeadLetterSegments.sealed(open);
+        if (!open.renameTo(sealed)) {
+            throw new IOException("Can not seal dead letter segment " + open);
+        }
+    }
+
+    /**
+     * delete the oldest sealed segments while the directory is over its budget.
+     */
+    private void enforceBudget() throws IOException {
+        if (maxBytes <= 0) {
+            return;
+        }
+        File[] sealed = DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX);
+        long total = 0;
+        for (File segment : sealed) {
+            total += segment.length();
+        }
+        for (int i = 0; i < sealed.length - 1 && total > maxBytes; i++) {
+            long length = sealed[i].length();
+            if (sealed[i].delete()) {
+                total -= length;
+                logger.warn("Dead letter budget of {} bytes reached, deleted {}", maxBytes, sealed[i]);
+            }
+        }
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            List<Message> batch = new ArrayList<>(DRAIN_BATCH);
+            //messages of the batch which are written or counted as lost already
+            int done = 0;
+            try {
+                while (!closed || !pending.isEmpty()) {
+                    Message first = null;
+                    try {
+                        if (!closed) {
+                            first = pending.poll(100, TimeUnit.MILLISECONDS);
+                        }
+                    } catch (InterruptedException e) {
+                        //closed, write what is left
+                    }
+                    if (first != null) {
+                        batch.add(first);
+                    }
+                    pending.drainTo(batch, DRAIN_BATCH);
+                    while (done < batch.size()) {
+                        append(batch.get(done));
+                        done++;
+                        if (currentBytes >= segmentBytes) {
+                            sealCurrent();
+                        }
+                    }
+                    batch.clear();
+                    done = 0;
+                    if (out != null) {
+                        out.flush();
+                        if (System.nanoTime() - currentOpenedNanos >= maxSegmentAgeNanos) {
+                            sealCurrent();
+                        }
+                    }
+                }
+                sealCurrent();
+            } catch (IOException e) {
+                logger.error("Can not write dead letters to " + directory, e);
+                closed = true;
+                lost.addAndGet(batch.size() - done);
+            } finally {
+                stopped = true;
+                discardPending();
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.io.IOException;
+
+/**
+ * Turns dead letters into bytes and back. A codec written for the message type is much smaller
+ * and faster than the {@link SerializableMessageCodec} fallback.
+ */
+public interface MessageCodec<M extends Message> {
+
+    byte[] encode(M message) throws IOException;
+
+    M decode(byte[] bytes) throws IOException;
+}
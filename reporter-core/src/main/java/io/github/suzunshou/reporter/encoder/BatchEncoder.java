@@ -0,0 +1,21 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Serializes a drained batch into the wire format of a {@link ByteSender}.
+ */
+public interface BatchEncoder<M extends Message> {
+
+    /**
+     * write the messages into the batch, in order.
+     *
+     * @param messages
+     * @param batch
+     * @throws IOException fails the whole batch
+     */
+    void encode(List<M> messages, EncodedBatch batch) throws IOException;
+}
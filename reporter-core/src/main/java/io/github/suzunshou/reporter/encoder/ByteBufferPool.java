@@ -0,0 +1,125 @@
+package io.github.suzunshou.reporter.encoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct {@link ByteBuffer}s in power-of-two size classes between minCapacity and
+ * maxCapacity. Each class keeps at most maxPerClass idle buffers and all classes together at most
+ * maxIdleBytes, a request above maxCapacity gets a fresh heap buffer which is not pooled.
+ */
+public final class ByteBufferPool {
+
+    //16 buffers of every class would pin close to 128 MiB of direct memory
+    private static final ByteBufferPool SHARED = new ByteBufferPool(4 * 1024, 4 * 1024 * 1024, 16, 16 * 1024 * 1024);
+
+    /**
+     * the largest power of two an int holds.
+     */
+    private static final int MAX_POOLED = 1 << 30;
+
+    private final int minShift;
+    private final int maxCapacity;
+    private final int maxPerClass;
+    private final long maxIdleBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+    private final AtomicInteger[] idle;
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    /**
+     * @param minCapacity smallest buffer handed out, rounded up to a power of two
+     * @param maxCapacity largest pooled buffer, rounded up to a power of two
+     * @param maxPerClass idle buffers kept per size class
+     */
+    public ByteBufferPool(int minCapacity, int maxCapacity, int maxPerClass) {
+        this(minCapacity, maxCapacity, maxPerClass, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param minCapacity  smallest buffer handed out, rounded up to a power of two
+     * @param maxCapacity  largest pooled buffer, rounded up to a power of two
+     * @param maxPerClass  idle buffers kept per size class
+     * @param maxIdleBytes capacity of the idle buffers of all classes together
+     */
+    public ByteBufferPool(int minCapacity, int maxCapacity, int maxPerClass, long maxIdleBytes) {
+        if (minCapacity <= 0 || maxCapacity < minCapacity || maxCapacity > MAX_POOLED) {
+            throw new IllegalArgumentException("0 < minCapacity <= maxCapacity <= " + MAX_POOLED);
+        }
+        this.minShift = shift(minCapacity);
+        int maxShift = shift(maxCapacity);
+        this.maxCapacity = 1 << maxShift;
+        this.maxPerClass = maxPerClass;
+        this.maxIdleBytes = maxIdleBytes;
+        int n = maxShift - minShift + 1;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedQueue<ByteBuffer>[] classes = new ConcurrentLinkedQueue[n];
+        this.classes = classes;
+        this.idle = new AtomicInteger[n];
+        for (int i = 0; i < n; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            idle[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * the pool of the reporters built from an encoder, 4 KiB to 4 MiB and at most 16 MiB idle.
+     */
+    public static ByteBufferPool shared() {
+        return SHARED;
+    }
+
+    private static int shift(int capacity) {
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+
+    /**
+     * Return a cleared buffer of at least the capacity, a capacity of 0 gets the smallest class.
+     *
+     * @param capacity
+     * @return
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        if (capacity > maxCapacity) {
+            return ByteBuffer.allocate(capacity);
+        }
+        int index = capacity <= 1 ? 0 : Math.max(0, shift(capacity) - minShift);
+        ByteBuffer buffer = classes[index].poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(1 << (index + minShift));
+        }
+        idle[index].decrementAndGet();
+        idleBytes.addAndGet(-buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * give a buffer of this pool back, it must not be used afterwards.
+     *
+     * @param buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() > maxCapacity || Integer.bitCount(buffer.capacity()) != 1) {
+            return;
+        }
+        int index = shift(buffer.capacity()) - minShift;
+        if (index < 0) {
+            return;
+        }
+        if (idle[index].incrementAndGet() > maxPerClass) {
+            idle[index].decrementAndGet();
+            return;
+        }
+        if (idleBytes.addAndGet(buffer.capacity()) > maxIdleBytes) {
+            idleBytes.addAndGet(-buffer.capacity());
+            idle[index].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        classes[index].offer(buffer);
+    }
+}
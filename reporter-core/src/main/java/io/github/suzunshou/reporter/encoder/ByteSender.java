@@ -0,0 +1,21 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.reporter.Component;
+import io.github.suzunshou.reporter.reporter.SendCallback;
+
+/**
+ * Sender of encoded batches, typically writing {@link EncodedBatch#buffer()} to an NIO channel.
+ * It never sees the messages, {@link EncodingSender} encodes them and returns the buffer to its
+ * pool once the callback completed the promises of the batch.
+ */
+public interface ByteSender<R> extends Component {
+
+    /**
+     * start sending the batch, must not block. The callback takes one result per message of the
+     * batch, {@code Collections.nCopies(batch.messageCount(), result)} for a batch wide result.
+     *
+     * @param batch
+     * @param callback
+     */
+    void send(EncodedBatch batch, SendCallback<R> callback);
+}
@@ -0,0 +1,328 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.reporter.DetailedReporterMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage of {@link EncodingSender}. Batches below minBytes, and batches which do not
+ * get smaller, are sent raw. Every thread keeps its own {@link Deflater}, {@link Inflater} and
+ * scratch arrays, so compressing a batch allocates nothing but its pooled output buffer.
+ * {@link #close()} ends the native zlib streams of all threads, afterwards every call uses and
+ * ends a stream of its own.
+ * <p>
+ * {@link Codec#DEFLATE} writes the zlib format and {@link Codec#GZIP} the gzip format, matching
+ * the HTTP content codings of {@link EncodedBatch#contentEncoding()}.
+ */
+public final class Compression implements Closeable {
+
+    public enum Codec {
+        DEFLATE("deflate"),
+        GZIP("gzip");
+
+        final String contentEncoding;
+
+        Codec(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        public static Codec of(String name) {
+            for (Codec codec : values()) {
+                if (codec.contentEncoding.equalsIgnoreCase(name)) {
+                    return codec;
+                }
+            }
+            throw new IllegalArgumentException("Unknown compression " + name);
+        }
+    }
+
+    private static final int CHUNK = 32 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private final Codec codec;
+    private final int level;
+    private final int minBytes;
+
+    //every workspace handed out, so close can end the streams of threads which are gone
+    private final Queue<Workspace> allocated = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            Workspace workspace = new Workspace();
+            allocated.offer(workspace);
+            return workspace;
+        }
+    };
+    private volatile boolean closed;
+
+    /**
+     * @param level    {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9
+     * @param minBytes batches below this size are sent raw
+     */
+    public Compression(Codec codec, int level, int minBytes) {
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("level not in [0, 9]: " + level);
+        }
+        this.codec = codec;
+        this.level = level;
+        this.minBytes = minBytes;
+    }
+
+    public static Compression gzip(int level, int minBytes) {
+        return new Compression(Codec.GZIP, level, minBytes);
+    }
+
+    public static Compression deflate(int level, int minBytes) {
+        return new Compression(Codec.DEFLATE, level, minBytes);
+    }
+
+    public Codec codec() {
+        return codec;
+    }
+
+    /**
+     * Return the compressed batch and release the raw one, or the raw batch if it is below
+     * minBytes or does not get smaller.
+     */
+    EncodedBatch compress(EncodedBatch raw, ByteBufferPool pool, DetailedReporterMetrics metrics) {
+        int rawSize = raw.size();
+        if (rawSize < minBytes) {
+            return raw;
+        }
+        Workspace workspace = workspace();
+        try {
+            return compress(raw, pool, metrics, workspace);
+        } finally {
+            release(workspace);
+        }
+    }
+
+    private EncodedBatch compress(EncodedBatch raw, ByteBufferPool pool, DetailedReporterMetrics metrics,
+                                  Workspace workspace) {
+        int rawSize = raw.size();
+        long start = cpuTime();
+        Deflater deflater = workspace.deflater(level, codec == Codec.GZIP);
+        CRC32 crc = workspace.crc;
+        byte[] in = workspace.in;
+        byte[] out = workspace.out;
+
+        EncodedBatch compressed = new EncodedBatch(pool, raw.messageCount(), rawSize / 2 + 64);
+        if (codec == Codec.GZIP) {
+            compressed.writable(GZIP_HEADER.length).put(GZIP_HEADER);
+            crc.reset();
+        }
+        ByteBuffer source = raw.buffer().duplicate();
+        while (source.hasRemaining()) {
+            int n = Math.min(in.length, source.remaining());
+            source.get(in, 0, n);
+            if (codec == Codec.GZIP) {
+                crc.update(in, 0, n);
+            }
+            deflater.setInput(in, 0, n);
+            while (!deflater.needsInput()) {
+                int c = deflater.deflate(out);
+                compressed.writable(c).put(out, 0, c);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int c = deflater.deflate(out);
+            compressed.writable(c).put(out, 0, c);
+        }
+        deflater.reset();
+        if (codec == Codec.GZIP) {
+            ByteBuffer trailer = compressed.writable(8);
+            trailer.order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt((int) crc.getValue()).putInt(rawSize);
+            trailer.order(ByteOrder.BIG_ENDIAN);
+        }
+        compressed.encoded();
+        metrics.incrementCompression(rawSize, compressed.size(), cpuTime() - start);
+
+        if (compressed.size() >= rawSize) {
+            compressed.release();
+            return raw;
+        }
+        compressed.compressed(codec.contentEncoding, rawSize);
+        raw.release();
+        return compressed;
+    }
+
+    /**
+     * Write the decompressed bytes of a batch compressed by this codec, for receivers and tests.
+     *
+     * @param source the compressed bytes between position and limit, consumed
+     * @param target
+     * @throws IOException if the bytes are not in the format of the codec
+     */
+    public void decompress(ByteBuffer source, OutputStream target) throws IOException {
+        Workspace workspace = workspace();
+        try {
+            decompress(source, target, workspace);
+        } finally {
+            release(workspace);
+        }
+    }
+
+    private void decompress(ByteBuffer source, OutputStream target, Workspace workspace) throws IOException {
+        Inflater inflater = workspace.inflater(codec == Codec.GZIP);
+        byte[] in = workspace.in;
+        byte[] out = workspace.out;
+        CRC32 crc = workspace.crc;
+        crc.reset();
+        if (codec == Codec.GZIP) {
+            skipGzipHeader(source);
+        }
+        long size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!source.hasRemaining()) {
+                        throw new IOException("Truncated " + codec.contentEncoding + " data");
+                    }
+                    int n = Math.min(in.length, source.remaining());
+                    source.get(in, 0, n);
+                    inflater.setInput(in, 0, n);
+                }
+                int c = inflater.inflate(out);
+                if (c == 0 && inflater.needsDictionary()) {
+                    throw new IOException("Preset dictionaries are not supported");
+                }
+                target.write(out, 0, c);
+                crc.update(out, 0, c);
+                size += c;
+            }
+            //give back what the inflater read beyond the end of the stream
+            source.position(source.position() - inflater.getRemaining());
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+        }
+        if (codec == Codec.GZIP) {
+            if (source.remaining() < 8) {
+                throw new IOException("Truncated gzip trailer");
+            }
+            ByteBuffer trailer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (trailer.getInt() != (int) crc.getValue() || trailer.getInt() != (int) size) {
+                throw new IOException("Corrupted gzip data");
+            }
+            source.position(source.position() + 8);
+        }
+    }
+
+    private Workspace workspace() {
+        return closed ? new Workspace() : workspaces.get();
+    }
+
+    private void release(Workspace workspace) {
+        if (closed) {
+            workspace.end();
+        }
+    }
+
+    /**
+     * End the zlib streams of all threads. Call it once the batches are sent, a thread still
+     * compressing may fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workspaces.remove();
+        Workspace workspace;
+        while ((workspace = allocated.poll()) != null) {
+            workspace.end();
+        }
+    }
+
+    private static void skipGzipHeader(ByteBuffer source) throws IOException {
+        if (source.remaining() < 10 || source.get() != 0x1f || source.get() != (byte) 0x8b || source.get() != Deflater.DEFLATED) {
+            throw new IOException("Not in gzip format");
+        }
+        int flags = source.get() & 0xff;
+        source.position(source.position() + 6);
+        if ((flags & FEXTRA) != 0) {
+            ByteBuffer length = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+            source.position(source.position() + 2 + (length.getShort() & 0xffff));
+        }
+        if ((flags & FNAME) != 0) {
+            while (source.get() != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (source.get() != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            source.position(source.position() + 2);
+        }
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return "Compression{codec=" + codec + ", level=" + level + ", minBytes=" + minBytes + "}";
+    }
+
+    /**
+     * the compressors and scratch arrays of one thread.
+     */
+    private static final class Workspace {
+        final CRC32 crc = new CRC32();
+        final byte[] in = new byte[CHUNK];
+        final byte[] out = new byte[CHUNK];
+        //volatile for the thread which ends them on close
+        volatile Deflater deflater;
+        volatile Inflater inflater;
+
+        Deflater deflater(int level, boolean nowrap) {
+            if (deflater == null) {
+                deflater = new Deflater(level, nowrap);
+            }
+            return deflater;
+        }
+
+        Inflater inflater(boolean nowrap) {
+            if (inflater == null) {
+                inflater = new Inflater(nowrap);
+            }
+            return inflater;
+        }
+
+        void end() {
+            Deflater deflater = this.deflater;
+            if (deflater != null) {
+                deflater.end();
+            }
+            Inflater inflater = this.inflater;
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.suzunshou.reporter.encoder;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A drained batch encoded into a pooled buffer. A {@link BatchEncoder} writes into it through
+ * {@link #output()} or {@link #writable(int)}, the buffer grows by moving to a larger pooled
+ * one. Once encoded, {@link #buffer()} holds the bytes between position and limit, ready for a
+ * channel write, and stays valid until the {@link ByteSender} completed the batch.
+ */
+public final class EncodedBatch {
+
+    private final ByteBufferPool pool;
+    private final int messageCount;
+    private ByteBuffer buffer;
+    private boolean encoded;
+    private String contentEncoding;
+    private int uncompressedSize = -1;
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) {
+            writable(1).put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writable(len).put(b, off, len);
+        }
+    };
+
+    EncodedBatch(ByteBufferPool pool, int messageCount, int initialCapacity) {
+        this.pool = pool;
+        this.messageCount = messageCount;
+        this.buffer = pool.acquire(initialCapacity);
+    }
+
+    /**
+     * the messages encoded into this batch, a sender returns one result for each.
+     */
+    public int messageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Return the buffer to write at least minBytes into, valid until the next call.
+     *
+     * @param minBytes
+     * @return
+     */
+    public ByteBuffer writable(int minBytes) {
+        if (encoded) {
+            throw new IllegalStateException("batch is encoded already");
+        }
+        if (buffer.remaining() < minBytes) {
+            long required = (long) buffer.position() + minBytes;
+            if (required > Integer.MAX_VALUE) {
+                throw new IllegalStateException("batch exceeds " + Integer.MAX_VALUE + " bytes");
+            }
+            //double while it can, a batch near the limit grows to what it needs
+            int capacity = (int) Math.max(required, Math.min((long) buffer.capacity() << 1, Integer.MAX_VALUE));
+            ByteBuffer larger = pool.acquire(capacity);
+            buffer.flip();
+            larger.put(buffer);
+            pool.release(buffer);
+            buffer = larger;
+        }
+        return buffer;
+    }
+
+    public OutputStream output() {
+        return output;
+    }
+
+    /**
+     * the encoded bytes between position and limit.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * the encoded bytes.
+     */
+    public int size() {
+        return encoded ? buffer.limit() : buffer.position();
+    }
+
+    /**
+     * the coding of a {@link Compression compressed} batch, {@code gzip} or {@code deflate},
+     * {@code null} for a raw one.
+     */
+    public String contentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * the encoded bytes before compression.
+     */
+    public int uncompressedSize() {
+        return uncompressedSize < 0 ? size() : uncompressedSize;
+    }
+
+    void compressed(String contentEncoding, int uncompressedSize) {
+        this.contentEncoding = contentEncoding;
+        this.uncompressedSize = uncompressedSize;
+    }
+
+    void encoded() {
+        buffer.flip();
+        encoded = true;
+    }
+
+    void release() {
+        ByteBuffer released = buffer;
+        buffer = null;
+        if (released != null) {
+            pool.release(released);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.reporter.AbstractNonBlockingSender;
+import io.github.suzunshou.reporter.reporter.CapableSender;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.DetailedReporterMetrics;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+import io.github.suzunshou.reporter.reporter.ReporterMetricsAdapter;
+import io.github.suzunshou.reporter.reporter.RejectedBatchException;
+import io.github.suzunshou.reporter.reporter.SendCallback;
+import io.github.suzunshou.reporter.reporter.SenderCapabilities;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The sender stage of a reporter built from a {@link BatchEncoder} and a {@link ByteSender}. A
+ * drained batch is encoded straight into a pooled buffer sized by the previous batches, handed to
+ * the byte sender and the buffer goes back to the pool once the promises are completed, so a
+ * steady stream of batches allocates no buffers.
+ * <p>
+ * The reporter cuts batches by an estimate of their size, so an encoded batch may still exceed the
+ * maxBytes the byte sender advertises. Such a batch fails with a {@link RejectedBatchException}
+ * before it reaches the byte sender, it is not retried and bisection splits it if enabled. A batch
+ * the encoder fails on fails the same way, so bisection isolates the message to blame.
+ * <p>
+ * The reporter runs this sender on its sender pool, so encoding and compression never hold up a
+ * flush or timer thread and only the hand-off of the bytes has to be non-blocking.
+ */
+public class EncodingSender<M extends Message, R> extends AbstractNonBlockingSender<M, R> implements CapableSender {
+
+    private final BatchEncoder<M> encoder;
+    private final ByteSender<R> sender;
+    private final ByteBufferPool pool;
+    //advertised by the byte sender, zero means unbounded
+    private final long maxBytes;
+
+    //bytes per message of the last batch, sizes the buffer of the next one, zero until the first batch
+    private volatile int bytesPerMessage;
+
+    private volatile Compression compression;
+    private volatile DetailedReporterMetrics metrics = ReporterMetricsAdapter.detailed(ReporterMetrics.NOOP_METRICS);
+
+    public EncodingSender(BatchEncoder<M> encoder, ByteSender<R> sender, ByteBufferPool pool) {
+        if (encoder == null) {
+            throw new NullPointerException("encoder");
+        }
+        if (sender == null) {
+            throw new NullPointerException("sender");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        this.encoder = encoder;
+        this.sender = sender;
+        this.pool = pool;
+        this.maxBytes = SenderCapabilities.of(sender).maxBytes();
+    }
+
+    /**
+     * compress encoded batches before they are handed to the byte sender.
+     *
+     * @param compression {@code null} sends raw batches, closed with this sender
+     * @param metrics     records the compression ratio and time
+     */
+    public void compression(Compression compression, ReporterMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = ReporterMetricsAdapter.detailed(metrics);
+        this.compression = compression;
+    }
+
+    /**
+     * encoded bytes per message of the last batch, before compression, {@code 0} until the first
+     * batch was encoded.
+     */
+    public int bytesPerMessage() {
+        return bytesPerMessage;
+    }
+
+    @Override
+    public void send(List<M> messages, final SendCallback<R> callback) {
+        final EncodedBatch batch;
+        try {
+            batch = encode(messages);
+        } catch (RejectedBatchException e) {
+            callback.onFailure(e);
+            return;
+        }
+        if (maxBytes > 0 && batch.buffer().remaining() > maxBytes) {
+            int bytes = batch.buffer().remaining();
+            batch.release();
+            callback.onFailure(new RejectedBatchException("Encoded batch of " + messages.size() + " messages has "
+                    + bytes + " bytes, the sender takes " + maxBytes));
+            return;
+        }
+        final AtomicBoolean completed = new AtomicBoolean();
+        SendCallback<R> releasing = new SendCallback<R>() {
+            @Override
+            public void onSuccess(List<R> results) {
+                if (completed.compareAndSet(false, true)) {
+                    try {
+                        callback.onSuccess(results);
+                    } finally {
+                        batch.release();
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                if (completed.compareAndSet(false, true)) {
+                    try {
+                        callback.onFailure(cause);
+                    } finally {
+                        batch.release();
+                    }
+                }
+            }
+        };
+        try {
+            sender.send(batch, releasing);
+        } catch (RuntimeException e) {
+            releasing.onFailure(e);
+        }
+    }
+
+    private EncodedBatch encode(List<M> messages) {
+        int count = messages.size();
+        //a quarter of headroom, so a slightly larger batch does not move to a larger buffer
+        int perMessage = bytesPerMessage;
+        long estimate = (long) (perMessage == 0 ? 64 : perMessage) * count;
+        EncodedBatch batch = new EncodedBatch(pool, count, (int) Math.min(Integer.MAX_VALUE, estimate + (estimate >> 2)));
+        try {
+            encoder.encode(messages, batch);
+        } catch (IOException | RuntimeException e) {
+            batch.release();
+            throw new RejectedBatchException("Can not encode a batch of " + count + " messages", e);
+        }
+        batch.encoded();
+        if (count > 0) {
+            bytesPerMessage = Math.max(1, batch.size() / count);
+        }
+        Compression compression = this.compression;
+        return compression == null ? batch : compression.compress(batch, pool, metrics);
+    }
+
+    /**
+     * the capabilities of the byte sender, its maxBytes bound the encoded batch.
+     */
+    @Override
+    public SenderCapabilities capabilities() {
+        return SenderCapabilities.of(sender);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sender.close();
+        } finally {
+            Compression compression = this.compression;
+            if (compression != null) {
+                compression.close();
+            }
+        }
+    }
+}
@@ -2,22 +2,50 @@ package io.github.suzunshou.reporter.queue;
 
 import io.github.suzunshou.buffers.BufferFilter;
 import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.Timeout;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
 import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * @author zunshou on 2019/11/17 5:27 下午.
  */
 public abstract class AbstractSizeBoundedQueue {
 
-    volatile boolean isFull = false;
+    //set while the queue waits in or is being flushed by the FlushSynchronizer
+    private volatile int scheduled;
+    private static final AtomicIntegerFieldUpdater<AbstractSizeBoundedQueue> SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(AbstractSizeBoundedQueue.class, "scheduled");
 
     private volatile long lastAccessNanos = System.nanoTime();
 
     final int maxSize;
+    //zero or negative means no byte bound
+    final long maxBytes;
     public final Message.MessageKey key;
 
+    //only touched for messages which report their size
+    private final AtomicLong bytes = new AtomicLong();
+
+    private MemoryLimiter memoryLimiter = MemoryLimiter.NOOP_LIMITER;
+
+    //flush deadline armed by LingerTimer, null while the queue is not lingering
+    private volatile Timeout lingerTimeout;
+    private static final AtomicReferenceFieldUpdater<AbstractSizeBoundedQueue, Timeout> LINGER_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(AbstractSizeBoundedQueue.class, Timeout.class, "lingerTimeout");
+
     AbstractSizeBoundedQueue(int maxSize, Message.MessageKey key) {
+        this(maxSize, 0L, key);
+    }
+
+    AbstractSizeBoundedQueue(int maxSize, long maxBytes, Message.MessageKey key) {
         this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
         this.key = key;
     }
 
@@ -28,6 +56,17 @@ public abstract class AbstractSizeBoundedQueue {
      */
     public abstract void offer(MessagePromise<?> promise);
 
+    /**
+     * offer a batch of messages to queue, implementations may reserve room for the whole batch at once.
+     *
+     * @param promises
+     */
+    public void offer(List<? extends MessagePromise<?>> promises) {
+        for (MessagePromise<?> promise : promises) {
+            offer(promise);
+        }
+    }
+
     /**
      * remove message and send it to MessageFilter.
      *
@@ -36,6 +75,63 @@ public abstract class AbstractSizeBoundedQueue {
      */
     public abstract int drainTo(BufferFilter<MessagePromise<?>> filter);
 
+    /**
+     * remove at most maxElements messages and add them to the list in one step.
+     *
+     * @param list
+     * @param maxElements
+     * @return
+     */
+    public int drainTo(final List<MessagePromise<?>> list, final int maxElements) {
+        return drainTo(new BufferFilter<MessagePromise<?>>() {
+            int remaining = maxElements;
+
+            @Override
+            public boolean accept(MessagePromise<?> promise) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining--;
+                list.add(promise);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * remove at most maxElements messages whose weight adds up to at most maxBytes, the first
+     * message is always taken so a single heavy message can not stall the queue.
+     *
+     * @param list
+     * @param maxElements
+     * @param maxBytes    zero or negative means no byte cap
+     * @return
+     */
+    public int drainTo(final List<MessagePromise<?>> list, final int maxElements, final long maxBytes) {
+        if (maxBytes <= 0) {
+            return drainTo(list, maxElements);
+        }
+        return drainTo(new BufferFilter<MessagePromise<?>>() {
+            int drained;
+            long drainedBytes;
+
+            @Override
+            public boolean accept(MessagePromise<?> promise) {
+                if (drained >= maxElements) {
+                    return false;
+                }
+                int weight = weigh(promise);
+                if (drained > 0 && drainedBytes + weight > maxBytes) {
+                    return false;
+                }
+                drained++;
+                drainedBytes += weight;
+                list.add(promise);
+                return true;
+            }
+        });
+    }
+
     /**
      * clear all messages in the queue.
      *
@@ -57,6 +153,97 @@ public abstract class AbstractSizeBoundedQueue {
      */
     public abstract boolean isEmpty();
 
+    /**
+     * Return the retained bytes of queued messages, see {@link Message#sizeInBytes()}.
+     *
+     * @return
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Return {@code true} if the byte bound is configured and reached.
+     *
+     * @return
+     */
+    public boolean reachedMaxBytes() {
+        return maxBytes > 0 && bytes.get() >= maxBytes;
+    }
+
+    /**
+     * The byte bound is soft: a message always fits into an empty queue, and concurrent
+     * producers may overshoot by the size of the messages they are offering.
+     */
+    boolean exceedsMaxBytes(int weight) {
+        if (maxBytes <= 0 || weight == 0) {
+            return false;
+        }
+        long curr = bytes.get();
+        return curr > 0 && curr + weight > maxBytes;
+    }
+
+    /**
+     * bind the limiter which is told about every message entering or leaving this queue.
+     * Must be called before the queue is published.
+     */
+    void memoryLimiter(MemoryLimiter memoryLimiter) {
+        this.memoryLimiter = memoryLimiter;
+    }
+
+    /**
+     * attach the spill files used by {@link OverflowStrategy.Type#SpillToDisk}. Must be called before the
+     * queue is published, queues which can not spill ignore it.
+     */
+    void spillTo(MappedSpill spill, ReporterMetrics metrics, DeadLetterHandler deadLetterHandler) {
+    }
+
+    /**
+     * release resources held by the queue once it is removed.
+     */
+    void close() {
+    }
+
+    void added(int messages, long bytes) {
+        if (bytes != 0) {
+            this.bytes.addAndGet(bytes);
+        }
+        memoryLimiter.add(messages, bytes);
+    }
+
+    void removed(int messages, long bytes) {
+        if (messages == 0 && bytes == 0) {
+            return;
+        }
+        if (bytes != 0) {
+            this.bytes.addAndGet(-bytes);
+        }
+        memoryLimiter.add(-messages, -bytes);
+    }
+
+    static int weigh(MessagePromise<?> promise) {
+        return promise.message().sizeInBytes();
+    }
+
+    /**
+     * Return {@code true} if the caller is the one to schedule the queue for a flush.
+     */
+    boolean markScheduled() {
+        return scheduled == 0 && SCHEDULED_UPDATER.compareAndSet(this, 0, 1);
+    }
+
+    void clearScheduled() {
+        scheduled = 0;
+    }
+
+    Timeout lingerTimeout() {
+        return lingerTimeout;
+    }
+
+    boolean casLingerTimeout(Timeout expect, Timeout update) {
+        return LINGER_UPDATER.compareAndSet(this, expect, update);
+    }
+
     void recordAccess() {
         lastAccessNanos = System.nanoTime();
     }
@@ -3,9 +3,9 @@ package io.github.suzunshou.reporter.queue;
 /**
  * @author zunshou on 2019/11/18 11:22 上午.
  */
-class BufferOverflowException extends RuntimeException {
+public class BufferOverflowException extends RuntimeException {
 
-    BufferOverflowException(String message) {
+    public BufferOverflowException(String message) {
         super(message);
     }
 }
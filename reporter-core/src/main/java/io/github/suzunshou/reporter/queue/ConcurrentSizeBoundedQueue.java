@@ -3,8 +3,14 @@ package io.github.suzunshou.reporter.queue;
 import io.github.suzunshou.buffers.BufferFilter;
 import io.github.suzunshou.reporter.concurrent.MessagePromise;
 import io.github.suzunshou.reporter.concurrent.Promises;
+import io.github.suzunshou.reporter.concurrent.VoidMessagePromise;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
 import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -26,8 +32,22 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
     private final ReentrantLock lock;
     private final Condition notFull;
 
+    //only set for SpillToDisk, holds the messages which arrived while the deque was full
+    private MappedSpill spill;
+    //pending promises of spilled messages in spill order, at most maxSize of them, guarded by itself
+    private final ArrayDeque<SpilledPromise> spilledPromises = new ArrayDeque<>();
+    //the promise of the record spill.peek() returns, built once for the following poll, guarded by spilledPromises
+    private MessagePromise<?> peekedSpilled;
+    //count and dead letter the spilled messages which fail, their callers are gone
+    private ReporterMetrics spillMetrics;
+    private DeadLetterHandler spillDeadLetterHandler;
+
     public ConcurrentSizeBoundedQueue(int maxSize, Message.MessageKey key, OverflowStrategy.Type overflowStrategy) {
-        super(maxSize, key);
+        this(maxSize, 0L, key, overflowStrategy);
+    }
+
+    public ConcurrentSizeBoundedQueue(int maxSize, long maxBytes, Message.MessageKey key, OverflowStrategy.Type overflowStrategy) {
+        super(maxSize, maxBytes, key);
         this.overflowStrategy = overflowStrategy;
         if (overflowStrategy == OverflowStrategy.Type.BackPressure) {
             lock = new ReentrantLock();
@@ -39,21 +59,113 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
     }
 
 
+    @Override
+    void spillTo(MappedSpill spill, ReporterMetrics metrics, DeadLetterHandler deadLetterHandler) {
+        this.spill = spill;
+        this.spillMetrics = metrics;
+        this.spillDeadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * spilled messages still on disk are dropped like messages failing after they were read back.
+     */
+    @Override
+    void close() {
+        if (spill == null) {
+            return;
+        }
+        IllegalStateException cause = new IllegalStateException("queue of key " + key + " closed");
+        MessagePromise<?> promise;
+        while ((promise = pollSpilled()) != null) {
+            promise.tryFailure(MessageDroppedException.dropped(cause, Collections.singletonList(promise.message())));
+        }
+        spill.close();
+    }
+
+    /**
+     * the promise of the oldest spilled message without removing it, null if nothing is spilled.
+     */
+    private MessagePromise<?> peekSpilled() {
+        synchronized (spilledPromises) {
+            if (peekedSpilled == null) {
+                peekedSpilled = nextSpilled();
+            }
+            return peekedSpilled;
+        }
+    }
+
+    private MessagePromise<?> pollSpilled() {
+        synchronized (spilledPromises) {
+            MessagePromise<?> promise = peekSpilled();
+            if (promise != null) {
+                spill.poll();
+                peekedSpilled = null;
+            }
+            return promise;
+        }
+    }
+
+    /**
+     * the promise of the oldest readable record, records which can not be read back are removed and
+     * their promises failed on the way. Must hold the spilledPromises lock.
+     */
+    private MessagePromise<?> nextSpilled() {
+        MappedSpill.Record record;
+        while ((record = spill.peek()) != null) {
+            MessagePromise<?> promise = pendingSpilled(record.sequence);
+            if (record.message != null) {
+                if (promise != null) {
+                    return promise;
+                }
+                return new VoidMessagePromise<>(record.message, spillMetrics, spillDeadLetterHandler);
+            }
+            spill.poll();
+            if (promise != null) {
+                promise.tryFailure(MessageDroppedException.dropped(
+                        new IOException("spilled message " + record.sequence + " can not be read back"),
+                        Collections.singletonList(promise.message())));
+            } else {
+                spillMetrics.incrementMessagesDropped(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * remove and return the pending promise of the spilled sequence, null if its caller was not kept waiting.
+     */
+    private MessagePromise<?> pendingSpilled(long sequence) {
+        SpilledPromise spilled = spilledPromises.peek();
+        if (spilled == null || spilled.sequence != sequence) {
+            return null;
+        }
+        spilledPromises.poll();
+        return spilled.promise;
+    }
+
     @Override
     public void offer(MessagePromise<?> promise) {
+        //keep arrival order, nothing may overtake spilled messages
+        if (spill != null && !spill.isEmpty()) {
+            spill(promise);
+            return;
+        }
+        int weight = weigh(promise);
         for (; ; ) {
             int currSize = size.get();
-            if (currSize >= maxSize) {
+            if (currSize >= maxSize || exceedsMaxBytes(weight)) {
                 switch (overflowStrategy) {
                     case DropNew:
-                        if ((currSize = size.get()) >= maxSize) {
+                        if ((currSize = size.get()) >= maxSize || exceedsMaxBytes(weight)) {
                             promise.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropNew.getStrategy(), promise.message()));
+                            return;
                         }
                         break;
                     case DropTail:
                         if (size.compareAndSet(currSize, currSize - 1)) {
                             MessagePromise<?> tail = deque.pollLast();
                             if (tail != null) {
+                                removed(1, weigh(tail));
                                 tail.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropTail.getStrategy(), tail.message()));
                             } else {
                                 size.incrementAndGet();
@@ -64,6 +176,7 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
                         if (size.compareAndSet(currSize, currSize - 1)) {
                             MessagePromise<?> head = deque.pollFirst();
                             if (head != null) {
+                                removed(1, weigh(head));
                                 head.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropHead.getStrategy(), head.message()));
                             } else {
                                 size.incrementAndGet();
@@ -75,32 +188,104 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
                         int dropped;
                         if ((dropped = promises.size()) > 0) {
                             incSize(currSize, -dropped);
+                            long droppedBytes = 0;
+                            for (MessagePromise<?> dropPromise : promises) {
+                                droppedBytes += weigh(dropPromise);
+                            }
+                            removed(dropped, droppedBytes);
                         }
                         Promises.allFail(promises, OverflowStrategy.Type.DropBuffer.getStrategy());
                         continue;
                     case BackPressure:
-                        doBackPressure();
+                        doBackPressure(weight);
                         continue;
                     case Fail:
-                        if ((currSize = size.get()) >= maxSize) {
+                        if ((currSize = size.get()) >= maxSize || exceedsMaxBytes(weight)) {
                             throw new BufferOverflowException("Max size of " + maxSize + " is reached. currSize is " + currSize);
                         }
                         break;
+                    case SpillToDisk:
+                        if ((currSize = size.get()) >= maxSize || exceedsMaxBytes(weight)) {
+                            spill(promise);
+                            return;
+                        }
+                        break;
                 }
             }
 
             if (size.compareAndSet(currSize, currSize + 1)) {
                 deque.offer(promise);
+                added(1, weight);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reserve room for the whole batch with one CAS and link it with one append. Falls back to the
+     * overflow strategy per message if the batch does not fit.
+     */
+    @Override
+    public void offer(List<? extends MessagePromise<?>> promises) {
+        int n = promises.size();
+        if (n == 0) {
+            return;
+        }
+        if (spill != null && !spill.isEmpty()) {
+            super.offer(promises);
+            return;
+        }
+        long weight = 0;
+        for (int i = 0; i < n; i++) {
+            weight += weigh(promises.get(i));
+        }
+        for (; ; ) {
+            int currSize = size.get();
+            if (currSize + n > maxSize || exceedsMaxBytes((int) Math.min(weight, Integer.MAX_VALUE))) {
+                super.offer(promises);
+                return;
+            }
+            if (size.compareAndSet(currSize, currSize + n)) {
+                deque.addAll(promises);
+                added(n, weight);
                 return;
             }
         }
     }
 
-    public void doBackPressure() {
+    /**
+     * The promise stays pending while the message is on disk and is handed out again when the message is
+     * read back, so it completes with the delivery. Only maxSize promises wait like this, their messages
+     * stay on the heap. Beyond that the caller is let go at once with a {@link MessageSpilledException},
+     * void promises without one, and the message is read back with a new {@link VoidMessagePromise}, so a
+     * long backlog only costs disk.
+     */
+    private void spill(MessagePromise<?> promise) {
+        if (spill != null) {
+            synchronized (spilledPromises) {
+                long sequence = spill.append(promise.message());
+                if (sequence >= 0) {
+                    if (VoidMessagePromise.isVoid(promise)) {
+                        return;
+                    }
+                    if (spilledPromises.size() < maxSize) {
+                        spilledPromises.offer(new SpilledPromise(sequence, promise));
+                    } else {
+                        promise.tryFailure(new MessageSpilledException("message spilled as " + sequence
+                                + ", its outcome is not tracked"));
+                    }
+                    return;
+                }
+            }
+        }
+        promise.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.SpillToDisk.getStrategy(), promise.message()));
+    }
+
+    public void doBackPressure(int weight) {
         boolean interrupted = false;
         lock.lock();
         try {
-            while (size.get() >= maxSize) {
+            while (size.get() >= maxSize || exceedsMaxBytes(weight)) {
                 try {
                     notFull.await();
                 } catch (InterruptedException e) {
@@ -136,16 +321,57 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
     public int drainTo(BufferFilter<MessagePromise<?>> filter) {
         MessagePromise<?> promise;
         int drained = 0;
+        long drainedBytes = 0;
 
+        boolean accepted = true;
         while ((promise = deque.poll()) != null) {
-            if (!filter.accept(promise)) {
+            if (!(accepted = filter.accept(promise))) {
                 deque.offerFirst(promise);
                 break;
             }
+            drainedBytes += weigh(promise);
+            drained++;
+        }
+
+        afterDrain(drained, drainedBytes);
+
+        //spilled messages are younger than everything in the deque
+        if (accepted && spill != null) {
+            while ((promise = peekSpilled()) != null && filter.accept(promise)) {
+                pollSpilled();
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public int drainTo(List<MessagePromise<?>> list, int maxElements) {
+        MessagePromise<?> promise;
+        int drained = 0;
+        long drainedBytes = 0;
+
+        while (drained < maxElements && (promise = deque.poll()) != null) {
+            list.add(promise);
+            drainedBytes += weigh(promise);
             drained++;
         }
 
+        afterDrain(drained, drainedBytes);
+
+        //spilled messages are younger than everything in the deque
+        if (spill != null) {
+            while (drained < maxElements && (promise = pollSpilled()) != null) {
+                list.add(promise);
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    private void afterDrain(int drained, long drainedBytes) {
         size.addAndGet(-drained);
+        removed(drained, drainedBytes);
 
         if (notFull != null && drained > 0) {
             lock.lock();
@@ -157,8 +383,6 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
                 lock.unlock();
             }
         }
-
-        return drained;
     }
 
     @Override
@@ -173,11 +397,21 @@ final class ConcurrentSizeBoundedQueue extends AbstractSizeBoundedQueue {
 
     @Override
     public int size() {
-        return size.get();
+        return spill == null ? size.get() : size.get() + spill.size();
     }
 
     @Override
     public boolean isEmpty() {
-        return deque.isEmpty();
+        return deque.isEmpty() && (spill == null || spill.isEmpty());
+    }
+
+    private static final class SpilledPromise {
+        final long sequence;
+        final MessagePromise<?> promise;
+
+        SpilledPromise(long sequence, MessagePromise<?> promise) {
+            this.sequence = sequence;
+            this.promise = promise;
+        }
     }
 }
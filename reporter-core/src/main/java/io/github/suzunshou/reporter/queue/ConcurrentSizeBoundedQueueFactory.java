@@ -9,6 +9,11 @@ public final class ConcurrentSizeBoundedQueueFactory extends SizeBoundedQueueFac
 
     @Override
     public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
-        return new ConcurrentSizeBoundedQueue(maxSize, key, overflowStrategy);
+        return newSizeBoundedQueue(maxSize, 0L, overflowStrategy, key);
+    }
+
+    @Override
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, long maxBytes, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return new ConcurrentSizeBoundedQueue(maxSize, maxBytes, key, overflowStrategy);
     }
 }
@@ -1,79 +1,179 @@
 package io.github.suzunshou.reporter.queue;
 
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author zunshou on 2019/11/18 10:37 上午.
+ * Hands queues which reached their threshold to the flush threads without taking a lock.
+ * A queue is scheduled at most once until the flusher releases it, so producers racing past the
+ * threshold pay a volatile read instead of a ready queue entry, and no two flushers drain the
+ * same key at the same time.
+ * <p>
+ * Every flush worker owns a lane and every key hashes to a home lane, so a key is normally
+ * flushed by the same thread. A worker takes the oldest queue of its own lane first and steals
+ * the youngest queue of another lane when its own is empty. Idle workers park after registering
+ * themselves, a producer unparks the home worker of the queue or, if that one is busy, any idle
+ * worker to steal it. How idle workers wait is up to the {@link FlushWaitStrategy}.
  */
 public class FlushSynchronizer {
 
-    private final Queue<AbstractSizeBoundedQueue> queue = new ConcurrentLinkedQueue<>();
-    private final ReentrantLock lock = new ReentrantLock();
-    private Condition notEmpty = lock.newCondition();
+    private final ConcurrentLinkedDeque<AbstractSizeBoundedQueue>[] lanes;
+    //worker parked on its lane, null while it is busy
+    private final AtomicReferenceArray<Thread> parked;
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    private final FlushWaitStrategy waitStrategy;
+
+    public FlushSynchronizer() {
+        this(FlushWaitStrategy.BLOCKING, 1);
+    }
+
+    public FlushSynchronizer(FlushWaitStrategy waitStrategy) {
+        this(waitStrategy, 1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public FlushSynchronizer(FlushWaitStrategy waitStrategy, int workers) {
+        if (waitStrategy == null) {
+            throw new NullPointerException("waitStrategy");
+        }
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be greater than zero");
+        }
+        this.waitStrategy = waitStrategy;
+        this.lanes = new ConcurrentLinkedDeque[workers];
+        for (int i = 0; i < workers; i++) {
+            lanes[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.parked = new AtomicReferenceArray<>(workers);
+    }
+
+    public int workers() {
+        return lanes.length;
+    }
+
+    /**
+     * the lane of the worker which flushes the key unless it gets stolen.
+     */
+    int home(AbstractSizeBoundedQueue q) {
+        int h = q.key.hashCode();
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % lanes.length;
+    }
 
     /**
-     * offer q to queue for flush.
+     * offer q to its home lane for flush.
      *
      * @param q
-     * @return
+     * @return {@code false} if q is scheduled already
      */
     public boolean offer(AbstractSizeBoundedQueue q) {
-        if (q.isFull) {
+        if (!q.markScheduled()) {
             return false;
         }
 
-        boolean result = queue.offer(q);
+        int home = home(q);
+        lanes[home].offer(q);
 
-        if (lock.tryLock()) {
-            try {
-                if (lock.hasWaiters(notEmpty)) {
-                    notEmpty.signalAll();
-                }
-            } finally {
-                lock.unlock();
-            }
+        Thread waiter = parked.get(home);
+        if (waiter == null) {
+            //the home worker is busy, let an idle one steal it
+            waiter = waiters.poll();
         }
-
-        return result;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
     }
 
-
+    /**
+     * take a scheduled queue for worker 0, parking at most timeoutNanos if there is none.
+     *
+     * @param timeoutNanos
+     * @return {@code null} on timeout or interrupt
+     */
     public AbstractSizeBoundedQueue poll(long timeoutNanos) {
-        boolean interrupted = false;
-        AbstractSizeBoundedQueue first;
+        return poll(0, timeoutNanos);
+    }
 
-        lock.lock();
-        try {
-            while ((first = queue.poll()) == null) {
-                if (timeoutNanos <= 0L) {
-                    return null;
-                }
-                try {
-                    timeoutNanos = notEmpty.awaitNanos(timeoutNanos);
-                } catch (InterruptedException e) {
-                    interrupted = true;
-                    break;
-                }
-            }
-        } finally {
-            lock.unlock();
+    /**
+     * take a scheduled queue for the worker, parking at most timeoutNanos if there is none. The
+     * queue must be {@link #release(AbstractSizeBoundedQueue) released} after the flush.
+     *
+     * @param worker
+     * @param timeoutNanos
+     * @return {@code null} on timeout or interrupt
+     */
+    public AbstractSizeBoundedQueue poll(int worker, long timeoutNanos) {
+        AbstractSizeBoundedQueue first = tryPoll(worker);
+        if (first != null || timeoutNanos <= 0L) {
+            return first;
         }
+        return waitStrategy.waitFor(this, worker, timeoutNanos);
+    }
 
-        if (interrupted) {
-            Thread.currentThread().interrupt();
+    /**
+     * take the oldest queue of the worker's lane or steal the youngest of another lane, without waiting.
+     *
+     * @param worker
+     * @return
+     */
+    public AbstractSizeBoundedQueue tryPoll(int worker) {
+        AbstractSizeBoundedQueue q = lanes[worker].pollFirst();
+        if (q != null) {
+            return q;
+        }
+        for (int i = 1; i < lanes.length; i++) {
+            q = lanes[(worker + i) % lanes.length].pollLast();
+            if (q != null) {
+                return q;
+            }
         }
+        return null;
+    }
 
-        return first;
+    /**
+     * park until a producer schedules a queue or timeoutNanos elapsed.
+     *
+     * @param worker
+     * @param timeoutNanos
+     * @return {@code null} on timeout or interrupt
+     */
+    public AbstractSizeBoundedQueue park(int worker, long timeoutNanos) {
+        AbstractSizeBoundedQueue first;
+        Thread current = Thread.currentThread();
+        long deadline = System.nanoTime() + timeoutNanos;
+        for (; ; ) {
+            parked.set(worker, current);
+            waiters.offer(current);
+            //a producer enqueuing before we registered did not see us
+            if ((first = tryPoll(worker)) == null) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                first = tryPoll(worker);
+            }
+            parked.set(worker, null);
+            waiters.remove(current);
+
+            if (first != null || current.isInterrupted()) {
+                return first;
+            }
+            timeoutNanos = deadline - System.nanoTime();
+            if (timeoutNanos <= 0L) {
+                return null;
+            }
+        }
     }
 
     public void release(AbstractSizeBoundedQueue queue) {
-        queue.isFull = false;
+        queue.clearScheduled();
     }
 
     public void clear() {
-        queue.clear();
+        for (ConcurrentLinkedDeque<AbstractSizeBoundedQueue> lane : lanes) {
+            lane.clear();
+        }
     }
 }
@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author zunshou on 2019/11/18 10:51 下午.
@@ -15,6 +16,7 @@ public class FlushThreadFactory {
     private final AsyncReporter<?, ?> reporter;
     private final FlushSynchronizer synchronizer;
     private final ThreadFactory threadFactory;
+    private final AtomicLong workers = new AtomicLong();
 
     public FlushThreadFactory(AsyncReporter<?, ?> reporter) {
         this.reporter = reporter;
@@ -22,29 +24,61 @@ public class FlushThreadFactory {
         this.threadFactory = ReporterExecutors.daemonThreadFactory("FlushThreadFactory-" + reporter.id + "-flusher-");
     }
 
+    /**
+     * every new thread works the next lane of the synchronizer.
+     */
     public Thread newFlushThread() {
-        return threadFactory.newThread(new FlushRunnable());
+        int worker = (int) (workers.getAndIncrement() % synchronizer.workers());
+        return threadFactory.newThread(new FlushRunnable(worker));
     }
 
+    private boolean reachedThreshold(AbstractSizeBoundedQueue queue) {
+        return reporter.reachedFlushThreshold(queue);
+    }
+
+    /**
+     * flush the queue at least once, timers schedule queues below the threshold, and keep flushing
+     * while it stays above the threshold.
+     */
     private void scheduleAndFlush(AbstractSizeBoundedQueue queue) {
+        boolean refused = false;
         try {
-            while (queue.size() >= reporter.queuedMaxMessages) {
-                if (reporter.scheduler != null) {
+            do {
+                if (reporter.lingerTimer == null && reporter.scheduler != null && reachedThreshold(queue)) {
                     reporter.schedulePeriodically(queue.key, reporter.messageTimeoutNanos);
                 }
-                reporter.flush(queue);
-            }
+                if (reporter.tryFlush(queue) == null) {
+                    //the in-flight window is full, the sender schedules the queue again
+                    refused = true;
+                    break;
+                }
+            } while (reachedThreshold(queue));
         } finally {
             synchronizer.release(queue);
         }
+        if (refused) {
+            //a slot released while we still held the queue could not schedule it
+            if (!reporter.awaitsWindow(queue)) {
+                synchronizer.offer(queue);
+            }
+        } else if (reachedThreshold(queue)) {
+            //producers which crossed the threshold while we were flushing found the queue scheduled
+            synchronizer.offer(queue);
+        }
     }
 
     private class FlushRunnable implements Runnable {
+        private final int worker;
+
+        FlushRunnable(int worker) {
+            this.worker = worker;
+        }
+
         @Override
         public void run() {
             try {
                 while (AsyncReporter.REPORTER_STATE_UPDATER.get(reporter) != AsyncReporter.REPORTER_STATE_SHUTDOWN) {
-                    AbstractSizeBoundedQueue queue = synchronizer.poll(reporter.messageTimeoutNanos);
+                    AbstractSizeBoundedQueue queue = synchronizer.poll(worker, reporter.messageTimeoutNanos);
                     if (Thread.interrupted()) {
                         logger.warn("Interrupted while waiting for a ready queue");
                         break;
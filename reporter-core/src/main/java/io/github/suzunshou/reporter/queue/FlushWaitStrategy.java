@@ -0,0 +1,196 @@
+package io.github.suzunshou.reporter.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how an idle flush thread waits for the next scheduled queue. {@link #BLOCKING} parks
+ * until a producer unparks it and costs no CPU, the spinning strategies hand a queue over faster
+ * by keeping a core busy.
+ */
+public abstract class FlushWaitStrategy {
+
+    /**
+     * park until a queue is scheduled, the default.
+     */
+    public static final FlushWaitStrategy BLOCKING = new Blocking();
+
+    /**
+     * spin for a while, then {@link Thread#yield()} until a queue is scheduled.
+     */
+    public static final FlushWaitStrategy YIELDING = new Yielding();
+
+    /**
+     * spin until a queue is scheduled, needs a core per flush thread.
+     */
+    public static final FlushWaitStrategy BUSY_SPIN = new BusySpin();
+
+    static final int SPIN_TRIES = 100;
+
+    /**
+     * wait for a scheduled queue of the synchronizer.
+     *
+     * @param synchronizer
+     * @param worker       the lane of the waiting flush thread
+     * @param timeoutNanos
+     * @return the scheduled queue or {@code null} on timeout or interrupt
+     */
+    public abstract AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos);
+
+    /**
+     * spin and yield for a while, then sleep sleepNanos between polls. Producers never have to
+     * wake the flusher up.
+     *
+     * @param sleepNanos
+     * @return
+     */
+    public static FlushWaitStrategy sleeping(long sleepNanos) {
+        return new Sleeping(sleepNanos);
+    }
+
+    /**
+     * spin for spinTimeout, yield until yieldTimeout and fall back to the given strategy after that.
+     *
+     * @param spinTimeout
+     * @param yieldTimeout
+     * @param unit
+     * @param fallback
+     * @return
+     */
+    public static FlushWaitStrategy phasedBackoff(long spinTimeout, long yieldTimeout, TimeUnit unit,
+                                                  FlushWaitStrategy fallback) {
+        return new PhasedBackoff(unit.toNanos(spinTimeout), unit.toNanos(yieldTimeout), fallback);
+    }
+
+    /**
+     * find a strategy by name: blocking, sleeping, yielding, busy-spin or phased-backoff. The last
+     * two spin for 10 and yield for 100 microseconds before blocking.
+     *
+     * @param name
+     * @return
+     */
+    public static FlushWaitStrategy of(String name) {
+        if (name == null || "blocking".equalsIgnoreCase(name)) {
+            return BLOCKING;
+        } else if ("sleeping".equalsIgnoreCase(name)) {
+            return sleeping(TimeUnit.MICROSECONDS.toNanos(100));
+        } else if ("yielding".equalsIgnoreCase(name)) {
+            return YIELDING;
+        } else if ("busy-spin".equalsIgnoreCase(name)) {
+            return BUSY_SPIN;
+        } else if ("phased-backoff".equalsIgnoreCase(name)) {
+            return phasedBackoff(10, 100, TimeUnit.MICROSECONDS, BLOCKING);
+        }
+        throw new IllegalArgumentException("Unknown flush wait strategy " + name);
+    }
+
+    private static final class Blocking extends FlushWaitStrategy {
+        @Override
+        public AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos) {
+            return synchronizer.park(worker, timeoutNanos);
+        }
+    }
+
+    private static final class BusySpin extends FlushWaitStrategy {
+        @Override
+        public AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            AbstractSizeBoundedQueue queue;
+            while ((queue = synchronizer.tryPoll(worker)) == null) {
+                if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            return queue;
+        }
+    }
+
+    private static final class Yielding extends FlushWaitStrategy {
+        @Override
+        public AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            int counter = SPIN_TRIES;
+            AbstractSizeBoundedQueue queue;
+            while ((queue = synchronizer.tryPoll(worker)) == null) {
+                if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (counter > 0) {
+                    counter--;
+                } else {
+                    Thread.yield();
+                }
+            }
+            return queue;
+        }
+    }
+
+    private static final class Sleeping extends FlushWaitStrategy {
+        private final long sleepNanos;
+
+        Sleeping(long sleepNanos) {
+            if (sleepNanos <= 0) {
+                throw new IllegalArgumentException("sleepNanos must be greater than zero");
+            }
+            this.sleepNanos = sleepNanos;
+        }
+
+        @Override
+        public AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            int counter = SPIN_TRIES * 2;
+            AbstractSizeBoundedQueue queue;
+            while ((queue = synchronizer.tryPoll(worker)) == null) {
+                if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (counter > SPIN_TRIES) {
+                    counter--;
+                } else if (counter > 0) {
+                    counter--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(sleepNanos);
+                }
+            }
+            return queue;
+        }
+    }
+
+    private static final class PhasedBackoff extends FlushWaitStrategy {
+        private final long spinTimeoutNanos;
+        private final long yieldTimeoutNanos;
+        private final FlushWaitStrategy fallback;
+
+        PhasedBackoff(long spinTimeoutNanos, long yieldTimeoutNanos, FlushWaitStrategy fallback) {
+            if (fallback == null) {
+                throw new NullPointerException("fallback");
+            }
+            if (spinTimeoutNanos < 0 || yieldTimeoutNanos < spinTimeoutNanos) {
+                throw new IllegalArgumentException("0 <= spinTimeout <= yieldTimeout");
+            }
+            this.spinTimeoutNanos = spinTimeoutNanos;
+            this.yieldTimeoutNanos = yieldTimeoutNanos;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public AbstractSizeBoundedQueue waitFor(FlushSynchronizer synchronizer, int worker, long timeoutNanos) {
+            long start = System.nanoTime();
+            AbstractSizeBoundedQueue queue;
+            while ((queue = synchronizer.tryPoll(worker)) == null) {
+                long elapsed = System.nanoTime() - start;
+                if (elapsed >= timeoutNanos || Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (elapsed > yieldTimeoutNanos) {
+                    return fallback.waitFor(synchronizer, worker, timeoutNanos - elapsed);
+                }
+                if (elapsed > spinTimeoutNanos) {
+                    Thread.yield();
+                }
+            }
+            return queue;
+        }
+    }
+}
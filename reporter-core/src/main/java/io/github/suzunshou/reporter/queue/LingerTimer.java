@@ -0,0 +1,97 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.concurrent.timer.Timeout;
+import io.github.suzunshou.reporter.concurrent.timer.Timer;
+import io.github.suzunshou.reporter.concurrent.timer.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One flush deadline per lingering queue. The first message into a queue without a deadline arms a
+ * single {@link Timeout}, draining the queue empty disarms it, so idle queues cost the timer nothing
+ * and the wheel only holds queues which actually have messages waiting.
+ * <p>
+ * Deadlines are as precise as the tick of the {@link Timer}.
+ */
+public abstract class LingerTimer {
+
+    private final Timer timer;
+    private final long lingerNanos;
+
+    public LingerTimer(Timer timer, long lingerNanos) {
+        if (timer == null) {
+            throw new NullPointerException("timer");
+        }
+        if (lingerNanos <= 0) {
+            throw new IllegalArgumentException("lingerNanos must be greater than zero");
+        }
+        this.timer = timer;
+        this.lingerNanos = lingerNanos;
+    }
+
+    /**
+     * called on the timer thread once the deadline of a queue is due, the deadline is disarmed already.
+     * Implementations should hand the flush off instead of running it on the timer thread.
+     *
+     * @param queue
+     */
+    protected abstract void onLinger(AbstractSizeBoundedQueue queue);
+
+    /**
+     * arm the deadline of the queue unless it is armed already. Called after every offer, costs a
+     * volatile read while the deadline is armed.
+     *
+     * @param queue
+     */
+    public void arm(AbstractSizeBoundedQueue queue) {
+        if (queue.lingerTimeout() != null) {
+            return;
+        }
+        Timeout timeout = timer.newTimeout(new LingerTask(queue), lingerNanos, TimeUnit.NANOSECONDS);
+        if (!queue.casLingerTimeout(null, timeout)) {
+            //another producer armed it meanwhile
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * called after a drain. The deadline is disarmed once the queue is empty and re-armed for the
+     * messages left behind otherwise, a producer racing with the drain either sees the deadline armed
+     * or arms it itself.
+     *
+     * @param queue
+     */
+    public void drained(AbstractSizeBoundedQueue queue) {
+        disarm(queue);
+        if (!queue.isEmpty()) {
+            arm(queue);
+        }
+    }
+
+    /**
+     * cancel the deadline of the queue, if any.
+     *
+     * @param queue
+     */
+    public void disarm(AbstractSizeBoundedQueue queue) {
+        Timeout timeout = queue.lingerTimeout();
+        if (timeout != null && queue.casLingerTimeout(timeout, null)) {
+            timeout.cancel();
+        }
+    }
+
+    private final class LingerTask implements TimerTask {
+        private final AbstractSizeBoundedQueue queue;
+
+        LingerTask(AbstractSizeBoundedQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (queue.casLingerTimeout(timeout, null)) {
+                onLinger(queue);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.reporter.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FIFO of serialized messages kept in memory-mapped segment files of one queue directory.
+ * Every record is a length prefixed sequence number and java serialized {@link Message}, the
+ * sequence lets the queue match a record to what it keeps in memory. Writes go to the last
+ * segment, reads come from the first one, a fully read segment is deleted, or rewound if it is
+ * the only one.
+ * <p>
+ * Spilling is the slow path of a full queue, so a single lock guards everything.
+ */
+final class MappedSpill {
+    private static final Logger logger = LoggerFactory.getLogger(MappedSpill.class);
+
+    //length and sequence in front of every record
+    private static final int HEADER_BYTES = 12;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    //guarded by lock
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegment;
+    private long nextSequence;
+    private Record peeked;
+    private int peekedEnd;
+
+    private volatile int count;
+    private volatile boolean closed;
+
+    MappedSpill(File directory, int segmentBytes, long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * append a message, return its sequence number or -1 if it is too large, the disk budget is used up
+     * or the write fails.
+     *
+     * @param message
+     * @return
+     */
+    long append(Message message) {
+        byte[] bytes;
+        try {
+            bytes = MessageSerializer.serialize(message);
+        } catch (IOException e) {
+            logger.warn("Can not serialize message " + message, e);
+            return -1;
+        }
+        if (bytes.length + HEADER_BYTES > segmentBytes) {
+            return -1;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                return -1;
+            }
+            Segment segment = segments.peekLast();
+            if (segment == null || segmentBytes - segment.writePos < bytes.length + HEADER_BYTES) {
+                if (maxBytes > 0 && (segments.size() + 1L) * segmentBytes > maxBytes) {
+                    return -1;
+                }
+                segment = newSegment();
+                segments.addLast(segment);
+            }
+            long sequence = nextSequence++;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.putInt(segment.writePos, bytes.length);
+            buffer.putLong(segment.writePos + 4, sequence);
+            buffer.position(segment.writePos + HEADER_BYTES);
+            buffer.put(bytes);
+            segment.writePos += bytes.length + HEADER_BYTES;
+            count++;
+            return sequence;
+        } catch (IOException e) {
+            logger.warn("Can not create spill segment in " + directory, e);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * return the oldest record without removing it, null if empty. A record which can not be read
+     * back has no message, it is still returned so the caller sees and polls every sequence.
+     */
+    Record peek() {
+        lock.lock();
+        try {
+            while (peeked == null) {
+                Segment segment = segments.peekFirst();
+                if (segment == null) {
+                    return null;
+                }
+                if (segment.readPos == segment.writePos) {
+                    if (segments.size() == 1) {
+                        //reuse the only segment
+                        segment.readPos = segment.writePos = 0;
+                        return null;
+                    }
+                    segments.pollFirst();
+                    segment.delete();
+                    continue;
+                }
+
+                int length = segment.buffer.getInt(segment.readPos);
+                long sequence = segment.buffer.getLong(segment.readPos + 4);
+                byte[] bytes = new byte[length];
+                segment.buffer.position(segment.readPos + HEADER_BYTES);
+                segment.buffer.get(bytes);
+                peekedEnd = segment.readPos + HEADER_BYTES + length;
+                Message message = null;
+                try {
+                    message = MessageSerializer.deserialize(bytes);
+                } catch (IOException | ClassNotFoundException e) {
+                    logger.warn("Can not read back spilled message " + sequence, e);
+                }
+                peeked = new Record(sequence, message);
+            }
+            return peeked;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove and return the oldest record, null if empty.
+     */
+    Record poll() {
+        lock.lock();
+        try {
+            Record record = peek();
+            if (record != null) {
+                segments.peekFirst().readPos = peekedEnd;
+                peeked = null;
+                count--;
+            }
+            return record;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * delete all segments, spilled messages are lost.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            Segment segment;
+            while ((segment = segments.pollFirst()) != null) {
+                segment.delete();
+            }
+            peeked = null;
+            count = 0;
+            if (!directory.delete()) {
+                logger.debug("Can not delete spill directory {}", directory);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        File file = new File(directory, String.format("%020d.spill", nextSegment++));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            //the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            return new Segment(file, buffer);
+        }
+    }
+
+    static final class Record {
+        final long sequence;
+        //null if the record can not be read back
+        final Message message;
+
+        Record(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePos;
+        int readPos;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void delete() {
+            //the mapping itself is released by the gc
+            if (!file.delete()) {
+                logger.debug("Can not delete spill segment {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.concurrent.chmv8.LongAdder;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM wide memory budget shared by several reporters. Every reporter gets a child
+ * {@link MemoryLimiter} holding a reservation. A child below its reservation is never blocked
+ * by the budget, above it the child borrows from the unreserved part of the budget until that is
+ * used up, so one hot reporter can use idle capacity but not the reservations of the others.
+ * <p>
+ * Like {@link MemoryLimiter} the limits are soft, concurrent producers may overshoot a little.
+ * <p>
+ * Borrowed capacity is summed as children cross their reservations, so the check of a borrowing
+ * child does not walk its siblings. A closed child keeps its borrowed share until the messages it
+ * still holds are released.
+ */
+public final class MemoryBudget {
+
+    private final long maxMessages;
+    private final long maxBytes;
+
+    //writes guarded by this
+    private volatile long reservedMessages;
+    private volatile long reservedBytes;
+
+    //capacity held by children above their reservations
+    private final LongAdder borrowedMessages = new LongAdder();
+    private final LongAdder borrowedBytes = new LongAdder();
+
+    private final CopyOnWriteArrayList<ChildMemoryLimiter> children = new CopyOnWriteArrayList<>();
+    //producers blocked in any child, a release walks the children only if there are some
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private MemoryBudget(long maxMessages, long maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    public static MemoryBudget create(long maxMessages) {
+        return create(maxMessages, 0L);
+    }
+
+    /**
+     * @param maxMessages
+     * @param maxBytes    zero or negative means no byte limit
+     * @return
+     */
+    public static MemoryBudget create(long maxMessages, long maxBytes) {
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("maxMessages should be greater than 0.");
+        }
+        return new MemoryBudget(maxMessages, maxBytes);
+    }
+
+    /**
+     * create a child limiter. Reservations of all open children must fit into the budget.
+     *
+     * @param reservedMessages messages guaranteed to the child
+     * @param reservedBytes    bytes guaranteed to the child, ignored without a byte limit
+     * @param maxMessages      cap of the child including borrowed capacity
+     * @param maxBytes         cap of the child including borrowed capacity, zero or negative means the budget
+     * @return
+     */
+    public synchronized MemoryLimiter newLimiter(int reservedMessages, long reservedBytes, int maxMessages, long maxBytes) {
+        if (reservedMessages > maxMessages) {
+            throw new IllegalArgumentException("reservedMessages > maxMessages");
+        }
+        if (this.maxBytes <= 0) {
+            reservedBytes = 0;
+        }
+        if (this.reservedMessages + reservedMessages > this.maxMessages) {
+            throw new IllegalArgumentException("reservedMessages exceeds the budget, "
+                    + (this.maxMessages - this.reservedMessages) + " left.");
+        }
+        if (this.reservedBytes + reservedBytes > this.maxBytes && reservedBytes > 0) {
+            throw new IllegalArgumentException("reservedBytes exceeds the budget, "
+                    + (this.maxBytes - this.reservedBytes) + " left.");
+        }
+        this.reservedMessages += reservedMessages;
+        this.reservedBytes += reservedBytes;
+
+        ChildMemoryLimiter child = new ChildMemoryLimiter(Math.min(maxMessages, this.maxMessages),
+                maxBytes > 0 ? maxBytes : this.maxBytes, reservedMessages, reservedBytes);
+        children.add(child);
+        return child;
+    }
+
+    private synchronized void release(ChildMemoryLimiter child) {
+        if (children.remove(child)) {
+            reservedMessages -= child.reservedMessages;
+            reservedBytes -= child.reservedBytes;
+        }
+    }
+
+    private boolean messagesExhausted() {
+        return borrowedMessages.sum() >= maxMessages - reservedMessages;
+    }
+
+    private boolean bytesExhausted() {
+        return maxBytes > 0 && borrowedBytes.sum() >= maxBytes - reservedBytes;
+    }
+
+    /**
+     * Returns total messages held by all children
+     */
+    public long messages() {
+        long messages = 0;
+        for (ChildMemoryLimiter child : children) {
+            messages += child.messages();
+        }
+        return messages;
+    }
+
+    /**
+     * Returns total retained bytes held by all children
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (ChildMemoryLimiter child : children) {
+            bytes += child.bytes();
+        }
+        return bytes;
+    }
+
+    private void signalAll() {
+        if (waiters.get() == 0) {
+            return;
+        }
+        for (ChildMemoryLimiter child : children) {
+            child.signalWaiters();
+        }
+    }
+
+    /**
+     * Counts with one atomic per dimension instead of the striped adders of its parent: the part of
+     * a change above the reservation is only known from an exact count. The producers of one
+     * reporter share that cache line, the children of different reporters do not.
+     */
+    private final class ChildMemoryLimiter extends MemoryLimiter.DefaultMemoryLimiter {
+        private final long reservedMessages;
+        private final long reservedBytes;
+
+        private final AtomicLong usedMessages = new AtomicLong();
+        private final AtomicLong usedBytes = new AtomicLong();
+
+        ChildMemoryLimiter(long maxMessages, long maxBytes, long reservedMessages, long reservedBytes) {
+            super(maxMessages, maxBytes);
+            this.reservedMessages = reservedMessages;
+            this.reservedBytes = reservedBytes;
+        }
+
+        @Override
+        public void add(int messages, long bytes) {
+            if (messages != 0) {
+                long after = usedMessages.addAndGet(messages);
+                long delta = borrowed(after, reservedMessages) - borrowed(after - messages, reservedMessages);
+                if (delta != 0) {
+                    borrowedMessages.add(delta);
+                }
+            }
+            if (bytes != 0) {
+                long after = usedBytes.addAndGet(bytes);
+                long delta = borrowed(after, reservedBytes) - borrowed(after - bytes, reservedBytes);
+                if (delta != 0) {
+                    borrowedBytes.add(delta);
+                }
+            }
+        }
+
+        private long borrowed(long used, long reserved) {
+            return Math.max(0, used - reserved);
+        }
+
+        @Override
+        public long messages() {
+            return usedMessages.get();
+        }
+
+        @Override
+        public long bytes() {
+            return usedBytes.get();
+        }
+
+        @Override
+        public boolean isMaximum() {
+            if (super.isMaximum()) {
+                return true;
+            }
+            //only borrowing children look at the budget
+            return (usedMessages.get() >= reservedMessages && messagesExhausted())
+                    || (usedBytes.get() >= reservedBytes && bytesExhausted());
+        }
+
+        @Override
+        void waiting(int delta) {
+            waiters.addAndGet(delta);
+        }
+
+        /**
+         * room freed by one child may unblock a sibling waiting on the budget
+         */
+        @Override
+        public void signalAll() {
+            MemoryBudget.this.signalAll();
+        }
+
+        @Override
+        public void close() {
+            release(this);
+            MemoryBudget.this.signalAll();
+        }
+    }
+}
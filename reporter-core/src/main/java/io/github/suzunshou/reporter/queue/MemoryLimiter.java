@@ -1,10 +1,13 @@
 package io.github.suzunshou.reporter.queue;
 
+import io.github.suzunshou.reporter.concurrent.chmv8.LongAdder;
 import io.github.suzunshou.reporter.reporter.ReporterMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -15,12 +18,88 @@ public abstract class MemoryLimiter {
 
     private static final int MAX_TOTAL_MESSAGES = 1000000;
 
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * limiter which never reaches the maximum, used by queues not bound to a reporter.
+     */
+    public static final MemoryLimiter NOOP_LIMITER = new MemoryLimiter() {
+        @Override
+        public void add(int messages, long bytes) {
+        }
+
+        @Override
+        public long messages() {
+            return 0;
+        }
+
+        @Override
+        public long bytes() {
+            return 0;
+        }
+
+        @Override
+        public boolean isMaximum() {
+            return false;
+        }
+
+        @Override
+        public boolean blockWhenMaximum(long timeoutNanos) {
+            return true;
+        }
+
+        @Override
+        public void signalAll() {
+        }
+    };
+
+    /**
+     * @deprecated the limiter counts the queued messages itself, use {@link #create(int)}
+     */
+    @Deprecated
     public static MemoryLimiter create(int maxMessages, ReporterMetrics metrics) {
+        return create(maxMessages);
+    }
+
+    public static MemoryLimiter create(int maxMessages) {
+        return create(maxMessages, 0L);
+    }
+
+    /**
+     * @param maxMessages
+     * @param maxBytes    total retained bytes of queued messages, zero or negative means no byte limit
+     * @return
+     */
+    public static MemoryLimiter create(int maxMessages, long maxBytes) {
         if (maxMessages <= 0) {
             throw new IllegalArgumentException("maxMessages should be greater than 0.");
         }
         int result = Math.min(MAX_TOTAL_MESSAGES, maxMessages);
-        return new DefaultMemoryLimiter(result, metrics);
+        return new DefaultMemoryLimiter(result, maxBytes);
+    }
+
+    /**
+     * Record messages entering (positive) or leaving (negative) a queue. Ignored by default, for
+     * limiters which count elsewhere.
+     *
+     * @param messages
+     * @param bytes
+     */
+    public void add(int messages, long bytes) {
+    }
+
+    /**
+     * Returns total messages currently held by the queues, {@code 0} for a limiter which does not count them
+     */
+    public long messages() {
+        return 0;
+    }
+
+    /**
+     * Returns total retained bytes currently held by the queues, {@code 0} for a limiter which does not count them
+     */
+    public long bytes() {
+        return 0;
     }
 
     /**
@@ -29,56 +108,148 @@ public abstract class MemoryLimiter {
     public abstract boolean isMaximum();
 
     /**
-     * Block current thread if reach the limit until signaled
+     * Block current thread if reach the limit until signaled or timeoutNanos elapsed. By default
+     * the limit is looked at again every millisecond, limiters which signal override it.
+     *
+     * @param timeoutNanos
+     * @return {@code false} if the limit is still reached after timeoutNanos
+     */
+    public boolean blockWhenMaximum(long timeoutNanos) {
+        long remaining = timeoutNanos;
+        while (isMaximum()) {
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            long parked = System.nanoTime();
+            LockSupport.parkNanos(this, Math.min(remaining, POLL_NANOS));
+            remaining -= System.nanoTime() - parked;
+        }
+        return true;
+    }
+
+    /**
+     * Block current thread if reach the limit until signaled or interrupted
+     *
+     * @deprecated waits without bound, use {@link #blockWhenMaximum(long)}
      */
-    public abstract void blockWhenMaximum();
+    @Deprecated
+    public void blockWhenMaximum() {
+        boolean room = blockWhenMaximum(Long.MAX_VALUE);
+        while (!room && !Thread.currentThread().isInterrupted()) {
+            room = blockWhenMaximum(Long.MAX_VALUE);
+        }
+    }
 
     /**
      * Signal all threads that waiting on this memory limiter
      */
     public abstract void signalAll();
 
-    public static final class DefaultMemoryLimiter extends MemoryLimiter {
+    /**
+     * Give back whatever this limiter holds, called when the reporter is closed
+     */
+    public void close() {
+    }
+
+    /**
+     * Counts with striped adders, so producers on different cores rarely touch the same cache line.
+     * The sums are not a snapshot, which is fine for a soft limit.
+     */
+    public static class DefaultMemoryLimiter extends MemoryLimiter {
         private static final Logger logger = LoggerFactory.getLogger(DefaultMemoryLimiter.class);
 
         private final long maxMessages;
-        private final ReporterMetrics metrics;
+        private final long maxBytes;
+
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
 
         private final ReentrantLock lock = new ReentrantLock();
         private final Condition notFull = lock.newCondition();
+        //threads in blockWhenMaximum, written under the lock, read without it by signalWaiters
+        private volatile int waiters;
 
-        private DefaultMemoryLimiter(long maxMessages, ReporterMetrics metrics) {
+        DefaultMemoryLimiter(long maxMessages, long maxBytes) {
             this.maxMessages = maxMessages;
-            this.metrics = metrics;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void add(int messages, long bytes) {
+            if (messages != 0) {
+                this.messages.add(messages);
+            }
+            if (bytes != 0) {
+                this.bytes.add(bytes);
+            }
+        }
+
+        @Override
+        public long messages() {
+            return messages.sum();
+        }
+
+        @Override
+        public long bytes() {
+            return bytes.sum();
         }
 
         @Override
         public boolean isMaximum() {
-            return metrics.queuedMessages() >= maxMessages;
+            return messages() >= maxMessages
+                    || (maxBytes > 0 && bytes() >= maxBytes);
         }
 
         @Override
-        public void blockWhenMaximum() {
+        public boolean blockWhenMaximum(long timeoutNanos) {
             if (!isMaximum()) {
-                lock.lock();
-                try {
-                    while (isMaximum()) {
-                        notFull.await();
+                return true;
+            }
+            long nanos = timeoutNanos;
+            lock.lock();
+            //counted before the check, so a release which finds no waiter is seen by it
+            waiters++;
+            waiting(1);
+            try {
+                while (isMaximum()) {
+                    if (nanos <= 0) {
+                        return false;
                     }
-                } catch (InterruptedException e) {
-                    logger.error("Interrupted waiting when full.");
-                    Thread.currentThread().interrupt();
-                } finally {
-                    lock.unlock();
+                    nanos = notFull.awaitNanos(nanos);
                 }
+                return true;
+            } catch (InterruptedException e) {
+                logger.error("Interrupted waiting when full.");
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters--;
+                waiting(-1);
+                lock.unlock();
             }
         }
 
         @Override
         public void signalAll() {
+            signalWaiters();
+        }
+
+        /**
+         * a thread starts (1) or stops (-1) waiting, called under the lock.
+         */
+        void waiting(int delta) {
+        }
+
+        /**
+         * called after every flush, only takes the lock if a producer waits.
+         */
+        final void signalWaiters() {
+            if (waiters == 0) {
+                return;
+            }
             lock.lock();
             try {
-                if (lock.hasWaiters(notFull) && !isMaximum()) {
+                if (!isMaximum()) {
                     notFull.signalAll();
                 }
             } finally {
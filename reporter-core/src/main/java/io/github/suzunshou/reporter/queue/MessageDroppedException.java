@@ -22,6 +22,12 @@ public class MessageDroppedException extends RuntimeException {
         this.overflow = true;
     }
 
+    private MessageDroppedException(String message, Throwable cause, List<? extends Message> droppedMessages, boolean overflow) {
+        super(message, cause);
+        this.droppedMessages = droppedMessages;
+        this.overflow = overflow;
+    }
+
     private MessageDroppedException(Throwable cause, List<? extends Message> droppedMessages) {
         super(String.format("Dropping %d messages for %s(%s)", droppedMessages.size(), cause.getClass().getSimpleName(),
                 cause.getMessage() == null ? "" : cause.getMessage()), cause);
@@ -40,4 +46,29 @@ public class MessageDroppedException extends RuntimeException {
     public static MessageDroppedException dropped(Throwable cause, List<? extends Message> dropped) {
         return new MessageDroppedException(cause, dropped);
     }
+
+    public List<? extends Message> droppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * Return the drop of one of the dropped messages. Every promise of a dropped batch fails with
+     * the same exception, so a per message consumer uses this to see each message once.
+     *
+     * @param message
+     * @return
+     */
+    public MessageDroppedException only(Message message) {
+        if (droppedMessages.size() == 1 && droppedMessages.get(0) == message) {
+            return this;
+        }
+        return new MessageDroppedException(getMessage(), getCause(), singletonList(message), overflow);
+    }
+
+    /**
+     * Return {@code true} if the messages were dropped by an overflow strategy, not by the sender.
+     */
+    public boolean isOverflow() {
+        return overflow;
+    }
 }
@@ -0,0 +1,32 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Java serialization of {@link Message}s for the queues which keep messages on disk.
+ */
+final class MessageSerializer {
+
+    private MessageSerializer() {
+    }
+
+    static byte[] serialize(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Message deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Message) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.suzunshou.reporter.queue;
+
+/**
+ * The message was spilled to disk while more callers than the queue holds were waiting for
+ * their spilled messages. It is still delivered, but its outcome is no longer tracked by the
+ * future which fails with this: a later failure is counted and dead lettered when the message
+ * is read back. Neither delivered nor dropped, it is not counted as dropped either.
+ */
+public class MessageSpilledException extends RuntimeException {
+
+    private static final long serialVersionUID = -3318426529781726514L;
+
+    public MessageSpilledException(String message) {
+        super(message);
+    }
+}
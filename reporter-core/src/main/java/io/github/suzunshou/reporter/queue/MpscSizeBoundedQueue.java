@@ -0,0 +1,323 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.buffers.BufferFilter;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.Promises;
+import io.github.suzunshou.reporter.reporter.Message;
+import org.jctools.queues.MessagePassingQueue;
+import org.jctools.queues.MpscArrayQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size bounded queue backed by a pre-allocated jctools {@link MpscArrayQueue}.
+ * Producers claim a slot with a single CAS and never allocate a node. The bound is
+ * enforced by {@link MpscArrayQueue#offerIfBelowThreshold(Object, int)}, so no extra
+ * size counter is needed.
+ * <p>
+ * The ring only allows one consumer at a time, so every poll (drain, DropHead, DropBuffer)
+ * happens under {@link #consumerLock}. The youngest element of the ring cannot be removed,
+ * so DropTail keeps the youngest message in a swap slot which is drained after the ring.
+ * DropTail producers and the consumer taking the slot are serialized by {@link #tailLock}: while
+ * the slot holds a message no producer adds to the ring, so the slot always holds the youngest
+ * message and draining the ring before the slot keeps FIFO order.
+ */
+final class MpscSizeBoundedQueue extends AbstractSizeBoundedQueue {
+
+    private final OverflowStrategy.Type overflowStrategy;
+
+    private final MpscArrayQueue<MessagePromise<?>> queue;
+
+    private final ReentrantLock consumerLock = new ReentrantLock();
+
+    //only used by DropTail, holds the youngest message when the ring is full
+    private final AtomicReference<MessagePromise<?>> tail;
+    private final ReentrantLock tailLock;
+
+    private final ReentrantLock lock;
+    private final Condition notFull;
+
+    MpscSizeBoundedQueue(int maxSize, long maxBytes, Message.MessageKey key, OverflowStrategy.Type overflowStrategy) {
+        super(maxSize, maxBytes, key);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be greater than 0.");
+        }
+        if (overflowStrategy == OverflowStrategy.Type.SpillToDisk) {
+            throw new IllegalArgumentException("SpillToDisk is only supported by ConcurrentSizeBoundedQueue.");
+        }
+        this.overflowStrategy = overflowStrategy;
+        this.queue = new MpscArrayQueue<>(maxSize);
+        this.tail = overflowStrategy == OverflowStrategy.Type.DropTail
+                ? new AtomicReference<MessagePromise<?>>() : null;
+        this.tailLock = tail != null ? new ReentrantLock() : null;
+        if (overflowStrategy == OverflowStrategy.Type.BackPressure) {
+            lock = new ReentrantLock();
+            notFull = lock.newCondition();
+        } else {
+            lock = null;
+            notFull = null;
+        }
+    }
+
+    @Override
+    public void offer(MessagePromise<?> promise) {
+        int weight = weigh(promise);
+        if (tail != null) {
+            offerDropTail(promise, weight);
+            return;
+        }
+        for (; ; ) {
+            if (!exceedsMaxBytes(weight) && queue.offerIfBelowThreshold(promise, maxSize)) {
+                added(1, weight);
+                return;
+            }
+
+            switch (overflowStrategy) {
+                case DropNew:
+                    promise.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropNew.getStrategy(), promise.message()));
+                    return;
+                case DropHead:
+                    MessagePromise<?> head = pollHead();
+                    if (head != null) {
+                        head.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropHead.getStrategy(), head.message()));
+                    }
+                    continue;
+                case DropBuffer:
+                    Promises.allFail(dropBuffer(), OverflowStrategy.Type.DropBuffer.getStrategy());
+                    continue;
+                case BackPressure:
+                    doBackPressure(weight);
+                    continue;
+                case Fail:
+                    throw new BufferOverflowException("Max size of " + maxSize + " is reached. currSize is " + size());
+            }
+        }
+    }
+
+    /**
+     * the ring keeps one slot less than maxSize, the swap slot takes the youngest message once
+     * the ring is full or over maxBytes and drops the message it held. The held message is counted
+     * already, it only moves into the ring while the queue keeps within maxBytes, otherwise it is
+     * the tail which is dropped.
+     */
+    private void offerDropTail(MessagePromise<?> promise, int weight) {
+        int threshold = maxSize - 1;
+        MessagePromise<?> dropped = null;
+        tailLock.lock();
+        try {
+            MessagePromise<?> held = tail.get();
+            if (held != null && threshold > 0) {
+                int heldWeight = weigh(held);
+                if (overMaxBytes(heldWeight)) {
+                    tail.set(null);
+                    removed(1, heldWeight);
+                    dropped = held;
+                    held = null;
+                } else if (queue.offerIfBelowThreshold(held, threshold)) {
+                    //the consumer made room, the held message goes first
+                    tail.set(null);
+                    held = null;
+                }
+            }
+            if (held == null && threshold > 0 && !exceedsMaxBytes(weight) && queue.offerIfBelowThreshold(promise, threshold)) {
+                added(1, weight);
+            } else {
+                MessagePromise<?> youngest = tail.getAndSet(promise);
+                added(1, weight);
+                if (youngest != null) {
+                    removed(1, weigh(youngest));
+                    dropped = youngest;
+                }
+            }
+        } finally {
+            tailLock.unlock();
+        }
+        if (dropped != null) {
+            dropped.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropTail.getStrategy(), dropped.message()));
+        }
+    }
+
+    /**
+     * whether the queue, holding a message of the weight, is beyond maxBytes without it being alone.
+     */
+    private boolean overMaxBytes(int weight) {
+        long curr = bytes();
+        return maxBytes > 0 && curr > weight && curr > maxBytes;
+    }
+
+    /**
+     * take the swap slot once the ring is empty, producers can not add to the ring meanwhile.
+     *
+     * @param filter {@code null} accepts the message
+     * @return {@code null} if the slot is empty, the ring is not or the filter refused the message
+     */
+    private MessagePromise<?> pollTail(BufferFilter<MessagePromise<?>> filter) {
+        tailLock.lock();
+        try {
+            MessagePromise<?> promise = tail.get();
+            if (promise == null || !queue.isEmpty() || (filter != null && !filter.accept(promise))) {
+                return null;
+            }
+            tail.set(null);
+            return promise;
+        } finally {
+            tailLock.unlock();
+        }
+    }
+
+    private MessagePromise<?> pollHead() {
+        MessagePromise<?> head;
+        consumerLock.lock();
+        try {
+            head = queue.poll();
+        } finally {
+            consumerLock.unlock();
+        }
+        if (head != null) {
+            removed(1, weigh(head));
+        }
+        return head;
+    }
+
+    private List<MessagePromise<?>> dropBuffer() {
+        List<MessagePromise<?>> result = new ArrayList<>(queue.size());
+        consumerLock.lock();
+        try {
+            MessagePromise<?> promise;
+            long droppedBytes = 0;
+            while ((promise = queue.poll()) != null) {
+                result.add(promise);
+                droppedBytes += weigh(promise);
+            }
+            removed(result.size(), droppedBytes);
+        } finally {
+            consumerLock.unlock();
+        }
+        return result;
+    }
+
+    private void doBackPressure(int weight) {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (queue.size() >= maxSize || exceedsMaxBytes(weight)) {
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int drainTo(BufferFilter<MessagePromise<?>> filter) {
+        int drained = 0;
+        long drainedBytes = 0;
+
+        consumerLock.lock();
+        try {
+            MessagePromise<?> promise;
+            boolean accepted = true;
+            while ((promise = queue.peek()) != null) {
+                if (!(accepted = filter.accept(promise))) {
+                    break;
+                }
+                queue.poll();
+                drainedBytes += weigh(promise);
+                drained++;
+            }
+
+            if (accepted && tail != null && (promise = pollTail(filter)) != null) {
+                drainedBytes += weigh(promise);
+                drained++;
+            }
+        } finally {
+            consumerLock.unlock();
+        }
+
+        removed(drained, drainedBytes);
+        signalNotFull(drained);
+        return drained;
+    }
+
+    @Override
+    public int drainTo(final List<MessagePromise<?>> list, int maxElements) {
+        int drained;
+        long drainedBytes = 0;
+
+        consumerLock.lock();
+        try {
+            int from = list.size();
+            drained = queue.drain(new MessagePassingQueue.Consumer<MessagePromise<?>>() {
+                @Override
+                public void accept(MessagePromise<?> promise) {
+                    list.add(promise);
+                }
+            }, maxElements);
+
+            MessagePromise<?> promise;
+            if (drained < maxElements && tail != null && (promise = pollTail(null)) != null) {
+                list.add(promise);
+                drained++;
+            }
+
+            for (int i = from; i < from + drained; i++) {
+                drainedBytes += weigh(list.get(i));
+            }
+        } finally {
+            consumerLock.unlock();
+        }
+
+        removed(drained, drainedBytes);
+        signalNotFull(drained);
+        return drained;
+    }
+
+    private void signalNotFull(int drained) {
+        if (notFull != null && drained > 0) {
+            lock.lock();
+            try {
+                if (lock.hasWaiters(notFull)) {
+                    notFull.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int clear() {
+        return drainTo(new BufferFilter<MessagePromise<?>>() {
+            @Override
+            public boolean accept(MessagePromise<?> promise) {
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        int size = queue.size();
+        if (tail != null && tail.get() != null) {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty() && (tail == null || tail.get() == null);
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+public final class MpscSizeBoundedQueueFactory extends SizeBoundedQueueFactory {
+
+    @Override
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return newSizeBoundedQueue(maxSize, 0L, overflowStrategy, key);
+    }
+
+    @Override
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, long maxBytes, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return new MpscSizeBoundedQueue(maxSize, maxBytes, key, overflowStrategy);
+    }
+
+    @Override
+    public boolean supports(OverflowStrategy.Type overflowStrategy) {
+        return overflowStrategy != OverflowStrategy.Type.SpillToDisk;
+    }
+}
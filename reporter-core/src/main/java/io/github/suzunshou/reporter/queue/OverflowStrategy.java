@@ -13,7 +13,8 @@ public abstract class OverflowStrategy {
         DropBuffer(3, dropBuffer),
         DropNew(4, dropNew),
         BackPressure(5, backPressure),
-        Fail(6, fail);
+        Fail(6, fail),
+        SpillToDisk(7, spillToDisk);
         private int value;
         private OverflowStrategy strategy;
 
@@ -44,6 +45,8 @@ public abstract class OverflowStrategy {
                     return BackPressure.getStrategy();
                 case 6:
                     return Fail.getStrategy();
+                case 7:
+                    return SpillToDisk.getStrategy();
                 default:
                     return null;
             }
@@ -84,6 +87,15 @@ public abstract class OverflowStrategy {
      */
     private static final OverflowStrategy fail = new Fail();
 
+    /**
+     * If the buffer is full when a new element arrives, writes the new element to memory-mapped spill files. Spilled
+     * elements are read back by drain once the buffer catches up, in arrival order. The promise of a spilled element
+     * stays pending until the element is read back and sent, as long as no more than the buffer size of such promises
+     * wait, beyond that it completes once the element is written and the send is only seen by the metrics and the
+     * dead letter handler. An element which does not fit the disk budget is dropped.
+     */
+    private static final OverflowStrategy spillToDisk = new SpillToDisk();
+
     abstract boolean isBackPressure();
 
     private static class DropHead extends OverflowStrategy {
@@ -157,4 +169,16 @@ public abstract class OverflowStrategy {
             return "Fail";
         }
     }
+
+    private static class SpillToDisk extends OverflowStrategy {
+        @Override
+        boolean isBackPressure() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "SpillToDisk";
+        }
+    }
 }
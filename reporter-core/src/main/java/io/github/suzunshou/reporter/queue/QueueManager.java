@@ -1,16 +1,21 @@
 package io.github.suzunshou.reporter.queue;
 
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
 import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
 import io.github.suzunshou.reporter.concurrent.timer.TimeDriven;
 import io.github.suzunshou.reporter.concurrent.timer.Timeout;
 import io.github.suzunshou.reporter.concurrent.timer.TimerTask;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
 import io.github.suzunshou.reporter.reporter.Message;
 import io.github.suzunshou.reporter.reporter.ReporterMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -23,6 +28,7 @@ public class QueueManager {
     private final ConcurrentHashMap<Message.MessageKey, AbstractSizeBoundedQueue> keyToQueue;
 
     private final int queuedMaxMessages;
+    private final long queuedMaxBytes;
     private final OverflowStrategy.Type overflowStrategy;
     private final long queuedKeepAliveNanos;
 
@@ -30,14 +36,37 @@ public class QueueManager {
     private final ReporterMetrics metrics;
     private final HashedWheelTimer timer;
 
-    private final SizeBoundedQueueFactory queueFactory = SizeBoundedQueueFactory.factory();
+    private final SizeBoundedQueueFactory queueFactory;
+    private final MemoryLimiter memoryLimiter;
     private CreateCallback createCallback;
+    private SpillDirectory spillDirectory;
+    private DeadLetterHandler deadLetterHandler;
 
     public QueueManager(int queuedMaxMessages, OverflowStrategy.Type overflowStrategy, long queuedKeepAliveNanos,
                         TimeDriven<Message.MessageKey> timeDriven, ReporterMetrics metrics, HashedWheelTimer timer) {
+        this(queuedMaxMessages, 0L, overflowStrategy, queuedKeepAliveNanos, timeDriven, metrics, timer,
+                SizeBoundedQueueFactory.factory());
+    }
+
+    public QueueManager(int queuedMaxMessages, long queuedMaxBytes, OverflowStrategy.Type overflowStrategy,
+                        long queuedKeepAliveNanos, TimeDriven<Message.MessageKey> timeDriven, ReporterMetrics metrics,
+                        HashedWheelTimer timer, SizeBoundedQueueFactory queueFactory) {
+        this(queuedMaxMessages, queuedMaxBytes, overflowStrategy, queuedKeepAliveNanos, timeDriven, metrics, timer,
+                queueFactory, MemoryLimiter.NOOP_LIMITER);
+    }
+
+    /**
+     * @param memoryLimiter told about every message entering or leaving the created queues
+     */
+    public QueueManager(int queuedMaxMessages, long queuedMaxBytes, OverflowStrategy.Type overflowStrategy,
+                        long queuedKeepAliveNanos, TimeDriven<Message.MessageKey> timeDriven, ReporterMetrics metrics,
+                        HashedWheelTimer timer, SizeBoundedQueueFactory queueFactory, MemoryLimiter memoryLimiter) {
         this.keyToQueue = new ConcurrentHashMap<>();
+        this.queueFactory = queueFactory;
+        this.memoryLimiter = memoryLimiter;
 
         this.queuedMaxMessages = queuedMaxMessages;
+        this.queuedMaxBytes = queuedMaxBytes;
         this.overflowStrategy = overflowStrategy;
         this.queuedKeepAliveNanos = queuedKeepAliveNanos;
 
@@ -65,7 +94,15 @@ public class QueueManager {
     public AbstractSizeBoundedQueue getOrCreate(Message.MessageKey key) {
         AbstractSizeBoundedQueue queue = get(key);
         if (queue == null) {
-            queue = queueFactory.newSizeBoundedQueue(queuedMaxMessages, overflowStrategy, key);
+            queue = queueFactory.newSizeBoundedQueue(queuedMaxMessages, queuedMaxBytes, overflowStrategy, key);
+            queue.memoryLimiter(memoryLimiter);
+            if (overflowStrategy == OverflowStrategy.Type.SpillToDisk && spillDirectory != null) {
+                try {
+                    queue.spillTo(spillDirectory.newSpill(), metrics, deadLetterHandler);
+                } catch (IOException e) {
+                    logger.warn("Can not spill queue of key " + key + " to " + spillDirectory, e);
+                }
+            }
             AbstractSizeBoundedQueue prev = keyToQueue.putIfAbsent(key, queue);
 
             if (prev == null) {
@@ -73,6 +110,7 @@ public class QueueManager {
                 onCreate(queue);
                 logger.debug("queue created...key={}", key);
             } else {
+                queue.close();
                 queue = prev;
             }
         } else {
@@ -91,8 +129,54 @@ public class QueueManager {
         createCallback = callback;
     }
 
-    public void clear() {
+    /**
+     * where {@link OverflowStrategy.Type#SpillToDisk} queues write their spill files.
+     *
+     * @param spillDirectory
+     */
+    public void spillTo(SpillDirectory spillDirectory) {
+        spillTo(spillDirectory, null);
+    }
+
+    /**
+     * @param deadLetterHandler receives spilled messages which fail once read back, may be {@code null}
+     */
+    public void spillTo(SpillDirectory spillDirectory, DeadLetterHandler deadLetterHandler) {
+        this.spillDirectory = spillDirectory;
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * Remove all queues, the messages still queued fail.
+     *
+     * @return the messages dropped
+     */
+    public int clear() {
+        int dropped = 0;
+        for (AbstractSizeBoundedQueue queue : keyToQueue.values()) {
+            dropped += release(queue);
+        }
         keyToQueue.clear();
+        return dropped;
+    }
+
+    /**
+     * drain a removed queue so its messages give their share of the memory limiter back, a
+     * producer may still have offered to it after it was looked up.
+     */
+    private int release(AbstractSizeBoundedQueue queue) {
+        List<MessagePromise<?>> promises = new ArrayList<>();
+        queue.close();
+        queue.drainTo(promises, Integer.MAX_VALUE);
+        if (promises.isEmpty()) {
+            return 0;
+        }
+        memoryLimiter.signalAll();
+        IllegalStateException cause = new IllegalStateException("queue of key " + queue.key + " removed");
+        for (MessagePromise<?> promise : promises) {
+            promise.setFailure(MessageDroppedException.dropped(cause, Collections.singletonList(promise.message())));
+        }
+        return promises.size();
     }
 
     /**
@@ -123,6 +207,10 @@ public class QueueManager {
                     timeDriven.cancelTimer(key);
                 }
                 keyToQueue.remove(key);
+                int dropped = release(queue);
+                if (dropped > 0) {
+                    logger.debug("Dropped {} messages offered to the removed queue of key {}", dropped, key);
+                }
             } else {
                 long delay = Math.max(0L, queuedKeepAliveNanos - (curr - queue.getLastAccessNanos()));
                 timeout.timer().newTimeout(this, delay, TimeUnit.NANOSECONDS);
@@ -0,0 +1,320 @@
+package io.github.suzunshou.reporter.queue;
+
+import com.lmax.disruptor.Sequence;
+import io.github.suzunshou.buffers.BufferFilter;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.Promises;
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Disruptor style size bounded queue. Messages live in a power-of-two ring, allocated by the first
+ * offer, and two padded {@link Sequence}s track the claimed and the consumed positions.
+ * <p>
+ * A producer claims one or more slots with a single CAS on {@link #producer}, writes the
+ * promises and publishes them by setting the slot. The consumer takes a whole contiguous run of
+ * published slots and moves {@link #consumer} once per run, so a drain costs one volatile write
+ * no matter how many messages it hands to the flusher.
+ */
+final class RingSizeBoundedQueue extends AbstractSizeBoundedQueue {
+
+    //largest power of two an int holds
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private final OverflowStrategy.Type overflowStrategy;
+
+    private final int capacity;
+    //a queue per key, most of them never fill up, so the ring is only allocated once used
+    private volatile AtomicReferenceArray<MessagePromise<?>> slots;
+    private final int mask;
+
+    private final Sequence producer = new Sequence(0);
+    private final Sequence consumer = new Sequence(0);
+
+    //consumers are serialized, producers never take this lock
+    private final ReentrantLock consumerLock = new ReentrantLock();
+
+    private final ReentrantLock lock;
+    private final Condition notFull;
+
+    RingSizeBoundedQueue(int maxSize, long maxBytes, Message.MessageKey key, OverflowStrategy.Type overflowStrategy) {
+        super(maxSize, maxBytes, key);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize should be greater than 0.");
+        }
+        if (maxSize > MAX_CAPACITY) {
+            throw new IllegalArgumentException("maxSize should not be greater than " + MAX_CAPACITY + ".");
+        }
+        if (overflowStrategy == OverflowStrategy.Type.SpillToDisk) {
+            throw new IllegalArgumentException("SpillToDisk is only supported by ConcurrentSizeBoundedQueue.");
+        }
+        this.overflowStrategy = overflowStrategy;
+        this.capacity = ringSize(maxSize);
+        this.mask = capacity - 1;
+        if (overflowStrategy == OverflowStrategy.Type.BackPressure) {
+            lock = new ReentrantLock();
+            notFull = lock.newCondition();
+        } else {
+            lock = null;
+            notFull = null;
+        }
+    }
+
+    private static int ringSize(int maxSize) {
+        int n = Integer.highestOneBit(maxSize);
+        return n == maxSize ? n : n << 1;
+    }
+
+    private AtomicReferenceArray<MessagePromise<?>> slots() {
+        AtomicReferenceArray<MessagePromise<?>> slots = this.slots;
+        if (slots == null) {
+            synchronized (this) {
+                if ((slots = this.slots) == null) {
+                    this.slots = slots = new AtomicReferenceArray<>(capacity);
+                }
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * claim n slots, return the first claimed sequence or -1 if there is not enough room.
+     */
+    private long tryClaim(int n) {
+        for (; ; ) {
+            long current = producer.get();
+            if (current + n - consumer.get() > maxSize) {
+                return -1L;
+            }
+            if (producer.compareAndSet(current, current + n)) {
+                return current;
+            }
+        }
+    }
+
+    private void publish(long sequence, MessagePromise<?> promise) {
+        slots().lazySet((int) sequence & mask, promise);
+    }
+
+    @Override
+    public void offer(MessagePromise<?> promise) {
+        int weight = weigh(promise);
+        for (; ; ) {
+            long sequence = exceedsMaxBytes(weight) ? -1L : tryClaim(1);
+            if (sequence >= 0) {
+                publish(sequence, promise);
+                added(1, weight);
+                return;
+            }
+
+            switch (overflowStrategy) {
+                case DropNew:
+                    promise.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropNew.getStrategy(), promise.message()));
+                    return;
+                case DropTail:
+                    if (replaceYoungest(promise, weight)) {
+                        return;
+                    }
+                    continue;
+                case DropHead:
+                    List<MessagePromise<?>> head = new ArrayList<>(1);
+                    if (drainTo(head, 1) > 0) {
+                        MessagePromise<?> dropped = head.get(0);
+                        dropped.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropHead.getStrategy(), dropped.message()));
+                    }
+                    continue;
+                case DropBuffer:
+                    List<MessagePromise<?>> promises = new ArrayList<>(size());
+                    drainTo(promises, maxSize);
+                    Promises.allFail(promises, OverflowStrategy.Type.DropBuffer.getStrategy());
+                    continue;
+                case BackPressure:
+                    doBackPressure(weight);
+                    continue;
+                case Fail:
+                    throw new BufferOverflowException("Max size of " + maxSize + " is reached. currSize is " + size());
+            }
+        }
+    }
+
+    /**
+     * Claim room for the whole batch with one CAS. Falls back to the overflow strategy per message
+     * if the batch does not fit.
+     */
+    @Override
+    public void offer(List<? extends MessagePromise<?>> promises) {
+        int n = promises.size();
+        if (n == 0) {
+            return;
+        }
+        long weight = 0;
+        for (int i = 0; i < n; i++) {
+            weight += weigh(promises.get(i));
+        }
+        long sequence = n <= maxSize && !exceedsMaxBytes((int) Math.min(weight, Integer.MAX_VALUE)) ? tryClaim(n) : -1L;
+        if (sequence < 0) {
+            super.offer(promises);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            publish(sequence + i, promises.get(i));
+        }
+        added(n, weight);
+    }
+
+    /**
+     * swap the youngest published message with the new one. Consumers take slots with getAndSet
+     * under DropTail, so a message is either replaced here or drained, never both.
+     */
+    private boolean replaceYoungest(MessagePromise<?> promise, int weight) {
+        long youngest = producer.get() - 1;
+        if (youngest < consumer.get()) {
+            return false;
+        }
+        AtomicReferenceArray<MessagePromise<?>> slots = slots();
+        int index = (int) youngest & mask;
+        MessagePromise<?> prev = slots.get(index);
+        if (prev == null || !slots.compareAndSet(index, prev, promise)) {
+            return false;
+        }
+        added(1, weight);
+        removed(1, weigh(prev));
+        prev.setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropTail.getStrategy(), prev.message()));
+        return true;
+    }
+
+    private void doBackPressure(int weight) {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (size() >= maxSize || exceedsMaxBytes(weight)) {
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private MessagePromise<?> take(int index) {
+        AtomicReferenceArray<MessagePromise<?>> slots = slots();
+        if (overflowStrategy == OverflowStrategy.Type.DropTail) {
+            return slots.getAndSet(index, null);
+        }
+        MessagePromise<?> promise = slots.get(index);
+        if (promise != null) {
+            slots.lazySet(index, null);
+        }
+        return promise;
+    }
+
+    @Override
+    public int drainTo(List<MessagePromise<?>> list, int maxElements) {
+        int drained = 0;
+        long drainedBytes = 0;
+
+        consumerLock.lock();
+        try {
+            long head = consumer.get();
+            long available = Math.min(producer.get() - head, maxElements);
+            while (drained < available) {
+                MessagePromise<?> promise = take((int) (head + drained) & mask);
+                if (promise == null) {
+                    //claimed but not published yet, the run ends here
+                    break;
+                }
+                list.add(promise);
+                drainedBytes += weigh(promise);
+                drained++;
+            }
+            if (drained > 0) {
+                consumer.set(head + drained);
+            }
+        } finally {
+            consumerLock.unlock();
+        }
+
+        removed(drained, drainedBytes);
+        signalNotFull(drained);
+        return drained;
+    }
+
+    @Override
+    public int drainTo(BufferFilter<MessagePromise<?>> filter) {
+        int drained = 0;
+        long drainedBytes = 0;
+
+        consumerLock.lock();
+        try {
+            long head = consumer.get();
+            long available = producer.get() - head;
+            while (drained < available) {
+                int index = (int) (head + drained) & mask;
+                MessagePromise<?> promise = take(index);
+                if (promise == null) {
+                    break;
+                }
+                if (!filter.accept(promise)) {
+                    slots().set(index, promise);
+                    break;
+                }
+                drainedBytes += weigh(promise);
+                drained++;
+            }
+            if (drained > 0) {
+                consumer.set(head + drained);
+            }
+        } finally {
+            consumerLock.unlock();
+        }
+
+        removed(drained, drainedBytes);
+        signalNotFull(drained);
+        return drained;
+    }
+
+    private void signalNotFull(int drained) {
+        if (notFull != null && drained > 0) {
+            lock.lock();
+            try {
+                if (lock.hasWaiters(notFull)) {
+                    notFull.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int clear() {
+        return drainTo(new BufferFilter<MessagePromise<?>>() {
+            @Override
+            public boolean accept(MessagePromise<?> promise) {
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return (int) (producer.get() - consumer.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return producer.get() == consumer.get();
+    }
+}
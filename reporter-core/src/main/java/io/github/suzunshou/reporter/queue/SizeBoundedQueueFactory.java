@@ -3,6 +3,8 @@ package io.github.suzunshou.reporter.queue;
 import io.github.suzunshou.reporter.reporter.Message;
 import io.github.suzunshou.reporter.util.ExtensionLoader;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.ServiceConfigurationError;
 
 /**
@@ -14,10 +16,64 @@ public abstract class SizeBoundedQueueFactory {
 
     public abstract AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, OverflowStrategy.Type overflowStrategy, Message.MessageKey key);
 
-    static SizeBoundedQueueFactory factory() {
+    /**
+     * create a queue bounded by message count and retained bytes. Factories which do not
+     * support a byte bound ignore maxBytes.
+     *
+     * @param maxSize
+     * @param maxBytes         zero or negative means no byte bound
+     * @param overflowStrategy
+     * @param key
+     * @return
+     */
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, long maxBytes, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return newSizeBoundedQueue(maxSize, overflowStrategy, key);
+    }
+
+    /**
+     * Return {@code false} if the queues of this factory reject the overflow strategy, the reporter
+     * builder checks it instead of failing the first report.
+     *
+     * @param overflowStrategy
+     * @return
+     */
+    public boolean supports(OverflowStrategy.Type overflowStrategy) {
+        return true;
+    }
+
+    /**
+     * Return the messages a persistent factory found undelivered on startup, only the first call
+     * returns them. The reporter built with this factory reports them again.
+     *
+     * @return
+     */
+    public List<Message> recover() {
+        return Collections.emptyList();
+    }
+
+    public static SizeBoundedQueueFactory factory() {
         if (factory == null) {
             throw new ServiceConfigurationError("No functional queue factory found.");
         }
         return factory;
     }
+
+    /**
+     * find a registered factory by its class name or simple class name.
+     *
+     * @param name
+     * @return
+     */
+    public static SizeBoundedQueueFactory factory(String name) {
+        if (name == null) {
+            return factory();
+        }
+        for (SizeBoundedQueueFactory candidate : ExtensionLoader.getExtensionList(SizeBoundedQueueFactory.class)) {
+            Class<?> clazz = candidate.getClass();
+            if (clazz.getName().equals(name) || clazz.getSimpleName().equals(name)) {
+                return candidate;
+            }
+        }
+        throw new ServiceConfigurationError("No queue factory named " + name + " found.");
+    }
 }
@@ -0,0 +1,61 @@
+package io.github.suzunshou.reporter.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Where and how much the {@link OverflowStrategy.Type#SpillToDisk} strategy may write. Every queue
+ * gets its own sub directory of memory-mapped segment files which is removed with the queue.
+ */
+public final class SpillDirectory {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 32L * DEFAULT_SEGMENT_BYTES;
+
+    final File directory;
+    final int segmentBytes;
+    final long maxBytes;
+
+    /**
+     * @param directory    parent directory of the spill files
+     * @param segmentBytes size of one mapped segment, also the max size of one serialized message
+     * @param maxBytes     disk budget of each queue, at least one segment. A message which does not
+     *                     fit any more is dropped like a message of a full {@code DropNew} queue
+     */
+    public SpillDirectory(File directory, int segmentBytes, long maxBytes) {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (segmentBytes <= 12) {
+            throw new IllegalArgumentException("segmentBytes should be greater than 12.");
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("maxBytes should not be less than segmentBytes.");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public static SpillDirectory create(File directory) {
+        return new SpillDirectory(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    MappedSpill newSpill() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create spill directory " + directory);
+        }
+        File queueDirectory = Files.createTempDirectory(directory.toPath(), "queue-").toFile();
+        return new MappedSpill(queueDirectory, segmentBytes, maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "SpillDirectory{" +
+                "directory=" + directory +
+                ", segmentBytes=" + segmentBytes +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+}
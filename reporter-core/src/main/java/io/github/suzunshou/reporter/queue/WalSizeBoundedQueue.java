@@ -0,0 +1,142 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.buffers.BufferFilter;
+import io.github.suzunshou.reporter.concurrent.Future;
+import io.github.suzunshou.reporter.concurrent.GenericFutureListener;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.VoidMessagePromise;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Size bounded queue which appends every offered message to a {@link WriteAheadLog} before
+ * queueing it in memory, and acks it in the log once its promise succeeds. A message which failed,
+ * was dropped or was still pending when the queue was closed or the process died stays in the log
+ * and is replayed on the next start. Everything else is done by the in-memory delegate.
+ */
+final class WalSizeBoundedQueue extends AbstractSizeBoundedQueue {
+
+    private final AbstractSizeBoundedQueue delegate;
+    private final WriteAheadLog log;
+
+    WalSizeBoundedQueue(AbstractSizeBoundedQueue delegate, WriteAheadLog log) {
+        super(delegate.maxSize, delegate.maxBytes, delegate.key);
+        this.delegate = delegate;
+        this.log = log;
+    }
+
+    @Override
+    public void offer(MessagePromise<?> promise) {
+        long seq;
+        try {
+            seq = log.append(promise.message());
+            log.awaitCommitted(seq);
+        } catch (IOException e) {
+            promise.setFailure(MessageDroppedException.dropped(e, Collections.singletonList(promise.message())));
+            return;
+        }
+        delegate.offer(ackOnSuccess(promise, seq));
+    }
+
+    /**
+     * log the whole batch and wait for a single commit.
+     */
+    @Override
+    public void offer(List<? extends MessagePromise<?>> promises) {
+        List<MessagePromise<?>> logged = new ArrayList<>(promises.size());
+        long lastSeq = -1;
+        for (MessagePromise<?> promise : promises) {
+            try {
+                long seq = log.append(promise.message());
+                logged.add(ackOnSuccess(promise, seq));
+                lastSeq = Math.max(lastSeq, seq);
+            } catch (IOException e) {
+                promise.setFailure(MessageDroppedException.dropped(e, Collections.singletonList(promise.message())));
+            }
+        }
+        try {
+            log.awaitCommitted(lastSeq);
+        } catch (IOException e) {
+            for (MessagePromise<?> promise : logged) {
+                promise.setFailure(MessageDroppedException.dropped(e, Collections.singletonList(promise.message())));
+            }
+            return;
+        }
+        delegate.offer(logged);
+    }
+
+    /**
+     * ack the record once the message is sent, a failure keeps it for the next start. A void promise
+     * takes no listeners, it is queued as a regular promise instead.
+     */
+    private <V> MessagePromise<V> ackOnSuccess(MessagePromise<V> promise, final long seq) {
+        if (promise instanceof VoidMessagePromise) {
+            promise = ((VoidMessagePromise<V>) promise).unvoid();
+        }
+        promise.addListener(new GenericFutureListener<Future<? super V>>() {
+            @Override
+            public void operationComplete(Future<? super V> future) {
+                if (future.isSuccess()) {
+                    log.ack(seq);
+                }
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public int drainTo(BufferFilter<MessagePromise<?>> filter) {
+        return delegate.drainTo(filter);
+    }
+
+    @Override
+    public int drainTo(List<MessagePromise<?>> list, int maxElements) {
+        return delegate.drainTo(list, maxElements);
+    }
+
+    @Override
+    public int clear() {
+        return delegate.clear();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public long bytes() {
+        return delegate.bytes();
+    }
+
+    @Override
+    public boolean reachedMaxBytes() {
+        return delegate.reachedMaxBytes();
+    }
+
+    @Override
+    void memoryLimiter(MemoryLimiter memoryLimiter) {
+        delegate.memoryLimiter(memoryLimiter);
+    }
+
+    @Override
+    void spillTo(MappedSpill spill, ReporterMetrics metrics, DeadLetterHandler deadLetterHandler) {
+        delegate.spillTo(spill, metrics, deadLetterHandler);
+    }
+
+    @Override
+    void close() {
+        delegate.close();
+    }
+}
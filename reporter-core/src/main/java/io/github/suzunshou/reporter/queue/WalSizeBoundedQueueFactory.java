@@ -0,0 +1,73 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable queues, every offered message is appended to a segmented, checksummed write-ahead log
+ * in the directory before it is queued, and acked once it is sent. Every other message, still
+ * queued or in flight when the queues were closed or the process died, failed or dropped, is
+ * handed out by {@link #recover()} on the next start and
+ * {@link io.github.suzunshou.reporter.reporter.AsyncReporter} reports it again. Failed messages
+ * reach the dead letter handler as well, so a message kept by both may be delivered twice. The log
+ * keeps the segments of failed messages until the next start, a long outage grows it by the
+ * messages that failed meanwhile.
+ * <p>
+ * By default an offer returns only once its record is synced, so nothing accepted by a report is
+ * lost in a crash. Every report then waits for an fsync, shared with the concurrent producers.
+ * Passing {@code awaitCommit = false} opts out: an offer does not wait for the disk and a crash
+ * loses the records of the last commit, typically a few milliseconds of messages.
+ * <p>
+ * Not registered as a service since it needs a directory, pass it to the builder instead. Use one
+ * factory per reporter.
+ */
+public final class WalSizeBoundedQueueFactory extends SizeBoundedQueueFactory implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final WriteAheadLog log;
+
+    public WalSizeBoundedQueueFactory(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, true);
+    }
+
+    /**
+     * @param directory    log directory, replayed if it already holds segments
+     * @param segmentBytes size a segment is rolled at
+     * @param awaitCommit  whether an offer waits until its record is synced, see above
+     * @throws IOException if the directory can not be read
+     */
+    public WalSizeBoundedQueueFactory(File directory, long segmentBytes, boolean awaitCommit) throws IOException {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("segmentBytes should be greater than 0.");
+        }
+        this.log = WriteAheadLog.open(directory, segmentBytes, awaitCommit);
+    }
+
+    @Override
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return newSizeBoundedQueue(maxSize, 0L, overflowStrategy, key);
+    }
+
+    @Override
+    public AbstractSizeBoundedQueue newSizeBoundedQueue(int maxSize, long maxBytes, OverflowStrategy.Type overflowStrategy, Message.MessageKey key) {
+        return new WalSizeBoundedQueue(new ConcurrentSizeBoundedQueue(maxSize, maxBytes, key, overflowStrategy), log);
+    }
+
+    @Override
+    public List<Message> recover() {
+        return log.recover();
+    }
+
+    /**
+     * sync what is left and stop the committer, the reporter should be closed first.
+     */
+    @Override
+    public void close() {
+        log.close();
+    }
+}
@@ -0,0 +1,596 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented write-ahead log shared by the queues of one {@link WalSizeBoundedQueueFactory}.
+ * <p>
+ * Producers only copy their record into the pending list. A single committer thread writes
+ * everything pending with one gathering write and one fsync, so concurrent producers share the
+ * cost of a sync (group commit).
+ * <p>
+ * Record layout: {@code int length | int crc32 | byte type | long seq | payload}, where length
+ * and crc cover everything after the crc. A data record carries a serialized message, an ack
+ * record lists the sequences released since the previous commit. A segment is deleted once it is
+ * full, all of its data records are acked and every segment it holds acks for is deleted, so an
+ * acked message never comes back while a drained segment in the middle of the log goes at once.
+ * On open, the data records without an ack are recovered, a torn or corrupted tail ends the
+ * reading of its segment.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte DATA = 0;
+    private static final byte ACK = 1;
+    //type and seq
+    private static final int BODY_HEADER = 1 + 8;
+    private static final String SUFFIX = ".wal";
+
+    private final File directory;
+    private final long segmentBytes;
+    private final boolean awaitCommit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+
+    //guarded by lock
+    private List<Record> pending = new ArrayList<>();
+    private long[] acks = new long[64];
+    //segment of the data record of each ack
+    private Segment[] ackSegments = new Segment[64];
+    private int ackCount;
+    private Segment current;
+    private long nextSeq;
+    private long nextFile;
+    private long committedSeq;
+    private IOException failure;
+    private boolean closed;
+    private final Map<Message, Long> recovered = new IdentityHashMap<>();
+    private List<Message> recoveredMessages = Collections.emptyList();
+
+    //first seq -> segment, used to find the segment of an acked record
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    //all segments oldest first, also guards Segment.ackedFrom
+    private final ArrayDeque<Segment> ordered = new ArrayDeque<>();
+
+    private final Thread committer;
+    //only touched by the committer
+    private Segment writing;
+
+    private WriteAheadLog(File directory, long segmentBytes, boolean awaitCommit) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.awaitCommit = awaitCommit;
+        this.committer = ReporterExecutors.daemonThreadFactory("WriteAheadLog-committer-").newThread(new Committer());
+    }
+
+    static WriteAheadLog open(File directory, long segmentBytes, boolean awaitCommit) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create log directory " + directory);
+        }
+        WriteAheadLog log = new WriteAheadLog(directory, segmentBytes, awaitCommit);
+        log.replay();
+        log.committer.start();
+        return log;
+    }
+
+    /**
+     * append a message and return its sequence. A message handed out by {@link #recover()} keeps
+     * its old sequence and is not written again.
+     *
+     * @param message
+     * @return
+     * @throws IOException if the log is closed or a previous write failed
+     */
+    long append(Message message) throws IOException {
+        if (!recovered.isEmpty()) {
+            lock.lock();
+            try {
+                Long seq = recovered.remove(message);
+                if (seq != null) {
+                    return seq;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        byte[] payload = MessageSerializer.serialize(message);
+        lock.lock();
+        try {
+            ensureWritable();
+            Segment segment = segmentFor(8 + BODY_HEADER + payload.length);
+            long seq = nextSeq++;
+            segment.outstanding.incrementAndGet();
+            enqueue(segment, DATA, seq, payload);
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * mark the message of the sequence as delivered, the acks are written with the next commit.
+     *
+     * @param seq
+     */
+    void ack(long seq) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(seq);
+        Segment segment = entry == null ? null : entry.getValue();
+        if (segment != null && segment.outstanding.decrementAndGet() == 0) {
+            truncate();
+        }
+
+        lock.lock();
+        try {
+            if (!closed && failure == null) {
+                if (ackCount == acks.length) {
+                    acks = Arrays.copyOf(acks, ackCount << 1);
+                    ackSegments = Arrays.copyOf(ackSegments, ackCount << 1);
+                }
+                ackSegments[ackCount] = segment;
+                acks[ackCount++] = seq;
+                if (ackCount == 1 && pending.isEmpty()) {
+                    notEmpty.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * wait until the record of the sequence is synced to disk, returns at once if the log does not await commits.
+     *
+     * @param seq
+     * @throws IOException if the write failed
+     */
+    void awaitCommitted(long seq) throws IOException {
+        if (!awaitCommit) {
+            return;
+        }
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (committedSeq < seq && failure == null) {
+                try {
+                    committed.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (committedSeq < seq) {
+                throw new IOException("Write ahead log failed", failure);
+            }
+        } finally {
+            lock.unlock();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Return the unacked messages found on open, only the first call returns them.
+     *
+     * @return
+     */
+    List<Message> recover() {
+        lock.lock();
+        try {
+            List<Message> messages = recoveredMessages;
+            recoveredMessages = Collections.emptyList();
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * write and sync everything appended so far and stop the committer.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        boolean interrupted = false;
+        while (committer.isAlive()) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void ensureWritable() throws IOException {
+        if (closed) {
+            throw new IOException("Write ahead log is closed");
+        }
+        if (failure != null) {
+            throw new IOException("Write ahead log failed", failure);
+        }
+    }
+
+    //guarded by lock
+    private Segment segmentFor(int recordLength) {
+        if (current == null || (current.size > 0 && current.size + recordLength > segmentBytes)) {
+            if (current != null) {
+                current.sealed = true;
+            }
+            current = new Segment(new File(directory, String.format("%020d%s", nextFile++, SUFFIX)), nextSeq);
+            //an older segment with the same key holds acks only and is not looked up any more
+            segments.put(current.firstSeq, current);
+            synchronized (ordered) {
+                ordered.addLast(current);
+            }
+        }
+        current.size += recordLength;
+        return current;
+    }
+
+    //guarded by lock
+    private void enqueue(Segment segment, byte type, long seq, byte[] payload) {
+        int length = BODY_HEADER + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+        buffer.putInt(length).putInt(0).put(type).putLong(seq).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, length);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        pending.add(new Record(segment, buffer));
+        //the committer only waits while nothing is pending
+        if (pending.size() == 1 && ackCount == 0) {
+            notEmpty.signal();
+        }
+    }
+
+    //guarded by lock, one record for all acks since the last commit unless it outgrows a segment
+    private void enqueueAcks() {
+        int perRecord = (int) Math.max(1, Math.min(ackCount, (segmentBytes - 8 - BODY_HEADER) / 8));
+        for (int from = 0; from < ackCount; from += perRecord) {
+            int count = Math.min(perRecord, ackCount - from);
+            ByteBuffer payload = ByteBuffer.allocate(count * 8);
+            for (int i = from; i < from + count; i++) {
+                payload.putLong(acks[i]);
+            }
+            Segment segment = segmentFor(8 + BODY_HEADER + payload.capacity());
+            synchronized (ordered) {
+                for (int i = from; i < from + count; i++) {
+                    if (ackSegments[i] != null && ackSegments[i] != segment) {
+                        segment.ackedFrom.add(ackSegments[i]);
+                    }
+                }
+            }
+            enqueue(segment, ACK, count, payload.array());
+        }
+        Arrays.fill(ackSegments, 0, ackCount, null);
+        ackCount = 0;
+        if (acks.length > 1024) {
+            acks = new long[64];
+            ackSegments = new Segment[64];
+        }
+    }
+
+    /**
+     * delete the segments which are full, written and acked, and whose acks are not needed any
+     * more. Segments only hold acks for older ones, so one pass oldest first finds them all.
+     */
+    private void truncate() {
+        synchronized (ordered) {
+            Iterator<Segment> it = ordered.iterator();
+            while (it.hasNext()) {
+                Segment segment = it.next();
+                if (segment.sealed && segment.closed && segment.outstanding.get() <= 0 && !segment.holdsLiveAcks()) {
+                    it.remove();
+                    segment.deleted = true;
+                    segments.remove(segment.firstSeq, segment);
+                    delete(segment.file);
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            logger.warn("Can not delete log segment {}", file);
+        }
+    }
+
+    /**
+     * read the existing segments and keep the unacked messages for {@link #recover()}.
+     */
+    private void replay() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Can not list log directory " + directory);
+        }
+        Arrays.sort(files);
+
+        Map<Long, Entry> unacked = new LinkedHashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                nextFile = Math.max(nextFile, Long.parseLong(name.substring(0, name.length() - SUFFIX.length())) + 1);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignore unknown file {}", file);
+                continue;
+            }
+            Segment segment = new Segment(file, -1);
+            segment.sealed = true;
+            segment.closed = true;
+            readSegment(segment, unacked);
+            ordered.addLast(segment);
+        }
+
+        List<Message> messages = new ArrayList<>(unacked.size());
+        for (Map.Entry<Long, Entry> entry : unacked.entrySet()) {
+            Segment segment = entry.getValue().segment;
+            try {
+                Message message = MessageSerializer.deserialize(entry.getValue().payload);
+                recovered.put(message, entry.getKey());
+                messages.add(message);
+            } catch (IOException | ClassNotFoundException e) {
+                logger.warn("Skip unreadable message " + entry.getKey() + " in " + segment.file, e);
+                continue;
+            }
+            if (segment.outstanding.getAndIncrement() == 0) {
+                //unacked seqs come in order, so the first one is the smallest of the segment
+                segment.firstSeq = entry.getKey();
+                segments.put(segment.firstSeq, segment);
+            }
+        }
+        truncate();
+
+        committedSeq = nextSeq - 1;
+        recoveredMessages = messages;
+        if (!messages.isEmpty()) {
+            logger.info("Recovered {} unacked messages from {}", messages.size(), directory);
+        }
+    }
+
+    private void readSegment(Segment segment, Map<Long, Entry> unacked) throws IOException {
+        CRC32 crc = new CRC32();
+        long remaining = segment.file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            for (; ; ) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                int checksum = in.readInt();
+                remaining -= 8;
+                if (length < BODY_HEADER || length > remaining) {
+                    logger.warn("Corrupted or torn record in {}, ignore the rest", segment.file);
+                    return;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                remaining -= length;
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    logger.warn("Checksum mismatch in {}, ignore the rest", segment.file);
+                    return;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                byte type = buffer.get();
+                long seq = buffer.getLong();
+                if (type == DATA) {
+                    unacked.put(seq, new Entry(segment, Arrays.copyOfRange(body, BODY_HEADER, length)));
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                } else {
+                    //seq of an ack record is the number of acked sequences
+                    for (long i = 0; i < seq; i++) {
+                        Entry acked = unacked.remove(buffer.getLong());
+                        if (acked != null && acked.segment != segment) {
+                            segment.ackedFrom.add(acked.segment);
+                        }
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("Torn record at the end of {}, ignore it", segment.file);
+        }
+    }
+
+    private class Committer implements Runnable {
+        @Override
+        public void run() {
+            for (; ; ) {
+                List<Record> batch;
+                long batchSeq;
+                lock.lock();
+                try {
+                    while (pending.isEmpty() && ackCount == 0 && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (ackCount > 0 && failure == null) {
+                        enqueueAcks();
+                    }
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    batch = pending;
+                    pending = new ArrayList<>();
+                    batchSeq = nextSeq - 1;
+                } finally {
+                    lock.unlock();
+                }
+
+                IOException error = null;
+                try {
+                    write(batch);
+                } catch (IOException e) {
+                    logger.error("Can not write to " + directory, e);
+                    error = e;
+                }
+
+                lock.lock();
+                try {
+                    if (error != null) {
+                        failure = error;
+                    } else {
+                        committedSeq = batchSeq;
+                    }
+                    committed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            if (writing != null) {
+                try {
+                    writing.channel.close();
+                } catch (IOException e) {
+                    logger.warn("Can not close " + writing.file, e);
+                }
+            }
+        }
+
+        private void write(List<Record> batch) throws IOException {
+            int from = 0;
+            while (from < batch.size()) {
+                Segment segment = batch.get(from).segment;
+                int to = from;
+                long remaining = 0;
+                while (to < batch.size() && batch.get(to).segment == segment) {
+                    remaining += batch.get(to).buffer.remaining();
+                    to++;
+                }
+                if (segment != writing) {
+                    if (writing != null) {
+                        finish(writing);
+                    }
+                    segment.channel = new RandomAccessFile(segment.file, "rw").getChannel();
+                    writing = segment;
+                }
+
+                ByteBuffer[] buffers = new ByteBuffer[to - from];
+                for (int i = from; i < to; i++) {
+                    buffers[i - from] = batch.get(i).buffer;
+                }
+                while (remaining > 0) {
+                    remaining -= segment.channel.write(buffers);
+                }
+                from = to;
+            }
+            writing.channel.force(false);
+        }
+
+        private void finish(Segment segment) throws IOException {
+            segment.channel.force(false);
+            segment.channel.close();
+            segment.closed = true;
+            truncate();
+        }
+    }
+
+    private static final class Record {
+        final Segment segment;
+        final ByteBuffer buffer;
+
+        Record(Segment segment, ByteBuffer buffer) {
+            this.segment = segment;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Entry {
+        final Segment segment;
+        final byte[] payload;
+
+        Entry(Segment segment, byte[] payload) {
+            this.segment = segment;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        long firstSeq;
+        //bytes assigned to this segment, guarded by lock
+        long size;
+        //data records not acked yet
+        final AtomicInteger outstanding = new AtomicInteger();
+        //no more records are assigned to it
+        volatile boolean sealed;
+        //the committer wrote all of its records
+        volatile boolean closed;
+        volatile boolean deleted;
+        //older segments with data records acked in this one, guarded by ordered
+        final Set<Segment> ackedFrom = new HashSet<>();
+        //only touched by the committer
+        FileChannel channel;
+
+        Segment(File file, long firstSeq) {
+            this.file = file;
+            this.firstSeq = firstSeq;
+        }
+
+        //guarded by ordered
+        boolean holdsLiveAcks() {
+            Iterator<Segment> it = ackedFrom.iterator();
+            while (it.hasNext()) {
+                if (!it.next().deleted) {
+                    return true;
+                }
+                it.remove();
+            }
+            return false;
+        }
+    }
+}
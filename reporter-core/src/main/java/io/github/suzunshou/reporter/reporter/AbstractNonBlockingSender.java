@@ -0,0 +1,64 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Implements the blocking send of a {@link NonBlockingSender} by waiting for its callback, at most
+ * sendTimeout. A batch whose callback does not come in time fails with a {@link TimeoutException}.
+ */
+public abstract class AbstractNonBlockingSender<M extends Message, R> implements NonBlockingSender<M, R> {
+
+    public static final long DEFAULT_SEND_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final long sendTimeoutNanos;
+
+    protected AbstractNonBlockingSender() {
+        this(DEFAULT_SEND_TIMEOUT_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    protected AbstractNonBlockingSender(long sendTimeout, TimeUnit unit) {
+        if (sendTimeout <= 0) {
+            throw new IllegalArgumentException("sendTimeout must be greater than zero");
+        }
+        this.sendTimeoutNanos = unit.toNanos(sendTimeout);
+    }
+
+    @Override
+    public List<R> send(List<M> messages) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] outcome = new Object[1];
+        send(messages, new SendCallback<R>() {
+            @Override
+            public void onSuccess(List<R> results) {
+                outcome[0] = results;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                outcome[0] = cause;
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(sendTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException(new TimeoutException(
+                        "No outcome of the batch of " + messages.size() + " messages within " + sendTimeoutNanos + " ns"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the batch", e);
+        }
+        if (outcome[0] instanceof Throwable) {
+            Throwable cause = (Throwable) outcome[0];
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        @SuppressWarnings("unchecked")
+        List<R> results = (List<R>) outcome[0];
+        return results;
+    }
+}
@@ -15,6 +15,7 @@ public abstract class AbstractReporterProperties implements ReporterProperties {
     protected long messageTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
     protected int bufferedMaxMessages = 100;
     protected int queuedMaxMessages = 10000;
+    protected long queuedMaxBytes = 0;
     protected OverflowStrategy.Type overflowStrategy = OverflowStrategy.Type.DropHead;
 
     public String getMetrics() {
@@ -57,6 +58,15 @@ public abstract class AbstractReporterProperties implements ReporterProperties {
         return this;
     }
 
+    public long getQueuedMaxBytes() {
+        return queuedMaxBytes;
+    }
+
+    public AbstractReporterProperties setQueuedMaxBytes(long queuedMaxBytes) {
+        this.queuedMaxBytes = queuedMaxBytes;
+        return this;
+    }
+
     public OverflowStrategy.Type getOverflowStrategy() {
         return overflowStrategy;
     }
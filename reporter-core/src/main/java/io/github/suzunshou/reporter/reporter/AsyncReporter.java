@@ -1,39 +1,56 @@
 package io.github.suzunshou.reporter.reporter;
 
-import io.github.suzunshou.buffers.Buffer;
-import io.github.suzunshou.buffers.BufferPool;
 import io.github.suzunshou.reporter.concurrent.Future;
 import io.github.suzunshou.reporter.concurrent.*;
 import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
 import io.github.suzunshou.reporter.concurrent.timer.TimeDriven;
+import io.github.suzunshou.reporter.encoder.BatchEncoder;
+import io.github.suzunshou.reporter.encoder.ByteBufferPool;
+import io.github.suzunshou.reporter.encoder.ByteSender;
+import io.github.suzunshou.reporter.encoder.Compression;
+import io.github.suzunshou.reporter.encoder.EncodingSender;
 import io.github.suzunshou.reporter.queue.*;
 import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import io.github.suzunshou.reporter.threadpool.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Flushable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author zunshou on 2019/11/17 11:49 上午.
  */
-public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.MessageKey> implements Reporter<M, R>, Flushable {
+public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.MessageKey> implements BatchReporter<M, R>, Flushable {
     private static final Logger logger = LoggerFactory.getLogger(AsyncReporter.class);
 
-    static final int MAX_BUFFER_POOL_ENTRIES = 1000;
-    private final AtomicLong idGen = new AtomicLong();
+    private static final AtomicLong idGen = new AtomicLong();
+    //how often flush() looks at a full in-flight window again
+    private static final long WINDOW_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //how often a back pressured producer looks whether the reporter was closed
+    private static final long MEMORY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
     public final Long id = idGen.getAndIncrement();
-    final AsyncSender<R> sender;
+    final WindowedAsyncSender<R> sender;
     public final long messageTimeoutNanos;
     public final int queuedMaxMessages;
-    final ReporterMetrics metrics;
+    public final long queuedMaxBytes;
+    final int bufferedMaxMessages;
+    //zero means batches are only bounded by bufferedMaxMessages
+    final long maxBatchBytes;
+    //null unless built from a BatchEncoder, its encoded size estimates unweighed messages
+    private final EncodingSender<?, ?> encodingSender;
+    final DetailedReporterMetrics metrics;
 
     final int timerThreads;
     private final int flushThreads;
@@ -43,7 +60,7 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
     private static HashedWheelTimer hashedWheelTimer;
     private static ThreadFactory hashedWheelTimerThreadFactory;
 
-    public final FlushSynchronizer flushSynchronizer = new FlushSynchronizer();
+    public final FlushSynchronizer flushSynchronizer;
     final QueueManager queueManager;
 
     public static final int REPORTER_STATE_INIT = 0;
@@ -60,8 +77,15 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
 
     public ScheduledExecutorService scheduler;
 
-    private BufferPool bufferPool;
     private final MemoryLimiter memoryLimiter;
+    //applied to a new message while the memory limit is reached
+    private final OverflowStrategy.Type overflowStrategy;
+
+    //null unless configured, see Builder#deadLetterHandler(DeadLetterHandler)
+    private final DeadLetterHandler deadLetterHandler;
+
+    //null unless queues linger, see Builder#linger(boolean)
+    public final LingerTimer lingerTimer;
 
     static {
         hashedWheelTimerThreadFactory =
@@ -69,20 +93,68 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
     }
 
     AsyncReporter(Builder<M, R> builder) {
-        this.sender = new DefaultAsyncSender<>(builder.sender, builder.nThreads);
-        this.metrics = builder.metrics;
-        this.memoryLimiter = MemoryLimiter.create(builder.bufferedMaxMessages, metrics);
+        //a pool of its own unless the reporter joins a named one, a slow sink only starves its own reporter
+        ThreadPool.ExecutorHolder pool = builder.senderPool == null
+                ? new ThreadPool.ExecutorHolder("AsyncReporter-" + id + "-sender", builder.nThreads)
+                : ThreadPool.shared(builder.senderPool, builder.nThreads);
+        DefaultAsyncSender<M, R> sender = new DefaultAsyncSender<>(builder.sender, pool, builder.metrics,
+                builder.maxInFlightPerKey, builder.maxInFlight);
+        sender.windowListener(new InFlightWindow.Listener() {
+            @Override
+            public boolean windowOpened(Message.MessageKey key) {
+                AbstractSizeBoundedQueue queue = queueManager.get(key);
+                if (queue == null || queue.isEmpty()) {
+                    return false;
+                }
+                //a queue scheduled already is offered again by its flusher
+                scheduleFlush(queue);
+                return true;
+            }
+        });
+        this.sender = sender;
+        this.metrics = ReporterMetricsAdapter.detailed(builder.metrics);
+        this.deadLetterHandler = builder.deadLetterHandler;
+        this.memoryLimiter = builder.memoryBudget == null
+                ? MemoryLimiter.create(builder.totalQueuedMessages, builder.totalQueuedBytes)
+                : builder.memoryBudget.newLimiter(builder.reservedMessages, builder.reservedBytes,
+                builder.totalQueuedMessages, builder.totalQueuedBytes);
+        this.overflowStrategy = builder.overflowStrategy;
         this.messageTimeoutNanos = builder.messageTimeoutNanos;
         this.queuedMaxMessages = builder.queuedMaxMessages;
+        this.queuedMaxBytes = builder.queuedMaxBytes;
+        this.bufferedMaxMessages = builder.bufferedMaxMessages;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.encodingSender = builder.sender instanceof EncodingSender ? (EncodingSender<?, ?>) builder.sender : null;
         this.flushThreads = builder.flushThreads;
+        this.flushSynchronizer = new FlushSynchronizer(builder.flushWaitStrategy, Math.max(1, flushThreads));
         this.timerThreads = builder.timerThreads;
-        this.queueManager = new QueueManager(builder.queuedMaxMessages, builder.overflowStrategy,
-                builder.queuedKeepAliveNanos, this, metrics, initHashedWheelTimer(builder));
+        this.queueManager = new QueueManager(builder.queuedMaxMessages, builder.queuedMaxBytes, builder.overflowStrategy,
+                builder.queuedKeepAliveNanos, this, metrics, initHashedWheelTimer(builder), builder.queueFactory,
+                memoryLimiter);
+        sender.retry(builder.retryPolicy, hashedWheelTimer);
+        sender.sendTimeout(builder.sendTimeoutNanos, TimeUnit.NANOSECONDS, hashedWheelTimer);
+        sender.circuitBreaker(builder.circuitBreakerPolicy);
+        sender.bisect(builder.bisectOnFailure);
+        sender.deadLetterHandler(builder.deadLetterHandler);
+        if (builder.compression != null) {
+            encodingSender.compression(builder.compression, metrics);
+        }
+        this.lingerTimer = builder.linger && messageTimeoutNanos > 0
+                ? new LingerTimer(hashedWheelTimer, messageTimeoutNanos) {
+            @Override
+            protected void onLinger(AbstractSizeBoundedQueue queue) {
+                if (REPORTER_STATE_UPDATER.get(AsyncReporter.this) == REPORTER_STATE_SHUTDOWN) {
+                    return;
+                }
+                //the home flusher of the key drains it, the wheel keeps ticking
+                scheduleFlush(queue);
+            }
+        } : null;
 
+        this.queueManager.spillTo(builder.spillDirectory, deadLetterHandler);
         this.flushThreadFactory = new FlushThreadFactory(this);
-        this.bufferPool = new BufferPool(MAX_BUFFER_POOL_ENTRIES, builder.bufferedMaxMessages);
 
-        if (messageTimeoutNanos > 0) {
+        if (messageTimeoutNanos > 0 && lingerTimer == null) {
             this.queueManager.onCreate(new CreateCallback() {
                 @Override
                 public void callback(AbstractSizeBoundedQueue queue) {
@@ -92,6 +164,19 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         }
     }
 
+    /**
+     * report the messages a persistent queue factory did not deliver before the last shutdown,
+     * called once the reporter is built so the flushers can drain what a full queue holds back.
+     */
+    @SuppressWarnings("unchecked")
+    private void replay(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        logger.info("Replaying {} recovered messages", messages.size());
+        reportAll((List<M>) messages);
+    }
+
     private static HashedWheelTimer initHashedWheelTimer(Builder<?, ?> builder) {
         synchronized (AsyncReporter.class) {
             if (hashedWheelTimer == null) {
@@ -108,34 +193,143 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
     protected void onTimer(Message.MessageKey timerKey) {
         AbstractSizeBoundedQueue queue = queueManager.get(timerKey);
         if (queue != null && queue.size() > 0) {
-            flush(queue);
+            if (flushThreads > 0) {
+                //flushed by the flusher which owns the key, batches of a key never interleave
+                flushSynchronizer.offer(queue);
+            } else {
+                flush(queue);
+            }
         }
     }
 
-    public Future<?> flush(AbstractSizeBoundedQueue queue) {
-        CompositeFuture completeFuture;
-        Buffer<MessagePromise<?>> buffer = bufferPool.acquire();
+    /**
+     * hand the queue to its home flusher, without flush threads nobody polls the synchronizer and
+     * the queue is flushed on the timer pool instead.
+     */
+    private void scheduleFlush(final AbstractSizeBoundedQueue queue) {
+        if (flushThreads > 0) {
+            flushSynchronizer.offer(queue);
+            return;
+        }
         try {
-            int drained = queue.drainTo(buffer);
-            if (drained == 0) {
-                return new SucceededFuture<>(null, null);
+            scheduler().execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush(queue);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //closing, close() flushes what is left
+            logger.debug("Timer pool rejected the flush of {}", queue.key);
+        }
+    }
+
+    public Future<?> flush(AbstractSizeBoundedQueue queue) {
+        Future<?> future = tryFlush(queue);
+        return future == null ? new SucceededFuture<>(null, null) : future;
+    }
+
+    /**
+     * drain and send one batch of the queue unless the in-flight window of the sender is full. A
+     * refused queue keeps its messages and is scheduled again once a batch in flight completes.
+     *
+     * @param queue
+     * @return {@code null} if the in-flight window refused the batch
+     */
+    public Future<?> tryFlush(AbstractSizeBoundedQueue queue) {
+        if (!sender.tryAcquire(queue.key)) {
+            if (lingerTimer != null && sender.isHolding()) {
+                //no periodic flush comes along, look again once the queue lingered
+                lingerTimer.arm(queue);
             }
-            List<MessagePromise<R>> promises = buffer.drain();
-            completeFuture = sender.send(promises);
-        } finally {
-            bufferPool.release(buffer);
+            return null;
         }
+        int maxElements = bufferedMaxMessages;
+        long maxBytes = 0;
+        if (maxBatchBytes > 0) {
+            if (queue.bytes() > 0) {
+                maxBytes = maxBatchBytes;
+            } else if (encodingSender != null) {
+                int perMessage = encodingSender.bytesPerMessage();
+                //until a batch was encoded its size is unknown, a single message probes it
+                maxElements = perMessage == 0 ? 1 : (int) Math.max(1, Math.min(maxElements, maxBatchBytes / perMessage));
+            }
+        }
+        List<MessagePromise<?>> promises = new ArrayList<>(Math.min(queue.size(), maxElements));
+        int drained = queue.drainTo(promises, maxElements, maxBytes);
+        if (lingerTimer != null) {
+            lingerTimer.drained(queue);
+        }
+        if (drained == 0) {
+            sender.release(queue.key);
+            return new SucceededFuture<>(null, null);
+        }
+        //the queue holds the promises of this reporter only
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<MessagePromise<R>> batch = (List) promises;
+        CompositeFuture completeFuture = sender.send(queue.key, batch);
 
         metrics.updateQueuedMessages(queue.key, queue.size());
+        metrics.updateQueuedBytes(queue.key, queue.bytes());
 
-        if (!memoryLimiter.isMaximum()) {
-            memoryLimiter.signalAll();
-        }
+        memoryLimiter.signalAll();
 
         logFailedMessage(completeFuture);
         return completeFuture;
     }
 
+    /**
+     * Return {@code true} if the queue holds a full batch: queuedMaxMessages, queuedMaxBytes or
+     * maxBatchBytes of estimated bytes.
+     *
+     * @param queue
+     * @return
+     */
+    public boolean reachedFlushThreshold(AbstractSizeBoundedQueue queue) {
+        return queue.size() >= queuedMaxMessages || queue.reachedMaxBytes()
+                || (maxBatchBytes > 0 && estimatedBytes(queue) >= maxBatchBytes);
+    }
+
+    /**
+     * the weighed bytes of the queue, or its encoded size for messages which do not report one.
+     */
+    private long estimatedBytes(AbstractSizeBoundedQueue queue) {
+        long bytes = queue.bytes();
+        if (bytes == 0 && encodingSender != null) {
+            bytes = (long) queue.size() * encodingSender.bytesPerMessage();
+        }
+        return bytes;
+    }
+
+    /**
+     * The pool running the sends of this reporter, with its saturation, queue and rejection counters.
+     * The counters belong to the pool: on a {@link Builder#senderPool(String) shared pool} they sum
+     * up every reporter which joined it, the queue of one reporter is bounded by its maxInFlight.
+     *
+     * @return
+     */
+    public ThreadPool.ExecutorHolder senderPool() {
+        return ((DefaultAsyncSender<?, ?>) sender).pool();
+    }
+
+    /**
+     * the circuit breaker in front of the sender, {@code null} unless configured.
+     */
+    public CircuitBreaker circuitBreaker() {
+        return ((DefaultAsyncSender<?, ?>) sender).circuitBreaker();
+    }
+
+    /**
+     * Return {@code true} if the queue waits for the in-flight window or a holding circuit breaker,
+     * it is scheduled again once a slot is released or by the timer.
+     *
+     * @param queue
+     * @return
+     */
+    public boolean awaitsWindow(AbstractSizeBoundedQueue queue) {
+        return sender.isRefused(queue.key);
+    }
+
     private void logFailedMessage(CompositeFuture completeFuture) {
         completeFuture.addListener(new GenericFutureListener<Future<? super CompositeFuture>>() {
             @Override
@@ -169,15 +363,56 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         return new Builder<>(sender);
     }
 
+    /**
+     * Build a reporter whose batches are encoded into pooled buffers of the
+     * {@link ByteBufferPool#shared() shared pool} and handed to the byte sender. A
+     * {@link CapableSender} gets a pool of its own sized from its maxBytes and concurrency.
+     */
+    public static <M extends Message, R> Builder<M, R> builder(BatchEncoder<M> encoder, ByteSender<R> sender) {
+        SenderCapabilities capabilities = SenderCapabilities.of(sender);
+        ByteBufferPool pool = ByteBufferPool.shared();
+        if (capabilities.maxBytes() > 0 || capabilities.preferredConcurrency() > 0) {
+            //buffers are pooled up to the largest batch the sender takes plus the encoder headroom,
+            //one idle buffer per concurrent batch
+            long maxBytes = capabilities.maxBytes() > 0 ? capabilities.maxBytes() + (capabilities.maxBytes() >> 2) : 4 * 1024 * 1024;
+            int maxCapacity = (int) Math.min(1 << 30, maxBytes);
+            int perClass = capabilities.preferredConcurrency() > 0 ? capabilities.preferredConcurrency() : 16;
+            pool = new ByteBufferPool(Math.min(4 * 1024, maxCapacity), maxCapacity, perClass,
+                    (long) perClass * maxCapacity);
+        }
+        return new Builder<>(new EncodingSender<M, R>(encoder, sender, pool));
+    }
+
     public static final class Builder<M extends Message, R> extends Reporter.Builder<M, R> {
 
         int nThreads = 1;
+        boolean nThreadsSet;
         int flushThreads = AsyncReporterProperties.DEFAULT_FLUSH_THREADS;
         int timerThreads = AsyncReporterProperties.DEFAULT_TIMER_THREADS;
         long queuedKeepAliveNanos = TimeUnit.SECONDS.toNanos(60);
         long tickDurationNanos = TimeUnit.MILLISECONDS.toNanos(100);
         int ticksPerWheel = 512;
         int totalQueuedMessages = 100000;
+        long totalQueuedBytes = 0;
+        SizeBoundedQueueFactory queueFactory = SizeBoundedQueueFactory.factory();
+        MemoryBudget memoryBudget;
+        SpillDirectory spillDirectory;
+        boolean linger;
+        FlushWaitStrategy flushWaitStrategy = FlushWaitStrategy.BLOCKING;
+        int maxInFlightPerKey = 0;
+        boolean maxInFlightPerKeySet;
+        int maxInFlight = 16;
+        boolean maxInFlightSet;
+        String senderPool;
+        RetryPolicy retryPolicy = RetryPolicy.NONE;
+        long sendTimeoutNanos = AbstractNonBlockingSender.DEFAULT_SEND_TIMEOUT_NANOS;
+        CircuitBreakerPolicy circuitBreakerPolicy;
+        boolean bisectOnFailure = false;
+        DeadLetterHandler deadLetterHandler;
+        Compression compression;
+        long maxBatchBytes = 0;
+        int reservedMessages;
+        long reservedBytes;
 
         Builder(Sender<M, R> sender) {
             super(sender);
@@ -208,6 +443,28 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         }
 
 
+        @Override
+        public Builder<M, R> queuedMaxBytes(long queuedMaxBytes) {
+            super.queuedMaxBytes(queuedMaxBytes);
+            return this;
+        }
+
+        /**
+         * Flush a queue once its messages add up to maxBatchBytes and cap every drained batch at
+         * that size, so batches match what the sink accepts. Messages are weighed by
+         * {@link Message#sizeInBytes()}, reporters built from a {@link BatchEncoder} estimate
+         * unweighed messages by their encoded size. The first message of a batch is always taken.
+         *
+         * @param maxBatchBytes zero disables the byte cap
+         */
+        public Builder<M, R> maxBatchBytes(long maxBatchBytes) {
+            if (maxBatchBytes < 0) {
+                throw new IllegalArgumentException("maxBatchBytes < 0: " + maxBatchBytes);
+            }
+            this.maxBatchBytes = maxBatchBytes;
+            return this;
+        }
+
         @Override
         public Builder<M, R> overflowStrategy(OverflowStrategy.Type overflowStrategy) {
             super.overflowStrategy(overflowStrategy);
@@ -216,9 +473,14 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
 
         public Builder<M, R> nThreads(int nThreads) {
             this.nThreads = nThreads;
+            this.nThreadsSet = true;
             return this;
         }
 
+        /**
+         * Threads flushing the queues which reached a threshold. With zero threads queues are only
+         * flushed by the message timeout, on the timer pool.
+         */
         public Builder<M, R> flushThreads(int flushThreads) {
             this.flushThreads = flushThreads;
             return this;
@@ -251,15 +513,247 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
             return this;
         }
 
+        /**
+         * Bound the retained bytes of all queued messages of this reporter. Zero means no byte limit.
+         */
+        public Builder<M, R> totalQueuedBytes(long totalQueuedBytes) {
+            if (totalQueuedBytes < 0)
+                throw new IllegalArgumentException("totalQueuedBytes < 0: " + totalQueuedBytes);
+            this.totalQueuedBytes = totalQueuedBytes;
+            return this;
+        }
+
+        public Builder<M, R> queueFactory(SizeBoundedQueueFactory queueFactory) {
+            if (queueFactory == null) {
+                throw new NullPointerException("queueFactory");
+            }
+            this.queueFactory = queueFactory;
+            return this;
+        }
+
+        /**
+         * Share a budget with other reporters. This reporter is guaranteed reservedMessages and
+         * reservedBytes, may borrow unreserved capacity of the budget, and is still capped by
+         * totalQueuedMessages and totalQueuedBytes.
+         */
+        public Builder<M, R> memoryBudget(MemoryBudget memoryBudget, int reservedMessages, long reservedBytes) {
+            if (memoryBudget == null) {
+                throw new NullPointerException("memoryBudget");
+            }
+            if (reservedMessages < 0)
+                throw new IllegalArgumentException("reservedMessages < 0: " + reservedMessages);
+            if (reservedBytes < 0)
+                throw new IllegalArgumentException("reservedBytes < 0: " + reservedBytes);
+            this.memoryBudget = memoryBudget;
+            this.reservedMessages = reservedMessages;
+            this.reservedBytes = reservedBytes;
+            return this;
+        }
+
+        /**
+         * Where queues using {@link OverflowStrategy.Type#SpillToDisk} write their spill files.
+         */
+        public Builder<M, R> spillDirectory(SpillDirectory spillDirectory) {
+            if (spillDirectory == null) {
+                throw new NullPointerException("spillDirectory");
+            }
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        /**
+         * Flush a queue messageTimeout after the first message entered it, instead of flushing every
+         * queue periodically. A lingering queue holds one deadline on the shared {@link HashedWheelTimer},
+         * so idle keys cost nothing. Deadlines are as precise as the tickDuration.
+         */
+        public Builder<M, R> linger(boolean linger) {
+            this.linger = linger;
+            return this;
+        }
+
+        /**
+         * Batches of one key handed to the sender and not completed yet. Further batches of the key
+         * wait in its queue, a window of 1 sends the batches of a key strictly in order. Zero means unbounded.
+         * An explicit value wins over a sender which advertises ordered batches.
+         */
+        public Builder<M, R> maxInFlightPerKey(int maxInFlightPerKey) {
+            if (maxInFlightPerKey < 0)
+                throw new IllegalArgumentException("maxInFlightPerKey < 0: " + maxInFlightPerKey);
+            this.maxInFlightPerKey = maxInFlightPerKey;
+            this.maxInFlightPerKeySet = true;
+            return this;
+        }
+
+        /**
+         * Batches of all keys handed to the sender and not completed yet. Zero means unbounded.
+         */
+        public Builder<M, R> maxInFlight(int maxInFlight) {
+            if (maxInFlight < 0)
+                throw new IllegalArgumentException("maxInFlight < 0: " + maxInFlight);
+            this.maxInFlight = maxInFlight;
+            this.maxInFlightSet = true;
+            return this;
+        }
+
+        /**
+         * Send on the shared pool of the given name instead of a pool of this reporter. The first
+         * reporter joining the pool sizes it with its nThreads, a reporter joining it with other
+         * nThreads fails to build.
+         */
+        public Builder<M, R> senderPool(String senderPool) {
+            if (senderPool == null) {
+                throw new NullPointerException("senderPool");
+            }
+            this.senderPool = senderPool;
+            return this;
+        }
+
+        /**
+         * Send batches which failed as a whole again after a backoff on the timer wheel. A retried
+         * batch keeps its in-flight slot, so with maxInFlightPerKey 1 the batches of a key stay in order.
+         */
+        public Builder<M, R> retryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new NullPointerException("retryPolicy");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Fail a batch of a {@link NonBlockingSender} whose callback does not come within the timeout,
+         * so a lost callback gives its in-flight slot back. The timed out batch may be retried. Zero
+         * waits for the callback forever.
+         */
+        public Builder<M, R> sendTimeout(long sendTimeout, TimeUnit unit) {
+            if (sendTimeout < 0)
+                throw new IllegalArgumentException("sendTimeout < 0: " + sendTimeout);
+            this.sendTimeoutNanos = unit.toNanos(sendTimeout);
+            return this;
+        }
+
+        /**
+         * Put a circuit breaker in front of the sender, so batches fail at once or stay queued
+         * while the sink is down instead of tying up sender threads until they time out.
+         */
+        public Builder<M, R> circuitBreaker(CircuitBreakerPolicy circuitBreakerPolicy) {
+            if (circuitBreakerPolicy == null) {
+                throw new NullPointerException("circuitBreakerPolicy");
+            }
+            this.circuitBreakerPolicy = circuitBreakerPolicy;
+            return this;
+        }
+
+        /**
+         * Split a batch the sink rejected, see {@link RejectedBatchException}, into halves until the
+         * offending messages are isolated, only those are failed. The halves are sent from the sender
+         * pool, a batch is split {@link DefaultAsyncSender#DEFAULT_MAX_SPLITS} times at most.
+         */
+        public Builder<M, R> bisectOnFailure(boolean bisectOnFailure) {
+            this.bisectOnFailure = bisectOnFailure;
+            return this;
+        }
+
+        /**
+         * Hand the messages of failed sends to the handler instead of only logging them.
+         */
+        public Builder<M, R> deadLetterHandler(DeadLetterHandler deadLetterHandler) {
+            if (deadLetterHandler == null) {
+                throw new NullPointerException("deadLetterHandler");
+            }
+            this.deadLetterHandler = deadLetterHandler;
+            return this;
+        }
+
+        /**
+         * Compress encoded batches before they reach the byte sender, only reporters built from a
+         * {@link BatchEncoder} support it.
+         */
+        public Builder<M, R> compression(Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * How idle flush threads wait for queues which reached queuedMaxMessages. Spinning strategies
+         * hand a full queue over faster at the cost of a busy core per flush thread.
+         */
+        public Builder<M, R> flushWaitStrategy(FlushWaitStrategy flushWaitStrategy) {
+            if (flushWaitStrategy == null) {
+                throw new NullPointerException("flushWaitStrategy");
+            }
+            this.flushWaitStrategy = flushWaitStrategy;
+            return this;
+        }
+
+        /**
+         * size the batches, the sender pool and the in-flight windows from the limits the sender
+         * advertises, see {@link SenderCapabilities}.
+         */
+        private void applyCapabilities() {
+            SenderCapabilities capabilities = SenderCapabilities.of(sender);
+            if (capabilities == SenderCapabilities.UNKNOWN) {
+                return;
+            }
+            if (capabilities.maxMessages() > 0
+                    && (bufferedMaxMessages == 0 || bufferedMaxMessages > capabilities.maxMessages())) {
+                bufferedMaxMessages = capabilities.maxMessages();
+            }
+            if (capabilities.maxBytes() > 0 && (maxBatchBytes == 0 || maxBatchBytes > capabilities.maxBytes())) {
+                maxBatchBytes = capabilities.maxBytes();
+            }
+            if (capabilities.preferredConcurrency() > 0) {
+                if (!nThreadsSet) {
+                    nThreads = capabilities.preferredConcurrency();
+                }
+                if (!maxInFlightSet) {
+                    maxInFlight = capabilities.preferredConcurrency();
+                }
+            }
+            if (capabilities.ordered()) {
+                if (!maxInFlightPerKeySet) {
+                    maxInFlightPerKey = 1;
+                } else if (maxInFlightPerKey != 1) {
+                    logger.warn("Sender expects ordered batches, keeping the configured maxInFlightPerKey {}",
+                            maxInFlightPerKey);
+                }
+            }
+            logger.debug("Sized the reporter from {}", capabilities);
+        }
+
         @Override
-        public Reporter<M, R> build() {
+        public AsyncReporter<M, R> build() {
+            applyCapabilities();
+            if (flushThreads < 0) {
+                throw new IllegalArgumentException("flushThreads < 0: " + flushThreads);
+            }
             if (totalQueuedMessages < queuedMaxMessages) {
                 throw new IllegalArgumentException("totalQueuedMessages >= queuedMaxMessages");
             }
-            return new AsyncReporter<>(this);
+            if (totalQueuedBytes > 0 && queuedMaxBytes > 0 && totalQueuedBytes < queuedMaxBytes) {
+                throw new IllegalArgumentException("totalQueuedBytes >= queuedMaxBytes");
+            }
+            if (overflowStrategy == OverflowStrategy.Type.SpillToDisk && spillDirectory == null) {
+                throw new IllegalArgumentException("SpillToDisk requires a spillDirectory");
+            }
+            if (!queueFactory.supports(overflowStrategy)) {
+                throw new IllegalArgumentException(overflowStrategy + " is not supported by "
+                        + queueFactory.getClass().getSimpleName());
+            }
+            if (compression != null && !(sender instanceof EncodingSender)) {
+                throw new IllegalArgumentException("compression requires a BatchEncoder");
+            }
+            AsyncReporter<M, R> reporter = new AsyncReporter<>(this);
+            reporter.replay(queueFactory.recover());
+            return reporter;
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private MessageFuture<R> failedFuture(M message, Throwable cause) {
+        return message.newFailedFuture(cause);
+    }
+
     @Override
     public MessageFuture<R> report(M message) {
         if (message == null) {
@@ -270,8 +764,9 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         if (REPORTER_STATE_UPDATER.get(this) == REPORTER_STATE_SHUTDOWN) {
             MessageDroppedException droppedException
                     = MessageDroppedException.dropped(new IllegalStateException("closed"), Collections.singletonList(message));
-            MessageFuture<R> future = (MessageFuture) message.newFailedFuture(droppedException);
+            MessageFuture<R> future = failedFuture(message, droppedException);
             setFailedListener(future);
+            deadLetter(droppedException);
             return future;
         }
 
@@ -279,19 +774,172 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
             startFlushThreads();
         }
 
-        memoryLimiter.blockWhenMaximum();
+        if (!awaitMemory()) {
+            MessageFuture<R> future = failedFuture(message, overflowed(message));
+            setFailedListener(future);
+            return future;
+        }
 
         AbstractSizeBoundedQueue queue = queueManager.getOrCreate(message.asMessageKey());
         MessagePromise<R> promise = message.newPromise();
         queue.offer(promise);
         setFailedListener(promise);
+        if (lingerTimer != null) {
+            lingerTimer.arm(queue);
+        }
 
-        if (queue.size() >= queuedMaxMessages) {
-            flushSynchronizer.offer(queue);
+        if (reachedFlushThreshold(queue)) {
+            scheduleFlush(queue);
         }
         return promise;
     }
 
+    /**
+     * Messages of one key are offered to their queue in one step, and the state check, the memory
+     * limiter and the queue lookup are paid once per batch or key instead of once per message.
+     */
+    @Override
+    public List<MessageFuture<R>> reportAll(List<M> messages) {
+        if (messages == null) {
+            throw new NullPointerException("messages");
+        }
+        int size = messages.size();
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        //nothing is counted or queued if one message is missing
+        for (int i = 0; i < size; i++) {
+            if (messages.get(i) == null) {
+                throw new NullPointerException("messages[" + i + "]");
+            }
+        }
+        metrics.incrementMessages(size);
+
+        List<MessageFuture<R>> futures = new ArrayList<>(size);
+        if (REPORTER_STATE_UPDATER.get(this) == REPORTER_STATE_SHUTDOWN) {
+            MessageDroppedException droppedException
+                    = MessageDroppedException.dropped(new IllegalStateException("closed"), messages);
+            for (M message : messages) {
+                MessageFuture<R> future = failedFuture(message, droppedException);
+                setFailedListener(future);
+                futures.add(future);
+            }
+            deadLetter(droppedException);
+            return futures;
+        }
+
+        if (REPORTER_STATE_UPDATER.compareAndSet(this, REPORTER_STATE_INIT, REPORTER_STATE_STARTED) && messageTimeoutNanos > 0) {
+            startFlushThreads();
+        }
+
+        if (!awaitMemory()) {
+            for (M message : messages) {
+                MessageFuture<R> future = failedFuture(message, overflowed(message));
+                setFailedListener(future);
+                futures.add(future);
+            }
+            return futures;
+        }
+
+        Map<Message.MessageKey, List<MessagePromise<R>>> byKey = new LinkedHashMap<>();
+        for (M message : messages) {
+            Message.MessageKey key = message.asMessageKey();
+            List<MessagePromise<R>> promises = byKey.get(key);
+            if (promises == null) {
+                promises = new ArrayList<>();
+                byKey.put(key, promises);
+            }
+            MessagePromise<R> promise = message.newPromise();
+            promises.add(promise);
+            futures.add(promise);
+        }
+
+        for (Map.Entry<Message.MessageKey, List<MessagePromise<R>>> entry : byKey.entrySet()) {
+            AbstractSizeBoundedQueue queue = queueManager.getOrCreate(entry.getKey());
+            queue.offer(entry.getValue());
+            for (MessagePromise<R> promise : entry.getValue()) {
+                setFailedListener(promise);
+            }
+            if (lingerTimer != null) {
+                lingerTimer.arm(queue);
+            }
+
+            if (reachedFlushThreshold(queue)) {
+                scheduleFlush(queue);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Same path as {@link #report(Message)} without a promise of its own. The message is queued
+     * with a {@link VoidMessagePromise} which carries no listeners, so nothing but that wrapper is
+     * allocated per message and the sender counts the batch instead of completing each message.
+     */
+    @Override
+    public void reportAndForget(M message) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        metrics.incrementMessages(1);
+
+        if (REPORTER_STATE_UPDATER.get(this) == REPORTER_STATE_SHUTDOWN) {
+            metrics.incrementMessagesDropped(1);
+            if (deadLetterHandler != null) {
+                deadLetter(MessageDroppedException.dropped(new IllegalStateException("closed"), Collections.singletonList(message)));
+            }
+            return;
+        }
+
+        if (REPORTER_STATE_UPDATER.compareAndSet(this, REPORTER_STATE_INIT, REPORTER_STATE_STARTED) && messageTimeoutNanos > 0) {
+            startFlushThreads();
+        }
+
+        if (!awaitMemory()) {
+            metrics.incrementMessagesDropped(1);
+            deadLetter(overflowed(message));
+            return;
+        }
+
+        AbstractSizeBoundedQueue queue = queueManager.getOrCreate(message.asMessageKey());
+        queue.offer(new VoidMessagePromise<R>(message, metrics, deadLetterHandler));
+        if (lingerTimer != null) {
+            lingerTimer.arm(queue);
+        }
+
+        if (reachedFlushThreshold(queue)) {
+            scheduleFlush(queue);
+        }
+    }
+
+    /**
+     * Return {@code false} if the new message is dropped because the memory limit is reached. Only
+     * BackPressure waits, until there is room or the reporter is closed. Fail throws and the other
+     * strategies drop the new message at once, like a full queue does, since the limit spans all queues.
+     */
+    private boolean awaitMemory() {
+        if (!memoryLimiter.isMaximum()) {
+            return true;
+        }
+        if (overflowStrategy == OverflowStrategy.Type.BackPressure) {
+            while (!memoryLimiter.blockWhenMaximum(MEMORY_POLL_NANOS)) {
+                if (REPORTER_STATE_UPDATER.get(this) == REPORTER_STATE_SHUTDOWN || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (overflowStrategy == OverflowStrategy.Type.Fail) {
+            throw new BufferOverflowException("Memory limit of the reporter is reached, " + memoryLimiter.messages()
+                    + " messages and " + memoryLimiter.bytes() + " bytes are queued");
+        }
+        return false;
+    }
+
+    private MessageDroppedException overflowed(Message message) {
+        return MessageDroppedException.dropped(overflowStrategy.getStrategy(), message);
+    }
+
     private void startFlushThreads() {
         Set<Thread> flushers = new HashSet<>(flushThreads);
         for (int i = 0; i < flushThreads; i++) {
@@ -302,22 +950,40 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         this.flushers = Collections.unmodifiableSet(flushers);
     }
 
-    private void setFailedListener(MessageFuture<R> future) {
+    private void setFailedListener(final MessageFuture<R> future) {
         future.addListener(new GenericFutureListener<Future<? super R>>() {
             @Override
-            public void operationComplete(Future<? super R> future) {
-                if (!future.isSuccess()) {
+            public void operationComplete(Future<? super R> f) {
+                //a spilled message is still on its way, it is counted when read back
+                if (!f.isSuccess() && !(f.cause() instanceof MessageSpilledException)) {
                     metrics.incrementMessagesDropped(1);
+                    //failed sends reach the dead letter handler through the sender
+                    if (deadLetterHandler != null && f.cause() instanceof MessageDroppedException
+                            && ((MessageDroppedException) f.cause()).isOverflow()) {
+                        deadLetter(((MessageDroppedException) f.cause()).only(future.message()));
+                    }
                 }
             }
         });
     }
 
+    private void deadLetter(MessageDroppedException dropped) {
+        if (deadLetterHandler == null) {
+            return;
+        }
+        try {
+            deadLetterHandler.onDropped(dropped);
+        } catch (Exception e) {
+            logger.warn("Dead letter handler failed: {}", e.toString());
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (!REPORTER_STATE_UPDATER.compareAndSet(this, REPORTER_STATE_STARTED, REPORTER_STATE_SHUTDOWN)) {
             if (REPORTER_STATE_UPDATER.getAndSet(this, REPORTER_STATE_SHUTDOWN) != REPORTER_STATE_SHUTDOWN) {
                 sender.close();
+                memoryLimiter.close();
                 return;
             }
         }
@@ -343,26 +1009,55 @@ public class AsyncReporter<M extends Message, R> extends TimeDriven<Message.Mess
         if (dropped > 0) {
             logger.warn("Dropped " + dropped + " messages due to AsyncReporter.close()");
         }
+        memoryLimiter.close();
     }
 
     private int clearQueuedMessage() {
         int count = 0;
         for (AbstractSizeBoundedQueue queue : queueManager.elements()) {
-            count += queue.size();
+            if (deadLetterHandler != null) {
+                List<MessagePromise<?>> promises = new ArrayList<>(queue.size());
+                queue.drainTo(promises, Integer.MAX_VALUE);
+                count += promises.size();
+                IllegalStateException cause = new IllegalStateException("closed");
+                //void promises hand their message to the handler themselves
+                List<Message> messages = new ArrayList<>(promises.size());
+                for (MessagePromise<?> promise : promises) {
+                    if (!VoidMessagePromise.isVoid(promise)) {
+                        messages.add(promise.message());
+                    }
+                    promise.tryFailure(MessageDroppedException.dropped(cause, Collections.singletonList(promise.message())));
+                }
+                if (!messages.isEmpty()) {
+                    deadLetter(MessageDroppedException.dropped(cause, messages));
+                }
+            }
             metrics.removeFromQueuedMessages(queue.key);
+            if (lingerTimer != null) {
+                lingerTimer.disarm(queue);
+            }
         }
-        queueManager.clear();
-        if (count > 0) {
-            metrics.incrementMessagesDropped(count);
-        }
-        return count;
+        //the failed promises count themselves as dropped
+        return count + queueManager.clear();
     }
 
+    /**
+     * Flush a batch of every queue. A queue refused by the in-flight window waits until a batch in
+     * flight completes, only a holding circuit breaker leaves it queued.
+     */
     @Override
     public void flush() {
         for (AbstractSizeBoundedQueue queue : queueManager.elements()) {
-            Future<?> future = flush(queue);
-            future.awaitUninterruptibly();
+            Future<?> future;
+            while ((future = tryFlush(queue)) == null) {
+                if (sender.isHolding()) {
+                    break;
+                }
+                LockSupport.parkNanos(WINDOW_POLL_NANOS);
+            }
+            if (future != null) {
+                future.awaitUninterruptibly();
+            }
         }
     }
 }
@@ -1,7 +1,12 @@
 package io.github.suzunshou.reporter.reporter;
 
+import io.github.suzunshou.reporter.encoder.Compression;
+import io.github.suzunshou.reporter.queue.FlushWaitStrategy;
 import io.github.suzunshou.reporter.queue.OverflowStrategy;
+import io.github.suzunshou.reporter.queue.SizeBoundedQueueFactory;
+import io.github.suzunshou.reporter.queue.SpillDirectory;
 
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -13,12 +18,39 @@ public class AsyncReporterProperties extends AbstractReporterProperties {
     static final int DEFAULT_FLUSH_THREADS = 1;
 
     private int senderThreads = 1;
+    //unless set, a CapableSender chooses the sender threads and the in-flight window
+    private boolean senderThreadsSet;
     private long queuedKeepaliveNanos = TimeUnit.SECONDS.toNanos(60);
     private long tickDurationNanos = TimeUnit.MILLISECONDS.toNanos(100);
     private int ticksPerWheel = 512;
     private int timerThreads = DEFAULT_TIMER_THREADS;
     private int flushThreads = DEFAULT_FLUSH_THREADS;
+    private boolean linger = false;
+    private String flushWaitStrategy = "blocking";
+    private int maxInFlightPerKey = 0;
+    private boolean maxInFlightPerKeySet;
+    private int maxInFlight = 16;
+    private boolean maxInFlightSet;
+    private String senderPool;
+    private int retryMaxAttempts = 1;
+    private long retryBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private long retryMaxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+    private int retryBudget = 0;
+    private double retryBudgetPerSecond = 10;
+    private double circuitBreakerFailureRate = 0;
+    private long circuitBreakerOpenNanos = TimeUnit.SECONDS.toNanos(30);
+    private String circuitBreakerOpenAction = "fail-fast";
+    private boolean bisectOnFailure = false;
+    private String compression = "none";
+    private int compressionLevel = -1;
+    private int compressionMinBytes = 1024;
+    private long maxBatchBytes = 0;
     private int totalQueuedMessages = 100000;
+    private long totalQueuedBytes = 0;
+    private String queueFactory;
+    private String spillDirectory;
+    private int spillSegmentBytes = SpillDirectory.DEFAULT_SEGMENT_BYTES;
+    private long spillMaxBytes = SpillDirectory.DEFAULT_MAX_BYTES;
 
     @Override
     public AsyncReporterProperties setMetrics(String metrics) {
@@ -45,6 +77,12 @@ public class AsyncReporterProperties extends AbstractReporterProperties {
     }
 
 
+    @Override
+    public AsyncReporterProperties setQueuedMaxBytes(long queuedMaxBytes) {
+        super.setQueuedMaxBytes(queuedMaxBytes);
+        return this;
+    }
+
     @Override
     public AsyncReporterProperties setMetricsExporter(String metricsExporter) {
         super.setMetricsExporter(metricsExporter);
@@ -63,6 +101,7 @@ public class AsyncReporterProperties extends AbstractReporterProperties {
 
     public AsyncReporterProperties setSenderThreads(int senderThreads) {
         this.senderThreads = senderThreads;
+        this.senderThreadsSet = true;
         return this;
     }
 
@@ -102,6 +141,185 @@ public class AsyncReporterProperties extends AbstractReporterProperties {
         return this;
     }
 
+    public boolean isLinger() {
+        return linger;
+    }
+
+    public AsyncReporterProperties setLinger(boolean linger) {
+        this.linger = linger;
+        return this;
+    }
+
+    public String getFlushWaitStrategy() {
+        return flushWaitStrategy;
+    }
+
+    public AsyncReporterProperties setFlushWaitStrategy(String flushWaitStrategy) {
+        this.flushWaitStrategy = flushWaitStrategy;
+        return this;
+    }
+
+    public int getMaxInFlightPerKey() {
+        return maxInFlightPerKey;
+    }
+
+    public AsyncReporterProperties setMaxInFlightPerKey(int maxInFlightPerKey) {
+        this.maxInFlightPerKey = maxInFlightPerKey;
+        this.maxInFlightPerKeySet = true;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public AsyncReporterProperties setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightSet = true;
+        return this;
+    }
+
+    public String getSenderPool() {
+        return senderPool;
+    }
+
+    public AsyncReporterProperties setSenderPool(String senderPool) {
+        this.senderPool = senderPool;
+        return this;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public AsyncReporterProperties setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+        return this;
+    }
+
+    public long getRetryBackoffNanos() {
+        return retryBackoffNanos;
+    }
+
+    public AsyncReporterProperties setRetryBackoffNanos(long retryBackoffNanos) {
+        this.retryBackoffNanos = retryBackoffNanos;
+        return this;
+    }
+
+    public long getRetryMaxBackoffNanos() {
+        return retryMaxBackoffNanos;
+    }
+
+    public AsyncReporterProperties setRetryMaxBackoffNanos(long retryMaxBackoffNanos) {
+        this.retryMaxBackoffNanos = retryMaxBackoffNanos;
+        return this;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * retries all batches may take in a burst, zero means unlimited.
+     */
+    public AsyncReporterProperties setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    public double getRetryBudgetPerSecond() {
+        return retryBudgetPerSecond;
+    }
+
+    public AsyncReporterProperties setRetryBudgetPerSecond(double retryBudgetPerSecond) {
+        this.retryBudgetPerSecond = retryBudgetPerSecond;
+        return this;
+    }
+
+    public double getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    /**
+     * rate of failed batches which opens the circuit breaker, zero means no breaker.
+     */
+    public AsyncReporterProperties setCircuitBreakerFailureRate(double circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+        return this;
+    }
+
+    public long getCircuitBreakerOpenNanos() {
+        return circuitBreakerOpenNanos;
+    }
+
+    public AsyncReporterProperties setCircuitBreakerOpenNanos(long circuitBreakerOpenNanos) {
+        this.circuitBreakerOpenNanos = circuitBreakerOpenNanos;
+        return this;
+    }
+
+    public String getCircuitBreakerOpenAction() {
+        return circuitBreakerOpenAction;
+    }
+
+    /**
+     * fail-fast or hold
+     */
+    public AsyncReporterProperties setCircuitBreakerOpenAction(String circuitBreakerOpenAction) {
+        this.circuitBreakerOpenAction = circuitBreakerOpenAction;
+        return this;
+    }
+
+    public boolean isBisectOnFailure() {
+        return bisectOnFailure;
+    }
+
+    public AsyncReporterProperties setBisectOnFailure(boolean bisectOnFailure) {
+        this.bisectOnFailure = bisectOnFailure;
+        return this;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * none, gzip or deflate, only applies to reporters built from a BatchEncoder
+     */
+    public AsyncReporterProperties setCompression(String compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * 0-9, -1 for the deflater default
+     */
+    public AsyncReporterProperties setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public AsyncReporterProperties setCompressionMinBytes(int compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+        return this;
+    }
+
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public AsyncReporterProperties setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
     public int getTimerThreads() {
         return timerThreads;
     }
@@ -120,19 +338,112 @@ public class AsyncReporterProperties extends AbstractReporterProperties {
         return this;
     }
 
+    public long getTotalQueuedBytes() {
+        return totalQueuedBytes;
+    }
+
+    public AsyncReporterProperties setTotalQueuedBytes(long totalQueuedBytes) {
+        this.totalQueuedBytes = totalQueuedBytes;
+        return this;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public AsyncReporterProperties setSpillDirectory(String spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        return this;
+    }
+
+    public int getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    public AsyncReporterProperties setSpillSegmentBytes(int spillSegmentBytes) {
+        this.spillSegmentBytes = spillSegmentBytes;
+        return this;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public AsyncReporterProperties setSpillMaxBytes(long spillMaxBytes) {
+        this.spillMaxBytes = spillMaxBytes;
+        return this;
+    }
+
+    public String getQueueFactory() {
+        return queueFactory;
+    }
+
+    public AsyncReporterProperties setQueueFactory(String queueFactory) {
+        this.queueFactory = queueFactory;
+        return this;
+    }
+
     @Override
     public <M extends Message, R> AsyncReporter.Builder<M, R> toBuilder(Sender<M, R> sender) {
-        AsyncReporter.Builder builder = new AsyncReporter.Builder<>(sender).nThreads(senderThreads)
+        AsyncReporter.Builder builder = new AsyncReporter.Builder<>(sender)
                 .messageTimeout(messageTimeoutNanos, TimeUnit.NANOSECONDS)
                 .queuedKeepAliveNanos(queuedKeepaliveNanos, TimeUnit.NANOSECONDS)
                 .tickDuration(tickDurationNanos, TimeUnit.NANOSECONDS)
                 .ticksPerWheel(ticksPerWheel)
                 .flushThreads(flushThreads)
                 .timerThreads(timerThreads)
+                .linger(linger)
+                .flushWaitStrategy(FlushWaitStrategy.of(flushWaitStrategy))
+                .bisectOnFailure(bisectOnFailure)
                 .bufferedMaxMessages(bufferedMaxMessages)
                 .queuedMaxMessages(queuedMaxMessages)
+                .queuedMaxBytes(queuedMaxBytes)
+                .maxBatchBytes(maxBatchBytes)
                 .overflowStrategy(overflowStrategy)
-                .totalQueuedMessages(totalQueuedMessages);
+                .totalQueuedMessages(totalQueuedMessages)
+                .totalQueuedBytes(totalQueuedBytes)
+                .queueFactory(SizeBoundedQueueFactory.factory(queueFactory));
+
+        if (senderThreadsSet) {
+            builder.nThreads(senderThreads);
+        }
+
+        if (maxInFlightPerKeySet) {
+            builder.maxInFlightPerKey(maxInFlightPerKey);
+        }
+
+        if (maxInFlightSet) {
+            builder.maxInFlight(maxInFlight);
+        }
+
+        if (senderPool != null) {
+            builder.senderPool(senderPool);
+        }
+
+        if (retryMaxAttempts > 1) {
+            builder.retryPolicy(RetryPolicy.builder()
+                    .maxAttempts(retryMaxAttempts)
+                    .backoff(retryBackoffNanos, retryMaxBackoffNanos, TimeUnit.NANOSECONDS)
+                    .budget(retryBudget > 0 ? new RetryBudget(retryBudget, retryBudgetPerSecond) : null)
+                    .build());
+        }
+
+        if (circuitBreakerFailureRate > 0) {
+            builder.circuitBreaker(CircuitBreakerPolicy.builder()
+                    .failureRateThreshold(circuitBreakerFailureRate)
+                    .openDuration(circuitBreakerOpenNanos, TimeUnit.NANOSECONDS)
+                    .openAction(circuitBreakerOpenAction.equalsIgnoreCase("hold")
+                            ? CircuitBreakerPolicy.OpenAction.HOLD : CircuitBreakerPolicy.OpenAction.FAIL_FAST)
+                    .build());
+        }
+
+        if (compression != null && !compression.equalsIgnoreCase("none")) {
+            builder.compression(new Compression(Compression.Codec.of(compression), compressionLevel, compressionMinBytes));
+        }
+
+        if (spillDirectory != null) {
+            builder.spillDirectory(new SpillDirectory(new File(spillDirectory), spillSegmentBytes, spillMaxBytes));
+        }
 
         if (metrics.equalsIgnoreCase("inmemory")) {
             builder.metrics(InMemoryReporterMetrics.instance(ReporterMetricsExporter.of(metricsExporter)));
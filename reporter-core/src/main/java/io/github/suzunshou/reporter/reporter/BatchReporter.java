@@ -0,0 +1,27 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+
+import java.util.List;
+
+/**
+ * {@link Reporter} which also takes batches of messages and messages nobody waits for.
+ */
+public interface BatchReporter<M extends Message, R> extends Reporter<M, R> {
+
+    /**
+     * report a batch of messages, cheaper than reporting them one by one.
+     *
+     * @param messages
+     * @return one future per message, in the order of the messages
+     */
+    List<MessageFuture<R>> reportAll(List<M> messages);
+
+    /**
+     * report a message nobody waits for. No future is returned, successes and drops only show up
+     * in {@link ReporterMetrics}.
+     *
+     * @param message
+     */
+    void reportAndForget(M message);
+}
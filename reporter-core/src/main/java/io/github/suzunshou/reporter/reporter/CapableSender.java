@@ -0,0 +1,15 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * A {@link Sender}, or a {@link io.github.suzunshou.reporter.encoder.ByteSender}, which advertises
+ * what it can take, so the reporter does not have to be tuned by hand to match it.
+ */
+public interface CapableSender extends Component {
+
+    /**
+     * Return the limits of this sender, read once when the reporter is built.
+     *
+     * @return
+     */
+    SenderCapabilities capabilities();
+}
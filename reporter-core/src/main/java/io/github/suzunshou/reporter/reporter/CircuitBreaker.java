@@ -0,0 +1,178 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * Count based circuit breaker of a sender. Outcomes of the last windowSize batches are kept in a
+ * ring, an open breaker turns half-open lazily on the first look after openDuration. The state
+ * changes once per batch at most, so a monitor is cheap enough here.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final CircuitBreakerPolicy policy;
+    private final DetailedReporterMetrics metrics;
+
+    //guarded by this
+    private State state = State.CLOSED;
+    private final byte[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+    private long openedAtNanos;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    CircuitBreaker(CircuitBreakerPolicy policy, DetailedReporterMetrics metrics) {
+        this.policy = policy;
+        this.metrics = metrics;
+        this.outcomes = new byte[policy.windowSize()];
+    }
+
+    public synchronized State state() {
+        return currentState();
+    }
+
+    public CircuitBreakerPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Return {@code true} if a batch would be let through now, takes no permission.
+     */
+    synchronized boolean allowsRequests() {
+        switch (currentState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return trialsStarted < policy.halfOpenTrials();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * take the permission to send one batch, its outcome has to be reported by
+     * {@link #onSuccess(long)}, {@link #onError(long)} or {@link #releasePermission()}.
+     */
+    synchronized boolean tryAcquirePermission() {
+        switch (currentState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialsStarted < policy.halfOpenTrials()) {
+                    trialsStarted++;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * the batch was not sent after all.
+     */
+    synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && trialsStarted > 0) {
+            trialsStarted--;
+        }
+    }
+
+    synchronized void onSuccess(long durationNanos) {
+        boolean slow = isSlow(durationNanos);
+        switch (state) {
+            case CLOSED:
+                record(slow ? SLOW : 0);
+                break;
+            case HALF_OPEN:
+                if (slow) {
+                    transitionTo(State.OPEN);
+                } else if (++trialsSucceeded >= policy.halfOpenTrials()) {
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            default:
+                //a batch sent before the breaker opened
+        }
+    }
+
+    synchronized void onError(long durationNanos) {
+        switch (state) {
+            case CLOSED:
+                record((byte) (FAILED | (isSlow(durationNanos) ? SLOW : 0)));
+                break;
+            case HALF_OPEN:
+                transitionTo(State.OPEN);
+                break;
+            default:
+        }
+    }
+
+    private boolean isSlow(long durationNanos) {
+        return policy.slowCallNanos() > 0 && durationNanos >= policy.slowCallNanos();
+    }
+
+    private void record(byte outcome) {
+        if (recorded == outcomes.length) {
+            byte evicted = outcomes[next];
+            failures -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            recorded++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        failures += outcome & FAILED;
+        slowCalls += (outcome & SLOW) >> 1;
+
+        if (recorded >= policy.minimumCalls()
+                && (failures >= policy.failureRateThreshold() * recorded
+                || (policy.slowCallNanos() > 0 && slowCalls >= policy.slowCallRateThreshold() * recorded))) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private State currentState() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= policy.openNanos()) {
+            transitionTo(State.HALF_OPEN);
+        }
+        return state;
+    }
+
+    private void transitionTo(State to) {
+        if (state == to) {
+            return;
+        }
+        state = to;
+        switch (to) {
+            case OPEN:
+                openedAtNanos = System.nanoTime();
+                break;
+            case HALF_OPEN:
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+                break;
+            case CLOSED:
+                next = 0;
+                recorded = 0;
+                failures = 0;
+                slowCalls = 0;
+                break;
+        }
+        metrics.incrementCircuitTransitions(to);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{state=" + state + ", recorded=" + recorded + ", failures=" + failures
+                + ", slowCalls=" + slowCalls + "}";
+    }
+}
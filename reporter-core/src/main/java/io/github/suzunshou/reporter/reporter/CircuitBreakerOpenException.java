@@ -0,0 +1,19 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * The cause of batches failed without being sent because the circuit breaker was open.
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = -3178325934578160374L;
+
+    CircuitBreakerOpenException() {
+        super("Circuit breaker is open.");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        //thrown for every batch while open, the stack says nothing
+        return this;
+    }
+}
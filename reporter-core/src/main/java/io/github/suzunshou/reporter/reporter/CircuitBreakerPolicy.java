@@ -0,0 +1,163 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the circuit breaker in front of the sender opens and what happens to batches while it is
+ * open. The breaker looks at the outcomes of the last windowSize batches and opens once at least
+ * minimumCalls of them were seen and the rate of failed or slow batches reaches its threshold.
+ * After openDuration it lets halfOpenTrials batches through and closes if all of them succeed.
+ */
+public final class CircuitBreakerPolicy {
+
+    public enum OpenAction {
+        /**
+         * fail the drained batches at once with a {@link CircuitBreakerOpenException}
+         */
+        FAIL_FAST,
+        /**
+         * leave the messages in their queues, the overflow strategy decides once they are full
+         */
+        HOLD
+    }
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int halfOpenTrials;
+    private final OpenAction openAction;
+
+    private CircuitBreakerPolicy(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallNanos = builder.slowCallNanos;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.openNanos = builder.openNanos;
+        this.halfOpenTrials = builder.halfOpenTrials;
+        this.openAction = builder.openAction;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    int windowSize() {
+        return windowSize;
+    }
+
+    int minimumCalls() {
+        return minimumCalls;
+    }
+
+    double failureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    long slowCallNanos() {
+        return slowCallNanos;
+    }
+
+    double slowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    long openNanos() {
+        return openNanos;
+    }
+
+    int halfOpenTrials() {
+        return halfOpenTrials;
+    }
+
+    public OpenAction openAction() {
+        return openAction;
+    }
+
+    public static final class Builder {
+        int windowSize = 100;
+        int minimumCalls = 20;
+        double failureRateThreshold = 0.5;
+        long slowCallNanos = 0;
+        double slowCallRateThreshold = 1;
+        long openNanos = TimeUnit.SECONDS.toNanos(30);
+        int halfOpenTrials = 3;
+        OpenAction openAction = OpenAction.FAIL_FAST;
+
+        Builder() {
+        }
+
+        /**
+         * the number of most recent batches the rates are computed over.
+         */
+        public Builder windowSize(int windowSize) {
+            if (windowSize <= 0)
+                throw new IllegalArgumentException("windowSize <= 0: " + windowSize);
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * the breaker does not open before it saw this many batches.
+         */
+        public Builder minimumCalls(int minimumCalls) {
+            if (minimumCalls <= 0)
+                throw new IllegalArgumentException("minimumCalls <= 0: " + minimumCalls);
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1)
+                throw new IllegalArgumentException("failureRateThreshold not in (0, 1]: " + failureRateThreshold);
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * batches which take longer than slowCall count as slow, the breaker opens once their rate
+         * reaches slowCallRateThreshold. A slowCall of zero turns the latency check off.
+         */
+        public Builder slowCall(long slowCall, TimeUnit unit, double slowCallRateThreshold) {
+            if (slowCall < 0)
+                throw new IllegalArgumentException("slowCall < 0: " + slowCall);
+            if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1)
+                throw new IllegalArgumentException("slowCallRateThreshold not in (0, 1]: " + slowCallRateThreshold);
+            this.slowCallNanos = unit.toNanos(slowCall);
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * how long the breaker stays open before it lets trial batches through.
+         */
+        public Builder openDuration(long openDuration, TimeUnit unit) {
+            if (openDuration < 0)
+                throw new IllegalArgumentException("openDuration < 0: " + openDuration);
+            this.openNanos = unit.toNanos(openDuration);
+            return this;
+        }
+
+        public Builder halfOpenTrials(int halfOpenTrials) {
+            if (halfOpenTrials <= 0)
+                throw new IllegalArgumentException("halfOpenTrials <= 0: " + halfOpenTrials);
+            this.halfOpenTrials = halfOpenTrials;
+            return this;
+        }
+
+        public Builder openAction(OpenAction openAction) {
+            if (openAction == null) {
+                throw new NullPointerException("openAction");
+            }
+            this.openAction = openAction;
+            return this;
+        }
+
+        public CircuitBreakerPolicy build() {
+            return new CircuitBreakerPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+
+/**
+ * Receives the messages the reporter gave up on instead of letting them go with a log line. It is
+ * called on sender threads, so it should hand the messages off rather than block.
+ */
+public interface DeadLetterHandler {
+
+    /**
+     * @param dropped the cause and {@link MessageDroppedException#droppedMessages() the messages}
+     */
+    void onDropped(MessageDroppedException dropped);
+}
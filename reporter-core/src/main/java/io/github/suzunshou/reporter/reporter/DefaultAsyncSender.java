@@ -1,71 +1,667 @@
 package io.github.suzunshou.reporter.reporter;
 
 import io.github.suzunshou.reporter.concurrent.CompositeFuture;
+import io.github.suzunshou.reporter.concurrent.DefaultPromise;
+import io.github.suzunshou.reporter.concurrent.Future;
 import io.github.suzunshou.reporter.concurrent.MessagePromise;
-import io.github.suzunshou.reporter.concurrent.Promises;
+import io.github.suzunshou.reporter.concurrent.Promise;
+import io.github.suzunshou.reporter.concurrent.VoidMessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.Timeout;
+import io.github.suzunshou.reporter.concurrent.timer.Timer;
+import io.github.suzunshou.reporter.concurrent.timer.TimerTask;
+import io.github.suzunshou.reporter.encoder.EncodingSender;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
 import io.github.suzunshou.reporter.threadpool.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author zunshou on 2019/11/16 8:04 下午.
  */
-public final class DefaultAsyncSender<M extends Message, R> implements AsyncSender<R> {
+public final class DefaultAsyncSender<M extends Message, R> implements WindowedAsyncSender<R> {
     private static final Logger logger = LoggerFactory.getLogger(DefaultAsyncSender.class);
+    //isolates a few rejected messages of a batch of several hundred
+    public static final int DEFAULT_MAX_SPLITS = 64;
     private final Sender<M, R> sender;
-    private Executor executor;
-    static ThreadPool.ExecutorHolder executorHolder;
+    //a non-blocking send is started on the dispatching thread, unless it encodes the batch first
+    private final boolean startInline;
+    private final DetailedReporterMetrics metrics;
+    private final InFlightWindow window;
+    //bounds the batches sent without a key, which bypass the window
+    private final Semaphore keyless;
+    private final ThreadPool.ExecutorHolder pool;
+    private final Executor executor;
+    private volatile RetryPolicy retryPolicy;
+    private volatile Timer retryTimer;
+    //deadline of a batch started on a NonBlockingSender, zero means none
+    private volatile long sendTimeoutNanos;
+    private volatile Timer sendTimer;
+    private volatile CircuitBreaker circuitBreaker;
+    //splits per batch, zero turns bisection off
+    private volatile int maxSplits;
+    private volatile DeadLetterHandler deadLetterHandler;
 
     public DefaultAsyncSender(Sender<M, R> sender, int nThreads) {
+        this(sender, nThreads, ReporterMetrics.NOOP_METRICS);
+    }
+
+    public DefaultAsyncSender(Sender<M, R> sender, int nThreads, ReporterMetrics metrics) {
+        this(sender, nThreads, metrics, 0, 0);
+    }
+
+    /**
+     * @param maxInFlightPerKey batches of one key handed to the sender and not completed yet, zero means unbounded
+     * @param maxInFlight       batches of all keys handed to the sender and not completed yet, zero means unbounded
+     */
+    public DefaultAsyncSender(Sender<M, R> sender, int nThreads, ReporterMetrics metrics,
+                              int maxInFlightPerKey, int maxInFlight) {
+        this(sender, newPool(nThreads), metrics, maxInFlightPerKey, maxInFlight);
+    }
+
+    /**
+     * send on the given pool, the sender takes over one reference of the pool and closes it on close.
+     *
+     * @param pool a pool of its own or a {@link ThreadPool#shared(String, int) shared} one
+     */
+    public DefaultAsyncSender(Sender<M, R> sender, ThreadPool.ExecutorHolder pool, ReporterMetrics metrics,
+                              int maxInFlightPerKey, int maxInFlight) {
         if (sender == null) {
             throw new NullPointerException("sender");
         }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.sender = sender;
+        this.startInline = sender instanceof NonBlockingSender && !(sender instanceof EncodingSender);
+        this.pool = pool;
+        this.executor = pool.executor();
+        this.metrics = ReporterMetricsAdapter.detailed(metrics);
+        this.window = new InFlightWindow(maxInFlightPerKey, maxInFlight);
+        this.keyless = new Semaphore(maxInFlight > 0 ? maxInFlight : pool.threads());
+    }
 
+    private static ThreadPool.ExecutorHolder newPool(int nThreads) {
         if (nThreads <= 0) {
             throw new IllegalArgumentException("nThreads must be greater than zero");
         }
-        this.sender = sender;
-        synchronized (DefaultAsyncSender.class) {
-            if (executorHolder == null) {
-                executorHolder = new ThreadPool.ExecutorHolder(nThreads);
+        return new ThreadPool.ExecutorHolder(nThreads);
+    }
+
+    /**
+     * the pool which runs the blocking sends.
+     */
+    public ThreadPool.ExecutorHolder pool() {
+        return pool;
+    }
+
+    /**
+     * Send batches which failed as a whole again, delayed on the timer. Messages a sender reports
+     * as failed one by one are not retried.
+     *
+     * @param retryPolicy {@code null} or {@link RetryPolicy#NONE} turns retries off
+     * @param timer
+     */
+    public void retry(RetryPolicy retryPolicy, Timer timer) {
+        if (retryPolicy != null && retryPolicy.maxAttempts() > 1 && timer == null) {
+            throw new NullPointerException("timer");
+        }
+        this.retryTimer = timer;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Fail a batch started on a {@link NonBlockingSender} whose callback does not come within the
+     * timeout, like a failed send, so a lost callback does not keep its in-flight slot forever.
+     * A late callback is ignored.
+     *
+     * @param sendTimeout zero turns the deadline off
+     * @param timer
+     */
+    public void sendTimeout(long sendTimeout, TimeUnit unit, Timer timer) {
+        if (sendTimeout < 0) {
+            throw new IllegalArgumentException("sendTimeout < 0: " + sendTimeout);
+        }
+        if (sendTimeout > 0 && timer == null) {
+            throw new NullPointerException("timer");
+        }
+        this.sendTimer = timer;
+        this.sendTimeoutNanos = unit.toNanos(sendTimeout);
+    }
+
+    /**
+     * Put a circuit breaker in front of the sender. While it is open batches fail at once or stay
+     * in their queues, see {@link CircuitBreakerPolicy.OpenAction}.
+     *
+     * @param policy {@code null} removes the breaker
+     */
+    public void circuitBreaker(CircuitBreakerPolicy policy) {
+        this.circuitBreaker = policy == null ? null : new CircuitBreaker(policy, metrics);
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Split a batch the sink rejected, see {@link RejectedBatchException}, and send the halves one
+     * after the other until the failing messages are isolated. Only those are failed and handed to
+     * the dead letter handler, the rest of the batch is sent. Other failures are retried and failed
+     * as a whole.
+     *
+     * @param bisect splits at most {@link #DEFAULT_MAX_SPLITS} times per batch
+     */
+    public void bisect(boolean bisect) {
+        bisect(bisect ? DEFAULT_MAX_SPLITS : 0);
+    }
+
+    /**
+     * @param maxSplits splits per batch before the failing ranges left are failed as a whole, zero
+     *                  turns bisection off
+     */
+    public void bisect(int maxSplits) {
+        if (maxSplits < 0) {
+            throw new IllegalArgumentException("maxSplits < 0: " + maxSplits);
+        }
+        this.maxSplits = maxSplits;
+    }
+
+    /**
+     * hand the messages of failed sends to the handler.
+     *
+     * @param deadLetterHandler {@code null} removes the handler
+     */
+    public void deadLetterHandler(DeadLetterHandler deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    /**
+     * tell the listener about keys which were refused a slot once a slot is released.
+     */
+    void windowListener(InFlightWindow.Listener listener) {
+        window.listener(listener);
+    }
+
+    /**
+     * A holding breaker hands out its permission together with the slot, so a drained batch is
+     * never refused by the breaker and failed instead of staying queued.
+     */
+    @Override
+    public boolean tryAcquire(Message.MessageKey key) {
+        CircuitBreaker breaker = holdingBreaker();
+        if (breaker != null && !breaker.tryAcquirePermission()) {
+            return false;
+        }
+        if (!window.tryAcquire(key)) {
+            if (breaker != null) {
+                breaker.releasePermission();
             }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isRefused(Message.MessageKey key) {
+        return isHolding() || window.isRefused(key);
+    }
+
+    @Override
+    public boolean isHolding() {
+        CircuitBreaker breaker = holdingBreaker();
+        return breaker != null && !breaker.allowsRequests();
+    }
+
+    @Override
+    public void release(Message.MessageKey key) {
+        CircuitBreaker breaker = holdingBreaker();
+        if (breaker != null) {
+            breaker.releasePermission();
         }
-        this.executor = executorHolder.executor();
+        window.release(key);
     }
 
+    private CircuitBreaker holdingBreaker() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker != null && breaker.policy().openAction() == CircuitBreakerPolicy.OpenAction.HOLD
+                ? breaker : null;
+    }
+
+    /**
+     * Send a batch outside the in-flight window. The caller waits while maxInFlight batches without
+     * a key, or as many as the pool has threads if the window is unbounded, are not completed yet,
+     * so the work queue of the pool stays bounded.
+     */
     @Override
-    public CompositeFuture send(final List<MessagePromise<R>> promises) {
+    public CompositeFuture send(List<MessagePromise<R>> promises) {
+        keyless.acquireUninterruptibly();
+        return dispatch(null, promises);
+    }
+
+    /**
+     * Sent and dropped messages are counted once per batch. {@link VoidMessagePromise void promises}
+     * are neither completed nor listened to, the returned future waits for the batch instead.
+     */
+    @Override
+    public CompositeFuture send(Message.MessageKey key, List<MessagePromise<R>> promises) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return dispatch(key, promises);
+    }
+
+    private CompositeFuture dispatch(Message.MessageKey key, List<MessagePromise<R>> promises) {
         logger.debug("send | message count = {}", promises.size());
-        final List<M> messages = new ArrayList<M>();
-        for (MessagePromise promise : promises) {
+        List<M> messages = new ArrayList<M>(promises.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(promises.size() + 1);
+        for (MessagePromise<R> promise : promises) {
             messages.add((M) promise.message());
+            if (!VoidMessagePromise.isVoid(promise)) {
+                futures.add(promise);
+            }
         }
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
+        Promise<Void> batch = futures.size() == promises.size()
+                ? null : new DefaultPromise<Void>(ThreadPool.DIRECT_EXECUTOR_SERVICE);
+        if (batch != null) {
+            futures.add(batch);
+        }
+        //a keyed batch got the permission of a holding breaker with its slot
+        new Batch(key, promises, messages, batch, key == null ? null : holdingBreaker()).dispatch();
+        return CompositeFuture.all(futures);
+    }
+
+    /**
+     * A drained batch from its first send until it is completed. The batch keeps the in-flight
+     * slot of its key while it waits for a retry or sends its halves, so younger batches of the key
+     * cannot overtake it when the window allows one batch per key.
+     */
+    private final class Batch implements Runnable, TimerTask {
+        final Message.MessageKey key;
+        final List<MessagePromise<R>> promises;
+        final List<M> messages;
+        final Promise<Void> batch;
+        //the range of the batch the current attempt sends
+        int from;
+        int to;
+        //the current range is a part of a bisected batch
+        boolean split;
+        //ranges of a bisected batch still to send, in order
+        ArrayDeque<int[]> pending;
+        int splits;
+        int attempts;
+        //set while the breaker counts on an outcome of the current attempt
+        CircuitBreaker breaker;
+        //permission taken for the first attempt by tryAcquire
+        CircuitBreaker permitted;
+        long startNanos;
+        //first promise of the range complete did not get to yet
+        int completing;
+        //outcome of the ranges completed so far
+        int sent;
+        List<Message> voidDropped;
+        Throwable voidCause;
+
+        Batch(Message.MessageKey key, List<MessagePromise<R>> promises, List<M> messages, Promise<Void> batch,
+              CircuitBreaker permitted) {
+            this.key = key;
+            this.permitted = permitted;
+            this.promises = promises;
+            this.messages = messages;
+            this.batch = batch;
+            this.to = messages.size();
+        }
+
+        private List<M> current() {
+            return from == 0 && to == messages.size() ? messages : messages.subList(from, to);
+        }
+
+        void dispatch() {
+            attempts++;
+            CircuitBreaker breaker = circuitBreaker;
+            if (permitted != null) {
+                breaker = permitted;
+                permitted = null;
+            } else if (breaker != null && !breaker.tryAcquirePermission()) {
+                //retrying into an open breaker only burns attempts
+                failed(new CircuitBreakerOpenException(), false);
+                return;
+            }
+            this.breaker = breaker;
+            if (startInline && !split) {
+                startNanos = System.nanoTime();
+                start();
+                return;
+            }
+            try {
+                //the parts of a bisected batch are sent from the pool, not from the completing thread,
+                //and batches are encoded there, not on a flush or timer thread
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                //the pool is shut down already
+                if (breaker != null) {
+                    breaker.releasePermission();
+                    this.breaker = null;
+                }
+                failed(e, false);
+            }
+        }
+
+        /**
+         * send on a pool thread.
+         */
+        @Override
+        public void run() {
+            startNanos = System.nanoTime();
+            if (sender instanceof NonBlockingSender) {
+                start();
+                return;
+            }
+            List<R> result;
+            try {
+                result = sender.send(current());
+            } catch (Exception e) {
+                failed(e, true);
+                return;
+            }
+            succeeded(result);
+        }
+
+        /**
+         * start the send on the calling thread, the callback or the deadline completes the batch.
+         */
+        private void start() {
+            Attempt attempt = new Attempt(to - from);
+            attempt.schedule();
+            try {
+                ((NonBlockingSender<M, R>) sender).send(current(), attempt);
+            } catch (Exception e) {
+                attempt.onFailure(e);
+            }
+        }
+
+        /**
+         * the retry backoff is over.
+         */
+        @Override
+        public void run(Timeout timeout) {
+            dispatch();
+        }
+
+        private void succeeded(List<R> result) {
+            if (breaker != null) {
+                breaker.onSuccess(System.nanoTime() - startNanos);
+                breaker = null;
+            }
+            try {
+                complete(result);
+            } catch (RuntimeException e) {
+                //a null result or a throwing listener, the rest of the range must not hang
+                failRemaining(e);
+            } finally {
+                next();
+            }
+        }
+
+        private void failed(Throwable cause, boolean retryable) {
+            if (breaker != null) {
+                breaker.onError(System.nanoTime() - startNanos);
+                breaker = null;
+            }
+            //a rejected batch fails the same way again, only smaller parts of it may pass
+            boolean rejected = retryable && RejectedBatchException.isRejection(cause);
+            if (retryable && !rejected && retry()) {
+                return;
+            }
+            try {
+                if (!(rejected && bisect(cause))) {
+                    fail(cause);
+                }
+            } finally {
+                next();
+            }
+        }
+
+        /**
+         * whole batches are retried, the parts of a bisected batch are not.
+         */
+        private boolean retry() {
+            RetryPolicy policy = retryPolicy;
+            if (split || policy == null || !policy.allowRetry(attempts)) {
+                return false;
+            }
+            try {
+                retryTimer.newTimeout(this, policy.backoffNanos(attempts), TimeUnit.NANOSECONDS);
+            } catch (IllegalStateException | RejectedExecutionException e) {
+                //the timer is stopped or has too many pending timeouts
+                policy.refund();
+                return false;
+            }
+            metrics.incrementMessagesRetried(to - from);
+            return true;
+        }
+
+        /**
+         * Queue the two halves of the rejected range in front of the pending ones, so the messages
+         * are still sent in order. A batch is split maxSplits times at most.
+         */
+        private boolean bisect(Throwable cause) {
+            if (to - from < 2 || splits >= maxSplits) {
+                return false;
+            }
+            splits++;
+            if (pending == null) {
+                pending = new ArrayDeque<int[]>();
+            }
+            int mid = (from + to) >>> 1;
+            pending.addFirst(new int[]{mid, to});
+            pending.addFirst(new int[]{from, mid});
+            logger.debug("bisect | messages [{}, {}) failed for {}", from, to, cause.toString());
+            return true;
+        }
+
+        /**
+         * send the next part of a bisected batch, or complete the batch.
+         */
+        private void next() {
+            if (pending != null && !pending.isEmpty()) {
+                int[] range = pending.pollFirst();
+                from = range[0];
+                to = range[1];
+                split = true;
+                attempts = 0;
+                dispatch();
+                return;
+            }
+            try {
+                finish();
+            } finally {
+                if (key != null) {
+                    window.release(key);
+                } else {
+                    keyless.release();
+                }
+            }
+        }
+
+        /**
+         * One send of a {@link NonBlockingSender}. Whatever comes first of the callback and the
+         * deadline completes the batch, the other one is ignored.
+         */
+        private final class Attempt extends AtomicBoolean implements SendCallback<R>, TimerTask {
+            private static final long serialVersionUID = 1L;
+
+            final int size;
+            volatile Timeout deadline;
+
+            Attempt(int size) {
+                this.size = size;
+            }
+
+            void schedule() {
+                long timeoutNanos = sendTimeoutNanos;
+                Timer timer = sendTimer;
+                if (timeoutNanos <= 0 || timer == null) {
+                    return;
+                }
                 try {
-                    List<R> result = sender.send(messages);
-                    Promises.allSuccess(result, promises);
-                } catch (Exception e) {
-                    Promises.allFail(e, promises, messages);
+                    deadline = timer.newTimeout(this, timeoutNanos, TimeUnit.NANOSECONDS);
+                } catch (IllegalStateException | RejectedExecutionException e) {
+                    //the timer is stopped or has too many pending timeouts
+                    logger.debug("Can not schedule the deadline of a batch: {}", e.toString());
+                }
+            }
+
+            @Override
+            public void onSuccess(List<R> results) {
+                if (compareAndSet(false, true)) {
+                    cancel();
+                    succeeded(results);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                if (compareAndSet(false, true)) {
+                    cancel();
+                    failed(cause, true);
+                }
+            }
+
+            @Override
+            public void run(Timeout timeout) {
+                onFailure(new TimeoutException("No outcome of the batch of " + size + " messages within "
+                        + sendTimeoutNanos + " ns"));
+            }
+
+            private void cancel() {
+                Timeout timeout = deadline;
+                if (timeout != null) {
+                    timeout.cancel();
+                }
+            }
+        }
+
+        private void complete(List<R> result) {
+            completing = from;
+            if (result.size() != to - from) {
+                fail(new IllegalArgumentException("result.size() != promises.size()"));
+                return;
+            }
+            List<Message> failed = null;
+            Throwable cause = null;
+            for (int i = from; i < to; i++, completing = i) {
+                MessagePromise<R> promise = promises.get(i);
+                R res = result.get(i - from);
+                boolean isVoid = VoidMessagePromise.isVoid(promise);
+                if (res instanceof Throwable) {
+                    if (failed == null) {
+                        failed = new ArrayList<Message>();
+                        cause = (Throwable) res;
+                    }
+                    failed.add(promise.message());
+                    if (isVoid) {
+                        voidDropped(promise.message(), cause);
+                    } else {
+                        promise.setFailure(MessageDroppedException.dropped((Throwable) res,
+                                Collections.singletonList(promise.message())));
+                    }
+                } else {
+                    sent++;
+                    if (!isVoid) {
+                        promise.setSuccess(res);
+                    }
+                }
+            }
+            if (failed != null) {
+                deadLetter(MessageDroppedException.dropped(cause, failed));
+            }
+        }
+
+        private void fail(Throwable e) {
+            MessageDroppedException dropped = MessageDroppedException.dropped(e, current());
+            for (int i = from; i < to; i++) {
+                MessagePromise<R> promise = promises.get(i);
+                if (VoidMessagePromise.isVoid(promise)) {
+                    voidDropped(promise.message(), e);
+                } else {
+                    promise.setFailure(dropped);
+                }
+            }
+            deadLetter(dropped);
+        }
+
+        /**
+         * fail the promises of the range complete did not complete.
+         */
+        private void failRemaining(Throwable e) {
+            List<Message> failed = new ArrayList<Message>();
+            for (int i = completing; i < to; i++) {
+                MessagePromise<R> promise = promises.get(i);
+                if (VoidMessagePromise.isVoid(promise)) {
+                    voidDropped(promise.message(), e);
+                    failed.add(promise.message());
+                } else if (promise.tryFailure(MessageDroppedException.dropped(e,
+                        Collections.singletonList(promise.message())))) {
+                    failed.add(promise.message());
                 }
             }
-        });
-        return CompositeFuture.all(promises);
+            if (!failed.isEmpty()) {
+                deadLetter(MessageDroppedException.dropped(e, failed));
+            }
+        }
+
+        private void voidDropped(Message message, Throwable cause) {
+            if (voidDropped == null) {
+                voidDropped = new ArrayList<Message>();
+                voidCause = cause;
+            }
+            voidDropped.add(message);
+        }
+
+        private void finish() {
+            metrics.incrementMessagesSent(sent);
+            if (voidDropped != null) {
+                metrics.incrementMessagesDropped(voidDropped.size());
+            }
+            if (batch != null) {
+                if (voidDropped == null) {
+                    batch.setSuccess(null);
+                } else {
+                    batch.setFailure(MessageDroppedException.dropped(voidCause, voidDropped));
+                }
+            }
+        }
+    }
+
+    private void deadLetter(MessageDroppedException dropped) {
+        DeadLetterHandler handler = deadLetterHandler;
+        if (handler == null) {
+            return;
+        }
+        try {
+            handler.onDropped(dropped);
+        } catch (Exception e) {
+            logger.warn("Dead letter handler failed: {}", e.toString());
+        }
     }
 
     @Override
     public void close() throws IOException {
-        synchronized (DefaultAsyncSender.class) {
-            if (executorHolder != null && executorHolder.close()) {
-                executorHolder = null;
-            }
-        }
+        pool.close();
         sender.close();
     }
 }
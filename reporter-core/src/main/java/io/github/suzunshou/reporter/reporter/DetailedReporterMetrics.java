@@ -0,0 +1,60 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * {@link ReporterMetrics} which also tracks bytes, sent and retried messages, circuit breaker
+ * transitions and compression. The reporter checks for it with instanceof, plain
+ * {@link ReporterMetrics} keep working through {@link ReporterMetricsAdapter}.
+ */
+public interface DetailedReporterMetrics extends ReporterMetrics {
+
+    enum DetailedMetricKey {
+        messagesSent,
+        messagesRetried,
+        circuitOpened,
+        circuitHalfOpened,
+        circuitClosed,
+        compressedBatches,
+        compressionBytesIn,
+        compressionBytesOut,
+        compressionNanos
+    }
+
+    /**
+     * Increments count of messages the sender accepted, counted once per sent batch.
+     */
+    void incrementMessagesSent(int quantity);
+
+    /**
+     * Increments count of messages sent again after their batch failed, counted once per retry.
+     */
+    void incrementMessagesRetried(int quantity);
+
+    /**
+     * Increments count of transitions of a sender's circuit breaker into the given state.
+     */
+    void incrementCircuitTransitions(CircuitBreaker.State to);
+
+    /**
+     * Increments the counters of compressed batches by one batch of bytesIn encoded bytes which
+     * took cpuNanos to compress into bytesOut.
+     */
+    void incrementCompression(int bytesIn, int bytesOut, long cpuNanos);
+
+    long messagesSent();
+
+    long messagesRetried();
+
+    long circuitTransitions(CircuitBreaker.State to);
+
+    long compressedBatches();
+
+    long compressionBytesIn();
+
+    long compressionBytesOut();
+
+    long compressionNanos();
+
+    long queuedBytes();
+
+    void updateQueuedBytes(Message.MessageKey key, long update);
+}
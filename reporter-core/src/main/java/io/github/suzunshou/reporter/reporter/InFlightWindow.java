@@ -0,0 +1,207 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the batches handed to the sender and not completed yet, per key and in total.
+ * A key refused by its own window is handed to the {@link Listener} once a batch of that key
+ * completes. Keys refused by the total window line up and every released slot hands one of them
+ * to the listener, so a release wakes one key instead of all of them.
+ */
+final class InFlightWindow {
+
+    interface Listener {
+        /**
+         * @param key
+         * @return {@code false} if the key has nothing to send and the slot should go to the next key
+         */
+        boolean windowOpened(Message.MessageKey key);
+    }
+
+    //a window whose key went idle, it is out of the map or about to be
+    private static final int RETIRED = -1;
+
+    private static final class KeyWindow {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicBoolean refused = new AtomicBoolean();
+    }
+
+    //zero means unbounded
+    private final int maxPerKey;
+    private final int maxTotal;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final ConcurrentMap<Message.MessageKey, KeyWindow> perKey = new ConcurrentHashMap<>();
+
+    //keys refused by the total window, the set tells which queued keys still wait
+    private final Queue<Message.MessageKey> waiting = new ConcurrentLinkedQueue<>();
+    private final Set<Message.MessageKey> waitingKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<Message.MessageKey, Boolean>());
+
+    private volatile Listener listener;
+
+    InFlightWindow(int maxPerKey, int maxTotal) {
+        if (maxPerKey < 0) {
+            throw new IllegalArgumentException("maxPerKey < 0: " + maxPerKey);
+        }
+        if (maxTotal < 0) {
+            throw new IllegalArgumentException("maxTotal < 0: " + maxTotal);
+        }
+        this.maxPerKey = maxPerKey;
+        this.maxTotal = maxTotal;
+    }
+
+    void listener(Listener listener) {
+        this.listener = listener;
+    }
+
+    boolean tryAcquire(Message.MessageKey key) {
+        KeyWindow keyWindow = null;
+        if (maxPerKey > 0 && (keyWindow = acquireKey(key)) == null) {
+            return false;
+        }
+        if (!increment(total, maxTotal)) {
+            if (waitingKeys.add(key)) {
+                waiting.offer(key);
+            }
+            if (!increment(total, maxTotal)) {
+                if (keyWindow != null) {
+                    keyWindow.inFlight.decrementAndGet();
+                    retireIfIdle(key, keyWindow);
+                }
+                return false;
+            }
+            //the queued entry is skipped once it is no longer in the set
+            waitingKeys.remove(key);
+        }
+        return true;
+    }
+
+    void release(Message.MessageKey key) {
+        //the slot being released keeps the window of the key in the map
+        KeyWindow keyWindow = maxPerKey > 0 ? perKey.get(key) : null;
+        if (keyWindow != null) {
+            keyWindow.inFlight.decrementAndGet();
+        }
+        total.decrementAndGet();
+
+        Listener listener = this.listener;
+        if (listener == null) {
+            if (keyWindow != null) {
+                retireIfIdle(key, keyWindow);
+            }
+            return;
+        }
+        if (keyWindow != null) {
+            if (keyWindow.refused.compareAndSet(true, false)) {
+                listener.windowOpened(key);
+            }
+            retireIfIdle(key, keyWindow);
+        }
+        Message.MessageKey next;
+        while ((next = waiting.poll()) != null) {
+            if (waitingKeys.remove(next) && listener.windowOpened(next)) {
+                break;
+            }
+        }
+    }
+
+    boolean isRefused(Message.MessageKey key) {
+        if (waitingKeys.contains(key)) {
+            return true;
+        }
+        KeyWindow keyWindow = maxPerKey > 0 ? perKey.get(key) : null;
+        return keyWindow != null && keyWindow.refused.get();
+    }
+
+    int inFlight() {
+        return total.get();
+    }
+
+    int keys() {
+        return perKey.size();
+    }
+
+    /**
+     * take a slot of the window of the key, null if the window is full.
+     */
+    private KeyWindow acquireKey(Message.MessageKey key) {
+        for (; ; ) {
+            KeyWindow keyWindow = keyWindow(key);
+            int acquired = incrementLive(keyWindow.inFlight);
+            if (acquired == 0) {
+                //remember the refusal before retrying, a release in between either sees it or left a slot for us
+                keyWindow.refused.set(true);
+                acquired = incrementLive(keyWindow.inFlight);
+                if (acquired == 0) {
+                    return null;
+                }
+                keyWindow.refused.set(false);
+            }
+            if (acquired > 0) {
+                return keyWindow;
+            }
+            //the key went idle meanwhile, start over with a new window
+            perKey.remove(key, keyWindow);
+        }
+    }
+
+    /**
+     * @return 1 if a slot was taken, 0 if the window is full and -1 if it is retired
+     */
+    private int incrementLive(AtomicInteger inFlight) {
+        for (; ; ) {
+            int curr = inFlight.get();
+            if (curr == RETIRED) {
+                return -1;
+            }
+            if (curr >= maxPerKey) {
+                return 0;
+            }
+            if (inFlight.compareAndSet(curr, curr + 1)) {
+                return 1;
+            }
+        }
+    }
+
+    //an idle key gives its window up, so keys seen once do not pile up
+    private void retireIfIdle(Message.MessageKey key, KeyWindow keyWindow) {
+        if (!keyWindow.refused.get() && keyWindow.inFlight.compareAndSet(0, RETIRED)) {
+            perKey.remove(key, keyWindow);
+        }
+    }
+
+    private KeyWindow keyWindow(Message.MessageKey key) {
+        KeyWindow keyWindow = perKey.get(key);
+        if (keyWindow == null) {
+            KeyWindow prev = perKey.putIfAbsent(key, keyWindow = new KeyWindow());
+            if (prev != null) {
+                keyWindow = prev;
+            }
+        }
+        return keyWindow;
+    }
+
+    private static boolean increment(AtomicInteger count, int max) {
+        if (max <= 0) {
+            count.incrementAndGet();
+            return true;
+        }
+        for (; ; ) {
+            int curr = count.get();
+            if (curr >= max) {
+                return false;
+            }
+            if (count.compareAndSet(curr, curr + 1)) {
+                return true;
+            }
+        }
+    }
+}
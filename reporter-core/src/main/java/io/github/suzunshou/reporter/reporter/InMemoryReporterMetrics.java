@@ -8,7 +8,7 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * @author zunshou on 2019/11/17 12:03 下午.
  */
-public final class InMemoryReporterMetrics implements ReporterMetrics {
+public final class InMemoryReporterMetrics implements DetailedReporterMetrics {
 
     private void start(final ReporterMetricsExporter exporter) {
         exporter.start(this);
@@ -26,10 +26,16 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
 
     private final ConcurrentHashMap<MetricKey, AtomicLong> metrics = new ConcurrentHashMap<MetricKey, AtomicLong>();
 
+    private final ConcurrentHashMap<DetailedMetricKey, AtomicLong> detailed = new ConcurrentHashMap<DetailedMetricKey, AtomicLong>();
+
     private final ConcurrentHashMap<Message.MessageKey, AtomicLong> queuedMessages = new ConcurrentHashMap<Message.MessageKey, AtomicLong>();
 
     private final LongAdder queuedMessagesAccumulator = new LongAdder();
 
+    private final ConcurrentHashMap<Message.MessageKey, AtomicLong> queuedBytes = new ConcurrentHashMap<Message.MessageKey, AtomicLong>();
+
+    private final LongAdder queuedBytesAccumulator = new LongAdder();
+
     @Override
     public void incrementMessages(int quantity) {
         increment(metrics, MetricKey.messages, quantity);
@@ -40,14 +46,83 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
         increment(metrics, MetricKey.messageDropped, quantity);
     }
 
+    @Override
+    public void incrementMessagesSent(int quantity) {
+        increment(detailed, DetailedMetricKey.messagesSent, quantity);
+    }
+
+    @Override
+    public void incrementMessagesRetried(int quantity) {
+        increment(detailed, DetailedMetricKey.messagesRetried, quantity);
+    }
+
+    @Override
+    public void incrementCircuitTransitions(CircuitBreaker.State to) {
+        increment(detailed, circuitKey(to), 1);
+    }
+
+    @Override
+    public void incrementCompression(int bytesIn, int bytesOut, long cpuNanos) {
+        increment(detailed, DetailedMetricKey.compressedBatches, 1);
+        increment(detailed, DetailedMetricKey.compressionBytesIn, bytesIn);
+        increment(detailed, DetailedMetricKey.compressionBytesOut, bytesOut);
+        increment(detailed, DetailedMetricKey.compressionNanos, cpuNanos);
+    }
+
     @Override
     public long messages() {
-        return get(MetricKey.messages);
+        return get(metrics, MetricKey.messages);
     }
 
     @Override
     public long messagesDropped() {
-        return get(MetricKey.messageDropped);
+        return get(metrics, MetricKey.messageDropped);
+    }
+
+    @Override
+    public long messagesSent() {
+        return get(detailed, DetailedMetricKey.messagesSent);
+    }
+
+    @Override
+    public long messagesRetried() {
+        return get(detailed, DetailedMetricKey.messagesRetried);
+    }
+
+    @Override
+    public long circuitTransitions(CircuitBreaker.State to) {
+        return get(detailed, circuitKey(to));
+    }
+
+    @Override
+    public long compressedBatches() {
+        return get(detailed, DetailedMetricKey.compressedBatches);
+    }
+
+    @Override
+    public long compressionBytesIn() {
+        return get(detailed, DetailedMetricKey.compressionBytesIn);
+    }
+
+    @Override
+    public long compressionBytesOut() {
+        return get(detailed, DetailedMetricKey.compressionBytesOut);
+    }
+
+    @Override
+    public long compressionNanos() {
+        return get(detailed, DetailedMetricKey.compressionNanos);
+    }
+
+    private static DetailedMetricKey circuitKey(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                return DetailedMetricKey.circuitOpened;
+            case HALF_OPEN:
+                return DetailedMetricKey.circuitHalfOpened;
+            default:
+                return DetailedMetricKey.circuitClosed;
+        }
     }
 
     @Override
@@ -55,18 +130,19 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
         return queuedMessagesAccumulator.sum();
     }
 
+    @Override
+    public long queuedBytes() {
+        return queuedBytesAccumulator.sum();
+    }
+
     @Override
     public void updateQueuedMessages(Message.MessageKey key, int update) {
-        AtomicLong metric = queuedMessages.get(key);
-        if (metric == null) {
-            metric = queuedMessages.putIfAbsent(key, new AtomicLong(update));
-            if (metric == null) {
-                queuedMessagesAccumulator.add(update);
-                return;
-            }
-        }
-        long prev = metric.getAndSet(update);
-        queuedMessagesAccumulator.add(update - prev);
+        update(queuedMessages, queuedMessagesAccumulator, key, update);
+    }
+
+    @Override
+    public void updateQueuedBytes(Message.MessageKey key, long update) {
+        update(queuedBytes, queuedBytesAccumulator, key, update);
     }
 
     @Override
@@ -75,9 +151,27 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
         if (value != null) {
             queuedMessagesAccumulator.add(-value.get());
         }
+        value = queuedBytes.remove(key);
+        if (value != null) {
+            queuedBytesAccumulator.add(-value.get());
+        }
+    }
+
+    private static void update(ConcurrentHashMap<Message.MessageKey, AtomicLong> gauges, LongAdder accumulator,
+                               Message.MessageKey key, long update) {
+        AtomicLong metric = gauges.get(key);
+        if (metric == null) {
+            metric = gauges.putIfAbsent(key, new AtomicLong(update));
+            if (metric == null) {
+                accumulator.add(update);
+                return;
+            }
+        }
+        long prev = metric.getAndSet(update);
+        accumulator.add(update - prev);
     }
 
-    private static <K> void increment(ConcurrentHashMap<K, AtomicLong> metrics, K key, int quantity) {
+    private static <K> void increment(ConcurrentHashMap<K, AtomicLong> metrics, K key, long quantity) {
         if (quantity == 0) return;
         for (; ; ) {
             AtomicLong metric = metrics.get(key);
@@ -94,7 +188,7 @@ public final class InMemoryReporterMetrics implements ReporterMetrics {
         }
     }
 
-    private long get(MetricKey key) {
+    private static <K> long get(ConcurrentHashMap<K, AtomicLong> metrics, K key) {
         AtomicLong atomic = metrics.get(key);
         return atomic == null ? 0 : atomic.get();
     }
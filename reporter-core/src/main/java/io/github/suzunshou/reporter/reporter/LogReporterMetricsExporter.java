@@ -20,8 +20,21 @@ public class LogReporterMetricsExporter extends ReporterMetricsExporter {
         executor.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                logger.debug("Messages: {}\tMessagesDropped: {}\tQueuedMessages: {}",
-                        metrics.messages(), metrics.messagesDropped(), metrics.queuedMessages());
+                if (!(metrics instanceof DetailedReporterMetrics)) {
+                    logger.debug("Messages: {}\tMessagesDropped: {}\tQueuedMessages: {}",
+                            metrics.messages(), metrics.messagesDropped(), metrics.queuedMessages());
+                    return;
+                }
+                DetailedReporterMetrics detailed = (DetailedReporterMetrics) metrics;
+                logger.debug("Messages: {}\tMessagesSent: {}\tMessagesRetried: {}\tMessagesDropped: {}\tCircuitOpened: {}\tQueuedMessages: {}\tQueuedBytes: {}",
+                        detailed.messages(), detailed.messagesSent(), detailed.messagesRetried(), detailed.messagesDropped(),
+                        detailed.circuitTransitions(CircuitBreaker.State.OPEN), detailed.queuedMessages(), detailed.queuedBytes());
+                long batches = detailed.compressedBatches();
+                if (batches > 0) {
+                    logger.debug("CompressedBatches: {}\tCompressionRatio: {}\tCompressionMicrosPerBatch: {}",
+                            batches, String.format("%.3f", (double) detailed.compressionBytesOut() / detailed.compressionBytesIn()),
+                            detailed.compressionNanos() / batches / 1000);
+                }
             }
         }, 5, 5, TimeUnit.SECONDS);
     }
@@ -19,6 +19,17 @@ public abstract class Message implements Serializable {
     @Override
     public abstract String toString();
 
+    /**
+     * Return the bytes retained by this message, used by the byte based limits
+     * ({@code queuedMaxBytes} and {@code totalQueuedBytes}). The value must not change while
+     * the message is queued. {@code 0} means the message is not weighed and is only counted.
+     *
+     * @return
+     */
+    public int sizeInBytes() {
+        return 0;
+    }
+
     <V> MessagePromise<V> newPromise() {
         return new DefaultMessagePromise<V>(this);
     }
@@ -0,0 +1,23 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.List;
+
+/**
+ * Sender which starts a batch and returns at once, the result is reported to a {@link SendCallback}
+ * later, typically from an I/O thread. {@link DefaultAsyncSender} starts batches of such a sender
+ * on the flush thread and completes the promises from the callback, so no sender thread waits for
+ * the round trip and the in-flight window, not nThreads, bounds the concurrent batches.
+ * <p>
+ * The blocking {@link #send(List)} is kept for callers which want to wait,
+ * {@link AbstractNonBlockingSender} implements it on top of the callback.
+ */
+public interface NonBlockingSender<M extends Message, R> extends Sender<M, R> {
+
+    /**
+     * start sending the batch, must not block.
+     *
+     * @param messages
+     * @param callback
+     */
+    void send(List<M> messages, SendCallback<R> callback);
+}
@@ -0,0 +1,35 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * The sink received the batch and refused its content, sending the same messages again fails
+ * again. Senders throw it, or fail their callback with it, for a failure only some messages of
+ * the batch are to blame for, such a batch is not retried but bisected if enabled, see
+ * {@link AsyncReporter.Builder#bisectOnFailure(boolean)}.
+ */
+public class RejectedBatchException extends RuntimeException {
+
+    private static final long serialVersionUID = 2651809216440361732L;
+
+    public RejectedBatchException(String message) {
+        super(message);
+    }
+
+    public RejectedBatchException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Return {@code true} if the failure or one of its causes is a rejection.
+     *
+     * @param cause
+     * @return
+     */
+    public static boolean isRejection(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof RejectedBatchException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -19,6 +19,7 @@ public interface Reporter<M extends Message, R> extends Component {
         long messageTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
         int bufferedMaxMessages = 100;
         int queuedMaxMessages = 10000;
+        long queuedMaxBytes = 0;
 
         public Builder(Sender<M, R> sender) {
             if (sender == null) {
@@ -61,6 +62,17 @@ public interface Reporter<M extends Message, R> extends Component {
             return this;
         }
 
+        /**
+         * Bound every queue by the retained bytes of its messages as well, see {@link Message#sizeInBytes()}.
+         * Zero means no byte bound.
+         */
+        public Builder<M, R> queuedMaxBytes(long queuedMaxBytes) {
+            if (queuedMaxBytes < 0)
+                throw new IllegalArgumentException("queuedMaxBytes < 0: " + queuedMaxBytes);
+            this.queuedMaxBytes = queuedMaxBytes;
+            return this;
+        }
+
         public abstract Reporter<M, R> build();
     }
 
@@ -0,0 +1,133 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * Presents plain {@link ReporterMetrics} as {@link DetailedReporterMetrics}, the detailed
+ * counters are dropped and read as zero.
+ */
+public final class ReporterMetricsAdapter implements DetailedReporterMetrics {
+
+    private final ReporterMetrics delegate;
+
+    private ReporterMetricsAdapter(ReporterMetrics delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param metrics
+     * @return metrics itself if it is already {@link DetailedReporterMetrics}
+     */
+    public static DetailedReporterMetrics detailed(ReporterMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics == null");
+        }
+        if (metrics instanceof DetailedReporterMetrics) {
+            return (DetailedReporterMetrics) metrics;
+        }
+        return new ReporterMetricsAdapter(metrics);
+    }
+
+    @Override
+    public void incrementMessages(int quantity) {
+        delegate.incrementMessages(quantity);
+    }
+
+    @Override
+    public void incrementMessagesDropped(int quantity) {
+        delegate.incrementMessagesDropped(quantity);
+    }
+
+    @Override
+    public long messages() {
+        return delegate.messages();
+    }
+
+    @Override
+    public long messagesDropped() {
+        return delegate.messagesDropped();
+    }
+
+    @Override
+    public long queuedMessages() {
+        return delegate.queuedMessages();
+    }
+
+    @Override
+    public void updateQueuedMessages(Message.MessageKey key, int update) {
+        delegate.updateQueuedMessages(key, update);
+    }
+
+    @Override
+    public void removeFromQueuedMessages(Message.MessageKey key) {
+        delegate.removeFromQueuedMessages(key);
+    }
+
+    @Override
+    public void incrementMessagesSent(int quantity) {
+
+    }
+
+    @Override
+    public void incrementMessagesRetried(int quantity) {
+
+    }
+
+    @Override
+    public void incrementCircuitTransitions(CircuitBreaker.State to) {
+
+    }
+
+    @Override
+    public void incrementCompression(int bytesIn, int bytesOut, long cpuNanos) {
+
+    }
+
+    @Override
+    public long messagesSent() {
+        return 0;
+    }
+
+    @Override
+    public long messagesRetried() {
+        return 0;
+    }
+
+    @Override
+    public long circuitTransitions(CircuitBreaker.State to) {
+        return 0;
+    }
+
+    @Override
+    public long compressedBatches() {
+        return 0;
+    }
+
+    @Override
+    public long compressionBytesIn() {
+        return 0;
+    }
+
+    @Override
+    public long compressionBytesOut() {
+        return 0;
+    }
+
+    @Override
+    public long compressionNanos() {
+        return 0;
+    }
+
+    @Override
+    public long queuedBytes() {
+        return 0;
+    }
+
+    @Override
+    public void updateQueuedBytes(Message.MessageKey key, long update) {
+
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
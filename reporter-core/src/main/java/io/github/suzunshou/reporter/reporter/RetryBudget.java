@@ -0,0 +1,61 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket of retries. Every retry takes a token, the bucket holds at most maxTokens and
+ * refills at tokensPerSecond, so during an outage retries add at most that rate on top of the
+ * regular load instead of multiplying it. Several reporters may share a budget.
+ */
+public final class RetryBudget {
+
+    private final double maxTokens;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public RetryBudget(int maxTokens, double tokensPerSecond) {
+        if (maxTokens <= 0)
+            throw new IllegalArgumentException("maxTokens <= 0: " + maxTokens);
+        if (tokensPerSecond < 0)
+            throw new IllegalArgumentException("tokensPerSecond < 0: " + tokensPerSecond);
+        this.maxTokens = maxTokens;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = maxTokens;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * take a token.
+     *
+     * @return {@code false} if the budget is used up
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * give back a token taken for a retry which was not scheduled after all.
+     */
+    public synchronized void release() {
+        refill();
+        tokens = Math.min(maxTokens, tokens + 1);
+    }
+
+    public synchronized double available() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How often and how late a batch whose send failed as a whole is sent again. The backoff grows
+ * exponentially from initialBackoff up to maxBackoff, and jitter takes up to that fraction off
+ * every delay so batches failed together do not come back together. An optional
+ * {@link RetryBudget} caps the retries of all batches during an outage.
+ */
+public final class RetryPolicy {
+
+    /**
+     * every batch is sent once.
+     */
+    public static final RetryPolicy NONE = builder().maxAttempts(1).build();
+
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final double multiplier;
+    private final double jitter;
+    private final RetryBudget budget;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffNanos = builder.initialBackoffNanos;
+        this.maxBackoffNanos = builder.maxBackoffNanos;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.budget = builder.budget;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Return {@code true} if a batch which was sent attempts times may be sent again, takes a token
+     * of the budget if so.
+     *
+     * @param attempts
+     * @return
+     */
+    boolean allowRetry(int attempts) {
+        return attempts < maxAttempts && (budget == null || budget.tryAcquire());
+    }
+
+    /**
+     * give back the budget token of a retry which could not be scheduled.
+     */
+    void refund() {
+        if (budget != null) {
+            budget.release();
+        }
+    }
+
+    /**
+     * the delay before the given retry, the first retry is 1.
+     *
+     * @param retry
+     * @return
+     */
+    long backoffNanos(int retry) {
+        double backoff = initialBackoffNanos * Math.pow(multiplier, retry - 1);
+        backoff = Math.min(backoff, maxBackoffNanos);
+        if (jitter > 0) {
+            backoff -= backoff * jitter * ThreadLocalRandom.current().nextDouble();
+        }
+        return (long) backoff;
+    }
+
+    public static final class Builder {
+        int maxAttempts = 3;
+        long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+        long maxBackoffNanos = TimeUnit.SECONDS.toNanos(10);
+        double multiplier = 2;
+        double jitter = 0.2;
+        RetryBudget budget;
+
+        Builder() {
+        }
+
+        /**
+         * attempts per batch including the first send.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder backoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+            if (initialBackoff < 0 || maxBackoff < initialBackoff)
+                throw new IllegalArgumentException("0 <= initialBackoff <= maxBackoff");
+            this.initialBackoffNanos = unit.toNanos(initialBackoff);
+            this.maxBackoffNanos = unit.toNanos(maxBackoff);
+            return this;
+        }
+
+        public Builder multiplier(double multiplier) {
+            if (multiplier < 1)
+                throw new IllegalArgumentException("multiplier < 1: " + multiplier);
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * the fraction of a delay which is randomly taken off, between 0 and 1.
+         */
+        public Builder jitter(double jitter) {
+            if (jitter < 0 || jitter > 1)
+                throw new IllegalArgumentException("jitter not in [0, 1]: " + jitter);
+            this.jitter = jitter;
+            return this;
+        }
+
+        public Builder budget(RetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
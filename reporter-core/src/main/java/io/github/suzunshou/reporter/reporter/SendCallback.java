@@ -0,0 +1,23 @@
+package io.github.suzunshou.reporter.reporter;
+
+import java.util.List;
+
+/**
+ * Completion of a batch handed to a {@link NonBlockingSender}, exactly one of the methods is called once.
+ */
+public interface SendCallback<R> {
+
+    /**
+     * the batch was sent.
+     *
+     * @param results one per message in the order of the batch, a {@link Throwable} result drops its message
+     */
+    void onSuccess(List<R> results);
+
+    /**
+     * the whole batch failed.
+     *
+     * @param cause
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,121 @@
+package io.github.suzunshou.reporter.reporter;
+
+/**
+ * Limits a {@link CapableSender} advertises. {@link AsyncReporter.Builder} sizes drains, the
+ * sender pool, the in-flight windows and the encoder buffers from them, a zero limit is unknown
+ * and leaves the configured value alone.
+ * <p>
+ * maxMessages and maxBytes are limits of a single call and cap the configured bufferedMaxMessages
+ * and maxBatchBytes. Batches are cut before they are encoded, by an estimate of their size, so
+ * maxBytes is a target of the reporter. {@link io.github.suzunshou.reporter.encoder.EncodingSender}
+ * enforces it on the encoded batch and rejects a larger one, see {@link RejectedBatchException}.
+ * preferredConcurrency replaces the defaults of nThreads and maxInFlight which were not set
+ * explicitly. ordered keeps one batch per key in flight unless maxInFlightPerKey was set explicitly.
+ */
+public final class SenderCapabilities {
+
+    public static final SenderCapabilities UNKNOWN = builder().build();
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final int preferredConcurrency;
+    private final boolean ordered;
+
+    private SenderCapabilities(Builder builder) {
+        this.maxMessages = builder.maxMessages;
+        this.maxBytes = builder.maxBytes;
+        this.preferredConcurrency = builder.preferredConcurrency;
+        this.ordered = builder.ordered;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * the advertised capabilities of the sender, {@link #UNKNOWN} unless it is a {@link CapableSender}.
+     */
+    public static SenderCapabilities of(Component sender) {
+        if (sender instanceof CapableSender) {
+            SenderCapabilities capabilities = ((CapableSender) sender).capabilities();
+            if (capabilities != null) {
+                return capabilities;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    public int maxMessages() {
+        return maxMessages;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    public int preferredConcurrency() {
+        return preferredConcurrency;
+    }
+
+    public boolean ordered() {
+        return ordered;
+    }
+
+    @Override
+    public String toString() {
+        return "SenderCapabilities{maxMessages=" + maxMessages + ", maxBytes=" + maxBytes
+                + ", preferredConcurrency=" + preferredConcurrency + ", ordered=" + ordered + '}';
+    }
+
+    public static final class Builder {
+        int maxMessages;
+        long maxBytes;
+        int preferredConcurrency;
+        boolean ordered;
+
+        Builder() {
+        }
+
+        /**
+         * messages the sender takes in one call.
+         */
+        public Builder maxMessages(int maxMessages) {
+            if (maxMessages < 0)
+                throw new IllegalArgumentException("maxMessages < 0: " + maxMessages);
+            this.maxMessages = maxMessages;
+            return this;
+        }
+
+        /**
+         * bytes the sender takes in one call, weighed like maxBatchBytes.
+         */
+        public Builder maxBytes(long maxBytes) {
+            if (maxBytes < 0)
+                throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * concurrent calls the sender serves best, connections or request slots of the sink.
+         */
+        public Builder preferredConcurrency(int preferredConcurrency) {
+            if (preferredConcurrency < 0)
+                throw new IllegalArgumentException("preferredConcurrency < 0: " + preferredConcurrency);
+            this.preferredConcurrency = preferredConcurrency;
+            return this;
+        }
+
+        /**
+         * the sink requires the batches of a key in order.
+         */
+        public Builder ordered(boolean ordered) {
+            this.ordered = ordered;
+            return this;
+        }
+
+        public SenderCapabilities build() {
+            return new SenderCapabilities(this);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.concurrent.CompositeFuture;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+
+import java.util.List;
+
+/**
+ * An {@link AsyncSender} which bounds the batches in flight per key and in total. The reporter
+ * acquires a slot before it drains a queue, so a batch which does not fit the window stays queued
+ * instead of waiting for a sender thread.
+ */
+public interface WindowedAsyncSender<R> extends AsyncSender<R> {
+
+    /**
+     * reserve room for one more batch of the key in the in-flight window.
+     *
+     * @param key
+     * @return {@code false} if the window of the key or the total window is full
+     */
+    boolean tryAcquire(Message.MessageKey key);
+
+    /**
+     * async send a batch of the key which holds a slot of the window, the slot is released once
+     * the batch completed.
+     *
+     * @param key
+     * @param promises
+     * @return
+     */
+    CompositeFuture send(Message.MessageKey key, List<MessagePromise<R>> promises);
+
+    /**
+     * Return {@code true} if the key was refused a slot and no slot was released since.
+     *
+     * @param key
+     * @return
+     */
+    boolean isRefused(Message.MessageKey key);
+
+    /**
+     * Return {@code true} while an open circuit breaker holds batches in their queues. Held queues
+     * are flushed again by the timer.
+     *
+     * @return
+     */
+    boolean isHolding();
+
+    /**
+     * give back a slot which was acquired but not used for a batch.
+     *
+     * @param key
+     */
+    void release(Message.MessageKey key);
+}
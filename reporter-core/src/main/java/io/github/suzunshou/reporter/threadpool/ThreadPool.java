@@ -1,6 +1,9 @@
 package io.github.suzunshou.reporter.threadpool;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author zunshou on 2019/11/17 9:46 上午.
@@ -10,28 +13,83 @@ public class ThreadPool {
     //direct execute command
     public static final ExecutorService DIRECT_EXECUTOR_SERVICE = ReporterExecutors.newDirectExecutorService();
 
-    //for sender
-    private static final ThreadFactory ASYNC_SENDER_THREAD_FACTORY = ReporterExecutors.daemonThreadFactory("Async-Sender-");
+    //named sender pools joined by several reporters
+    private static final Map<String, ExecutorHolder> SHARED_POOLS = new HashMap<>();
 
+    /**
+     * join the shared pool of the given name, every reporter joining it must ask for the size of
+     * the first one. The pool is shut down once every reporter which joined it closed it.
+     *
+     * @param name
+     * @param nThread
+     * @return
+     * @throws IllegalArgumentException if the pool exists with another size
+     */
+    public static ExecutorHolder shared(String name, int nThread) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+        synchronized (SHARED_POOLS) {
+            ExecutorHolder holder = SHARED_POOLS.get(name);
+            if (holder == null) {
+                holder = new ExecutorHolder(name, nThread, true);
+                SHARED_POOLS.put(name, holder);
+            } else if (holder.nThread != nThread) {
+                throw new IllegalArgumentException("Sender pool " + name + " has " + holder.nThread
+                        + " threads, not " + nThread);
+            } else {
+                holder.increment();
+            }
+            return holder;
+        }
+    }
 
+    /**
+     * Sender pool owned by one or more reporters. Batches wait in the work queue for a sender thread,
+     * the in-flight window of the senders bounds the queue.
+     */
     public static class ExecutorHolder {
-        private Executor executor;
+        private final String name;
+        private final ThreadPoolExecutor executor;
         private final int nThread;
+        private final boolean shared;
+        private final AtomicLong rejected = new AtomicLong();
         private int refCnt = 1;
 
         public ExecutorHolder(int nThread) {
-            this.nThread = nThread;
+            this("Async-Sender", nThread);
         }
 
-        public synchronized Executor executor() {
-            if (executor == null) {
-                executor = new ThreadPoolExecutor(nThread, nThread,
-                        0, TimeUnit.MILLISECONDS,
-                        new SynchronousQueue<Runnable>(), ASYNC_SENDER_THREAD_FACTORY,
-                        new ThreadPoolExecutor.CallerRunsPolicy());
-            } else {
-                increment();
+        /**
+         * a pool of its own, shut down by its first close.
+         *
+         * @param name
+         * @param nThread
+         */
+        public ExecutorHolder(String name, int nThread) {
+            this(name, nThread, false);
+        }
+
+        private ExecutorHolder(String name, int nThread, boolean shared) {
+            if (nThread <= 0) {
+                throw new IllegalArgumentException("nThread must be greater than zero");
             }
+            this.name = name;
+            this.nThread = nThread;
+            this.shared = shared;
+            this.executor = new ThreadPoolExecutor(nThread, nThread,
+                    0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), ReporterExecutors.daemonThreadFactory(name + "-"),
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            rejected.incrementAndGet();
+                            throw new RejectedExecutionException("Sender pool " + ExecutorHolder.this.name + " is shut down");
+                        }
+                    });
+        }
+
+        public Executor executor() {
             return executor;
         }
 
@@ -43,18 +101,74 @@ public class ThreadPool {
             return refCnt;
         }
 
-        public synchronized boolean close() {
-            if (--refCnt == 0 && executor != null) {
-                ExecutorService executorService = (ExecutorService) executor;
-                executorService.shutdown();
-                try {
-                    executorService.awaitTermination(500, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+        public String name() {
+            return name;
+        }
+
+        public int threads() {
+            return nThread;
+        }
+
+        /**
+         * threads running a batch right now, equal to {@link #threads()} when the pool is saturated.
+         */
+        public int activeThreads() {
+            return executor.getActiveCount();
+        }
+
+        /**
+         * batches waiting for a sender thread.
+         */
+        public int queuedTasks() {
+            return executor.getQueue().size();
+        }
+
+        public long completedTasks() {
+            return executor.getCompletedTaskCount();
+        }
+
+        /**
+         * batches refused because the pool was shut down. The work queue is unbounded, a busy pool
+         * queues batches instead of refusing them, see {@link #queuedTasks()}.
+         */
+        public long rejectedTasks() {
+            return rejected.get();
+        }
+
+        /**
+         * drop a reference, the last one shuts the pool down.
+         *
+         * @return {@code true} if the pool was shut down
+         */
+        public boolean close() {
+            if (shared) {
+                //same lock order as shared(String, int)
+                synchronized (SHARED_POOLS) {
+                    if (!release()) {
+                        return false;
+                    }
+                    SHARED_POOLS.remove(name);
                 }
-                return true;
+            } else if (!release()) {
+                return false;
             }
-            return false;
+            executor.shutdown();
+            try {
+                executor.awaitTermination(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+        private synchronized boolean release() {
+            return --refCnt == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "SenderPool{name=" + name + ", threads=" + nThread + ", active=" + activeThreads()
+                    + ", queued=" + queuedTasks() + ", completed=" + completedTasks() + ", rejected=" + rejectedTasks() + "}";
         }
     }
 }
@@ -0,0 +1,38 @@
+package io.github.suzunshou.reporter;
+
+import io.github.suzunshou.reporter.reporter.Sender;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sender of the tests, records every batch and answers with the ids of its messages.
+ */
+public class RecordingSender implements Sender<TestMessage, Integer> {
+
+    public final List<List<TestMessage>> batches = new CopyOnWriteArrayList<>();
+
+    @Override
+    public List<Integer> send(List<TestMessage> messages) {
+        batches.add(new ArrayList<>(messages));
+        List<Integer> ids = new ArrayList<>(messages.size());
+        for (TestMessage message : messages) {
+            ids.add(message.id);
+        }
+        return ids;
+    }
+
+    public int sent() {
+        int sent = 0;
+        for (List<TestMessage> batch : batches) {
+            sent += batch.size();
+        }
+        return sent;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
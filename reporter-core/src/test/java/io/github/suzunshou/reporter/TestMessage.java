@@ -0,0 +1,69 @@
+package io.github.suzunshou.reporter;
+
+import io.github.suzunshou.reporter.reporter.Message;
+
+import java.io.Serializable;
+
+/**
+ * Message of the tests, messages with the same key share a queue.
+ */
+public final class TestMessage extends Message {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final Message.MessageKey KEY = new Key("test");
+
+    public final int id;
+    private final Message.MessageKey key;
+    private final int sizeInBytes;
+
+    public TestMessage(int id) {
+        this(id, KEY, 0);
+    }
+
+    public TestMessage(int id, Message.MessageKey key, int sizeInBytes) {
+        this.id = id;
+        this.key = key;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    @Override
+    protected Message.MessageKey asMessageKey() {
+        return key;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TestMessage{id=" + id + ", key=" + key + '}';
+    }
+
+    public static final class Key extends Message.MessageKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        public Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).name.equals(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.suzunshou.reporter;
+
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plain {@link ReporterMetrics} of the tests, counts messages and drops.
+ */
+public class TestMetrics implements ReporterMetrics {
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public void incrementMessages(int quantity) {
+        messages.addAndGet(quantity);
+    }
+
+    @Override
+    public void incrementMessagesDropped(int quantity) {
+        dropped.addAndGet(quantity);
+    }
+
+    @Override
+    public long messages() {
+        return messages.get();
+    }
+
+    @Override
+    public long messagesDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public long queuedMessages() {
+        return 0;
+    }
+
+    @Override
+    public void updateQueuedMessages(Message.MessageKey key, int update) {
+    }
+
+    @Override
+    public void removeFromQueuedMessages(Message.MessageKey key) {
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.suzunshou.reporter.concurrent;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class VoidMessagePromiseTest {
+
+    @Test
+    public void waitingReturnsAtOnce() throws Exception {
+        VoidMessagePromise<Integer> promise = new VoidMessagePromise<>(new TestMessage(1), new TestMetrics());
+
+        assertSame(promise, promise.addListener(new GenericFutureListener<Future<? super Integer>>() {
+            @Override
+            public void operationComplete(Future<? super Integer> future) {
+                throw new AssertionError("void promise notified a listener");
+            }
+        }));
+        assertSame(promise, promise.await());
+        assertSame(promise, promise.sync());
+        assertFalse(promise.await(1, TimeUnit.SECONDS));
+        assertNull(promise.get());
+        assertNull(promise.get(1, TimeUnit.SECONDS));
+        assertFalse(promise.isDone());
+    }
+
+    @Test
+    public void onlyTheFirstFailureCounts() {
+        TestMetrics metrics = new TestMetrics();
+        final AtomicInteger deadLetters = new AtomicInteger();
+        TestMessage message = new TestMessage(1);
+        VoidMessagePromise<Integer> promise = new VoidMessagePromise<>(message, metrics, new DeadLetterHandler() {
+            @Override
+            public void onDropped(MessageDroppedException dropped) {
+                deadLetters.incrementAndGet();
+            }
+        });
+
+        MessageDroppedException cause = MessageDroppedException.dropped(new RuntimeException("send failed"),
+                Collections.singletonList(message));
+        promise.tryFailure(cause);
+        promise.tryFailure(cause);
+        promise.setFailure(cause);
+
+        assertEquals(1, metrics.messagesDropped());
+        assertEquals(1, deadLetters.get());
+    }
+
+    @Test
+    public void failingDeadLetterHandlerDoesNotReachTheCaller() {
+        TestMetrics metrics = new TestMetrics();
+        TestMessage message = new TestMessage(1);
+        VoidMessagePromise<Integer> promise = new VoidMessagePromise<>(message, metrics, new DeadLetterHandler() {
+            @Override
+            public void onDropped(MessageDroppedException dropped) {
+                throw new IllegalStateException("disk full");
+            }
+        });
+
+        promise.tryFailure(MessageDroppedException.dropped(new RuntimeException("send failed"),
+                Collections.singletonList(message)));
+        assertEquals(1, metrics.messagesDropped());
+    }
+}
@@ -0,0 +1,154 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.reporter.BatchReporter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.suzunshou.reporter.deadletter.DeadLetterSinkTest.dropped;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeadLetterReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SerializableMessageCodec<TestMessage> codec = new SerializableMessageCodec<>();
+
+    private final RecordingReporter reporter = new RecordingReporter();
+
+    private File write(int count) throws IOException {
+        File directory = folder.newFolder();
+        DeadLetterSink<TestMessage> sink = DeadLetterSink.create(directory, codec);
+        sink.onDropped(dropped(0, count));
+        sink.close();
+        return directory;
+    }
+
+    private DeadLetterReplayer<TestMessage> replayer(File directory, double messagesPerSecond) {
+        return new DeadLetterReplayer<>(directory, codec, reporter, messagesPerSecond, 10, TimeUnit.MILLISECONDS);
+    }
+
+    private static void awaitEmpty(File directory) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX).length > 0) {
+            assertTrue("replayed segment not deleted", System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void writtenMessagesAreReplayedInOrder() throws IOException {
+        File directory = write(5);
+        DeadLetterReplayer<TestMessage> replayer = replayer(directory, 10000).start();
+        try {
+            awaitEmpty(directory);
+            assertEquals(5, replayer.replayed());
+            assertEquals(ids(0, 5), reporter.ids());
+        } finally {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void corruptedRecordEndsItsSegment() throws IOException {
+        File directory = write(3);
+        File[] segments = DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX);
+        assertEquals(1, segments.length);
+        //flip the last payload byte of the second record, all records have the same length
+        long record = segments[0].length() / 3;
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(2 * record - 1);
+            int last = file.readUnsignedByte();
+            file.seek(2 * record - 1);
+            file.write(last ^ 0xFF);
+        }
+        DeadLetterReplayer<TestMessage> replayer = replayer(directory, 10000).start();
+        try {
+            awaitEmpty(directory);
+            assertEquals(ids(0, 1), reporter.ids());
+        } finally {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void replayKeepsItsRate() throws IOException {
+        File directory = write(10);
+        long start = System.nanoTime();
+        DeadLetterReplayer<TestMessage> replayer = replayer(directory, 50).start();
+        try {
+            awaitEmpty(directory);
+            long elapsed = System.nanoTime() - start;
+            assertEquals(10, replayer.replayed());
+            //one message every 20ms
+            assertTrue("replayed within " + elapsed + "ns", elapsed >= TimeUnit.MILLISECONDS.toNanos(180));
+        } finally {
+            replayer.close();
+        }
+    }
+
+    @Test
+    public void closeStopsTheReplayInTheMiddleOfASegment() throws IOException {
+        File directory = write(100);
+        DeadLetterReplayer<TestMessage> replayer = replayer(directory, 20).start();
+        replayer.close();
+        assertTrue(replayer.replayed() < 100);
+        //the segment is kept and replayed again on the next start
+        assertEquals(1, DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX).length);
+    }
+
+    private static List<Integer> ids(int from, int to) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    private static final class RecordingReporter implements BatchReporter<TestMessage, Integer> {
+        final List<TestMessage> reported = new CopyOnWriteArrayList<>();
+
+        List<Integer> ids() {
+            List<Integer> ids = new ArrayList<>();
+            for (TestMessage message : reported) {
+                ids.add(message.id);
+            }
+            return ids;
+        }
+
+        @Override
+        public void reportAndForget(TestMessage message) {
+            reported.add(message);
+        }
+
+        @Override
+        public MessageFuture<Integer> report(TestMessage message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<MessageFuture<Integer>> reportAll(List<TestMessage> messages) {
+            for (TestMessage message : messages) {
+                reported.add(message);
+            }
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeadLetterSegmentsTest {
+
+    private final CRC32 crc = new CRC32();
+
+    private byte[] segment(byte[]... payloads) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] payload : payloads) {
+            DeadLetterSegments.write(out, payload, crc);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed + i);
+        }
+        return payload;
+    }
+
+    private static DataInputStream in(byte[] segment) {
+        return new DataInputStream(new ByteArrayInputStream(segment));
+    }
+
+    @Test
+    public void recordsAreReadBackInOrder() throws IOException {
+        //a length of 300 takes a two byte varint
+        byte[] small = payload(3, 1);
+        byte[] large = payload(300, 7);
+        byte[] segment = segment(small, large, new byte[0]);
+        DataInputStream in = in(segment);
+        assertArrayEquals(small, DeadLetterSegments.read(in, segment.length, crc));
+        assertArrayEquals(large, DeadLetterSegments.read(in, segment.length, crc));
+        assertArrayEquals(new byte[0], DeadLetterSegments.read(in, segment.length, crc));
+        assertNull(DeadLetterSegments.read(in, segment.length, crc));
+    }
+
+    @Test
+    public void tornRecordEndsTheSegment() throws IOException {
+        byte[] first = payload(10, 1);
+        byte[] segment = segment(first, payload(10, 2));
+        //the writer died in the middle of the second payload
+        byte[] torn = Arrays.copyOf(segment, segment.length - 4);
+        DataInputStream in = in(torn);
+        assertArrayEquals(first, DeadLetterSegments.read(in, torn.length, crc));
+        assertNull(DeadLetterSegments.read(in, torn.length, crc));
+    }
+
+    @Test
+    public void corruptedRecordEndsTheSegment() throws IOException {
+        byte[] first = payload(10, 1);
+        byte[] segment = segment(first, payload(10, 2), payload(10, 3));
+        //a flipped payload byte of the second record, length byte and crc come first
+        segment[first.length + 5 + 5 + 3] ^= 0x40;
+        DataInputStream in = in(segment);
+        assertArrayEquals(first, DeadLetterSegments.read(in, segment.length, crc));
+        assertNull(DeadLetterSegments.read(in, segment.length, crc));
+    }
+
+    @Test
+    public void lengthBeyondTheSegmentIsCorrupted() throws IOException {
+        byte[] segment = segment(payload(100, 1));
+        assertNull(DeadLetterSegments.read(in(segment), 50, crc));
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.suzunshou.reporter.deadletter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.reporter.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeadLetterSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SerializableMessageCodec<TestMessage> codec = new SerializableMessageCodec<>();
+
+    static MessageDroppedException dropped(int from, int to) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(new TestMessage(i));
+        }
+        return MessageDroppedException.dropped(new IOException("sink down"), messages);
+    }
+
+    static List<Long> numbers(File[] segments) {
+        List<Long> numbers = new ArrayList<>();
+        for (File segment : segments) {
+            numbers.add(DeadLetterSegments.number(segment));
+        }
+        return numbers;
+    }
+
+    @Test
+    public void closeSealsTheWrittenSegment() throws IOException {
+        File directory = folder.newFolder();
+        DeadLetterSink<TestMessage> sink = DeadLetterSink.create(directory, codec);
+        sink.onDropped(dropped(0, 3));
+        sink.close();
+        assertEquals(3, sink.written());
+        assertEquals(0, sink.lost());
+        assertEquals(0, DeadLetterSegments.list(directory, DeadLetterSegments.OPEN_SUFFIX).length);
+        assertEquals(1, DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX).length);
+    }
+
+    @Test
+    public void openSegmentsAreSealedOnRestart() throws IOException {
+        File directory = folder.newFolder();
+        //left open by a crashed writer
+        try (OutputStream out = new FileOutputStream(DeadLetterSegments.open(directory, 3))) {
+            DeadLetterSegments.write(out, codec.encode(new TestMessage(1)), new CRC32());
+        }
+        DeadLetterSink<TestMessage> sink = DeadLetterSink.create(directory, codec);
+        assertEquals(0, DeadLetterSegments.list(directory, DeadLetterSegments.OPEN_SUFFIX).length);
+        sink.onDropped(dropped(0, 1));
+        sink.close();
+        //the new segment continues after the recovered one
+        List<Long> sealed = numbers(DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX));
+        assertEquals(2, sealed.size());
+        assertEquals(3L, (long) sealed.get(0));
+        assertEquals(4L, (long) sealed.get(1));
+    }
+
+    @Test
+    public void budgetDeletionKeepsTheNewestSegment() throws IOException {
+        File directory = folder.newFolder();
+        //every message fills its segment, the budget holds less than one
+        DeadLetterSink<TestMessage> sink = new DeadLetterSink<>(directory, codec, 1, 1,
+                10, TimeUnit.SECONDS, 16);
+        sink.onDropped(dropped(0, 5));
+        sink.close();
+        assertEquals(5, sink.written());
+        List<Long> sealed = numbers(DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX));
+        assertEquals(1, sealed.size());
+        assertEquals(4L, (long) sealed.get(0));
+    }
+
+    @Test
+    public void messagesFindingTheQueueFullAreLost() throws Exception {
+        final CountDownLatch encoding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MessageCodec<TestMessage> blocking = new MessageCodec<TestMessage>() {
+            @Override
+            public byte[] encode(TestMessage message) throws IOException {
+                encoding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return codec.encode(message);
+            }
+
+            @Override
+            public TestMessage decode(byte[] bytes) throws IOException {
+                return codec.decode(bytes);
+            }
+        };
+        DeadLetterSink<TestMessage> sink = new DeadLetterSink<>(folder.newFolder(), blocking,
+                DeadLetterSink.DEFAULT_SEGMENT_BYTES, 0, 10, TimeUnit.SECONDS, 1);
+        try {
+            sink.onDropped(dropped(0, 1));
+            //the writer holds the first message, the queue has room for one more
+            assertTrue(encoding.await(5, TimeUnit.SECONDS));
+            sink.onDropped(dropped(1, 5));
+            assertEquals(3, sink.lost());
+        } finally {
+            release.countDown();
+            sink.close();
+        }
+        assertEquals(2, sink.written());
+    }
+
+    @Test
+    public void messagesDroppedAfterCloseAreLost() throws IOException {
+        DeadLetterSink<TestMessage> sink = DeadLetterSink.create(folder.newFolder(), codec);
+        sink.close();
+        sink.onDropped(dropped(0, 2));
+        assertEquals(2, sink.lost());
+        assertEquals(0, sink.written());
+    }
+
+    @Test
+    public void unencodableMessageIsLost() throws IOException {
+        MessageCodec<TestMessage> failing = new MessageCodec<TestMessage>() {
+            @Override
+            public byte[] encode(TestMessage message) throws IOException {
+                if (message.id == 1) {
+                    throw new IOException("not encodable");
+                }
+                return codec.encode(message);
+            }
+
+            @Override
+            public TestMessage decode(byte[] bytes) throws IOException {
+                return codec.decode(bytes);
+            }
+        };
+        File directory = folder.newFolder();
+        DeadLetterSink<TestMessage> sink = DeadLetterSink.create(directory, failing);
+        sink.onDropped(dropped(0, 3));
+        sink.close();
+        assertEquals(2, sink.written());
+        assertEquals(1, sink.lost());
+        assertEquals(1, DeadLetterSegments.list(directory, DeadLetterSegments.SUFFIX).length);
+    }
+}
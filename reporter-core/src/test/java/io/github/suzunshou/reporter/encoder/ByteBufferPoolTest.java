@@ -0,0 +1,63 @@
+package io.github.suzunshou.reporter.encoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByteBufferPoolTest {
+
+    private final ByteBufferPool pool = new ByteBufferPool(64, 1024, 2);
+
+    @Test
+    public void emptyRequestGetsTheSmallestClass() {
+        ByteBuffer buffer = pool.acquire(0);
+        assertEquals(64, buffer.capacity());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(1));
+    }
+
+    @Test
+    public void idleBuffersStayWithinTheByteBound() {
+        ByteBufferPool bounded = new ByteBufferPool(64, 1024, 4, 1024);
+        ByteBuffer first = bounded.acquire(1024);
+        ByteBuffer second = bounded.acquire(1024);
+        bounded.release(first);
+        //over the bound, dropped instead of pooled
+        bounded.release(second);
+        assertSame(first, bounded.acquire(1024));
+        ByteBuffer fresh = bounded.acquire(1024);
+        assertTrue(fresh != first && fresh != second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacityIsRejected() {
+        pool.acquire(-1);
+    }
+
+    @Test
+    public void batchGrowsIntoALargerClass() {
+        EncodedBatch batch = new EncodedBatch(pool, 1, 0);
+        batch.writable(1).put((byte) 1);
+        batch.writable(100).put(new byte[100]);
+        assertEquals(101, batch.size());
+        assertTrue(batch.buffer().capacity() >= 128);
+        batch.release();
+    }
+
+    @Test
+    public void batchBeyondAnIntFailsClearly() {
+        EncodedBatch batch = new EncodedBatch(pool, 1, 0);
+        batch.writable(1).put((byte) 1);
+        try {
+            batch.writable(Integer.MAX_VALUE);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        batch.release();
+    }
+}
@@ -0,0 +1,45 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.reporter.DetailedReporterMetrics;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+import io.github.suzunshou.reporter.reporter.ReporterMetricsAdapter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompressionTest {
+
+    private static final DetailedReporterMetrics METRICS = ReporterMetricsAdapter.detailed(ReporterMetrics.NOOP_METRICS);
+
+    private final ByteBufferPool pool = new ByteBufferPool(64, 64 * 1024, 4);
+
+    private byte[] roundTrip(Compression compression, byte[] bytes) throws IOException {
+        EncodedBatch raw = new EncodedBatch(pool, 1, bytes.length);
+        raw.writable(bytes.length).put(bytes);
+        raw.encoded();
+        EncodedBatch compressed = compression.compress(raw, pool, METRICS);
+        assertEquals("gzip", compressed.contentEncoding());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compression.decompress(compressed.buffer(), out);
+        compressed.release();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void closedCompressionStillWorksWithStreamsOfItsOwn() throws IOException {
+        byte[] bytes = new byte[4096];
+        Arrays.fill(bytes, (byte) 'a');
+        Compression compression = Compression.gzip(6, 0);
+        assertArrayEquals(bytes, roundTrip(compression, bytes));
+
+        //ends the streams of this thread, the next call must not touch them
+        compression.close();
+        assertArrayEquals(bytes, roundTrip(compression, bytes));
+        assertArrayEquals(bytes, roundTrip(compression, bytes));
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.suzunshou.reporter.encoder;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.reporter.AsyncReporter;
+import io.github.suzunshou.reporter.reporter.RejectedBatchException;
+import io.github.suzunshou.reporter.reporter.RetryPolicy;
+import io.github.suzunshou.reporter.reporter.SendCallback;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EncodingSenderTest {
+
+    private final List<String> encodingThreads = new CopyOnWriteArrayList<>();
+    private final AtomicInteger encoded = new AtomicInteger();
+
+    private final ByteSender<Integer> byteSender = new ByteSender<Integer>() {
+        @Override
+        public void send(EncodedBatch batch, SendCallback<Integer> callback) {
+            callback.onSuccess(Collections.nCopies(batch.messageCount(), 1));
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private BatchEncoder<TestMessage> encoder(final boolean failing) {
+        return new BatchEncoder<TestMessage>() {
+            @Override
+            public void encode(List<TestMessage> messages, EncodedBatch batch) throws IOException {
+                encoded.incrementAndGet();
+                encodingThreads.add(Thread.currentThread().getName());
+                if (failing) {
+                    throw new IOException("not encodable");
+                }
+                batch.writable(messages.size()).put(new byte[messages.size()]);
+            }
+        };
+    }
+
+    private AsyncReporter<TestMessage, Integer> reporter(boolean failing) {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(encoder(failing), byteSender)
+                .metrics(new TestMetrics());
+        builder.messageTimeout(10, TimeUnit.MILLISECONDS);
+        builder.retryPolicy(RetryPolicy.builder().maxAttempts(3).backoff(1, 1, TimeUnit.MILLISECONDS).build());
+        return builder.build();
+    }
+
+    @Test
+    public void batchesAreEncodedOnTheSenderPool() throws IOException {
+        AsyncReporter<TestMessage, Integer> reporter = reporter(false);
+        try {
+            MessageFuture<Integer> future = reporter.report(new TestMessage(1));
+            assertTrue(future.awaitUninterruptibly(5, TimeUnit.SECONDS));
+            assertTrue(future.isSuccess());
+            assertEquals(1, encodingThreads.size());
+            assertTrue(encodingThreads.get(0), encodingThreads.get(0).contains("-sender-"));
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test
+    public void encoderFailureIsNotRetried() throws IOException {
+        AsyncReporter<TestMessage, Integer> reporter = reporter(true);
+        try {
+            MessageFuture<Integer> future = reporter.report(new TestMessage(1));
+            assertTrue(future.awaitUninterruptibly(5, TimeUnit.SECONDS));
+            assertFalse(future.isSuccess());
+            assertTrue(RejectedBatchException.isRejection(future.cause()));
+            assertEquals(1, encoded.get());
+        } finally {
+            reporter.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBoundedQueueTest {
+
+    private static MessagePromise<?> promise(int id, int bytes) {
+        return new DefaultMessagePromise<Void>(new TestMessage(id, TestMessage.KEY, bytes));
+    }
+
+    @Test
+    public void queueRejectsMessagesBeyondMaxBytes() {
+        ConcurrentSizeBoundedQueue queue = new ConcurrentSizeBoundedQueue(100, 250, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+        queue.offer(promise(0, 100));
+        queue.offer(promise(1, 100));
+        MessagePromise<?> third = promise(2, 100);
+        queue.offer(third);
+
+        assertEquals(2, queue.size());
+        assertEquals(200, queue.bytes());
+        assertTrue(third.cause() instanceof MessageDroppedException);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    public void drainStopsAtMaxBytesButAlwaysTakesOneMessage() {
+        ConcurrentSizeBoundedQueue queue = new ConcurrentSizeBoundedQueue(100, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+        queue.offer(promise(0, 500));
+        queue.offer(promise(1, 100));
+        queue.offer(promise(2, 100));
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(1, queue.drainTo(drained, 10, 300));
+        assertEquals(2, queue.drainTo(drained, 10, 300));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void limiterReachesMaximumByBytes() {
+        MemoryLimiter limiter = MemoryLimiter.create(1000, 1024);
+        limiter.add(1, 1000);
+        assertFalse(limiter.isMaximum());
+        limiter.add(1, 100);
+        assertTrue(limiter.isMaximum());
+        limiter.add(-1, -100);
+        assertFalse(limiter.isMaximum());
+        assertEquals(1, limiter.messages());
+        assertEquals(1000, limiter.bytes());
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FlushSynchronizerTest {
+
+    private static AbstractSizeBoundedQueue queue(String key) {
+        return new RingSizeBoundedQueue(8, 0, new TestMessage.Key(key), OverflowStrategy.Type.DropNew);
+    }
+
+    @Test
+    public void queueIsScheduledOnceUntilReleased() {
+        FlushSynchronizer synchronizer = new FlushSynchronizer();
+        AbstractSizeBoundedQueue q = queue("a");
+
+        assertTrue(synchronizer.offer(q));
+        assertFalse(synchronizer.offer(q));
+        assertSame(q, synchronizer.tryPoll(0));
+        assertNull(synchronizer.tryPoll(0));
+
+        //still flushing, producers must not schedule it again
+        assertFalse(synchronizer.offer(q));
+        synchronizer.release(q);
+        assertTrue(synchronizer.offer(q));
+        assertSame(q, synchronizer.tryPoll(0));
+    }
+
+    @Test
+    public void idleWorkerStealsFromAnotherLane() {
+        FlushSynchronizer synchronizer = new FlushSynchronizer(FlushWaitStrategy.BLOCKING, 2);
+        AbstractSizeBoundedQueue q = queue("a");
+        int other = 1 - synchronizer.home(q);
+
+        assertTrue(synchronizer.offer(q));
+        assertSame(q, synchronizer.tryPoll(other));
+    }
+
+    static void awaitParked(Thread worker) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (worker.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("worker did not park", System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void offerWakesParkedWorker() throws InterruptedException {
+        final FlushSynchronizer synchronizer = new FlushSynchronizer();
+        final AtomicReference<AbstractSizeBoundedQueue> polled = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                polled.set(synchronizer.poll(TimeUnit.SECONDS.toNanos(10)));
+                done.countDown();
+            }
+        });
+        worker.start();
+        awaitParked(worker);
+
+        AbstractSizeBoundedQueue q = queue("a");
+        synchronizer.offer(q);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(q, polled.get());
+    }
+}
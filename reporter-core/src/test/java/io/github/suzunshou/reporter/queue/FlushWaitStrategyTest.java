@@ -0,0 +1,67 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FlushWaitStrategyTest {
+
+    private static final String[] NAMES = {"blocking", "sleeping", "yielding", "busy-spin", "phased-backoff"};
+    //strategies which end up parked, the others are running until the offer
+    private static final List<String> PARKING = Arrays.asList("blocking", "sleeping", "phased-backoff");
+
+    @Test
+    public void everyStrategyTakesAQueueOfferedWhileWaiting() throws InterruptedException {
+        for (String name : NAMES) {
+            final FlushSynchronizer synchronizer = new FlushSynchronizer(FlushWaitStrategy.of(name));
+            final AtomicReference<AbstractSizeBoundedQueue> polled = new AtomicReference<>();
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    polled.set(synchronizer.poll(TimeUnit.SECONDS.toNanos(10)));
+                    done.countDown();
+                }
+            });
+            worker.start();
+            assertTrue(name, started.await(5, TimeUnit.SECONDS));
+            if (PARKING.contains(name)) {
+                FlushSynchronizerTest.awaitParked(worker);
+            }
+
+            AbstractSizeBoundedQueue q =
+                    new RingSizeBoundedQueue(8, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+            synchronizer.offer(q);
+            assertTrue(name, done.await(5, TimeUnit.SECONDS));
+            assertSame(name, q, polled.get());
+        }
+    }
+
+    @Test
+    public void everyStrategyGivesUpAtTheTimeout() {
+        for (String name : NAMES) {
+            FlushSynchronizer synchronizer = new FlushSynchronizer(FlushWaitStrategy.of(name));
+            long start = System.nanoTime();
+            assertNull(name, synchronizer.poll(TimeUnit.MILLISECONDS.toNanos(20)));
+            long waited = System.nanoTime() - start;
+            assertTrue(name + " waited " + waited, waited >= TimeUnit.MILLISECONDS.toNanos(15));
+            assertTrue(name + " waited " + waited, waited < TimeUnit.SECONDS.toNanos(2));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownNameIsRejected() {
+        FlushWaitStrategy.of("sleepy");
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
+import io.github.suzunshou.reporter.concurrent.timer.Timeout;
+import io.github.suzunshou.reporter.concurrent.timer.TimerTask;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LingerTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(
+            ReporterExecutors.daemonThreadFactory("LingerTimerTest-"), 1, TimeUnit.MILLISECONDS, 64);
+    private final AtomicInteger lingered = new AtomicInteger();
+    private final CountDownLatch firstLinger = new CountDownLatch(1);
+    private final LingerTimer lingerTimer = new LingerTimer(timer, TimeUnit.MILLISECONDS.toNanos(20)) {
+        @Override
+        protected void onLinger(AbstractSizeBoundedQueue queue) {
+            lingered.incrementAndGet();
+            firstLinger.countDown();
+        }
+    };
+    private final RingSizeBoundedQueue queue =
+            new RingSizeBoundedQueue(8, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+
+    @After
+    public void stop() {
+        timer.stop();
+    }
+
+    private void offer(int id) {
+        MessagePromise<?> promise = new DefaultMessagePromise<Void>(new TestMessage(id));
+        queue.offer(promise);
+        lingerTimer.arm(queue);
+    }
+
+    /**
+     * wait until a timeout scheduled well after the linger deadline ran, the wheel runs earlier
+     * deadlines first so a deadline which is still armed has fired by then.
+     */
+    private void awaitPastLinger() throws InterruptedException {
+        final CountDownLatch probe = new CountDownLatch(1);
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                probe.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(probe.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void oneDeadlinePerQueue() throws InterruptedException {
+        offer(0);
+        offer(1);
+        offer(2);
+        assertEquals(1, timer.pendingTimeouts());
+
+        assertTrue(firstLinger.await(5, TimeUnit.SECONDS));
+        awaitPastLinger();
+        assertEquals(1, lingered.get());
+        assertNull(queue.lingerTimeout());
+    }
+
+    @Test
+    public void drainingEmptyDisarms() throws InterruptedException {
+        offer(0);
+        queue.drainTo(new ArrayList<MessagePromise<?>>(), 8);
+        lingerTimer.drained(queue);
+        assertNull(queue.lingerTimeout());
+
+        awaitPastLinger();
+        assertEquals(0, lingered.get());
+    }
+
+    @Test
+    public void leftoversReArm() throws InterruptedException {
+        offer(0);
+        offer(1);
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        queue.drainTo(drained, 1);
+        lingerTimer.drained(queue);
+        assertNotNull(queue.lingerTimeout());
+
+        assertTrue(firstLinger.await(5, TimeUnit.SECONDS));
+        assertEquals(1, lingered.get());
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.suzunshou.reporter.queue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void childBorrowsIdleCapacityButNotReservations() {
+        MemoryBudget budget = MemoryBudget.create(100);
+        MemoryLimiter hot = budget.newLimiter(30, 0, 100, 0);
+        MemoryLimiter idle = budget.newLimiter(30, 0, 100, 0);
+
+        //30 reserved plus the 40 nobody reserved
+        hot.add(69, 0);
+        assertFalse(hot.isMaximum());
+        hot.add(1, 0);
+        assertTrue(hot.isMaximum());
+
+        //the reservation of the idle reporter is still there
+        idle.add(29, 0);
+        assertFalse(idle.isMaximum());
+        assertEquals(99, budget.messages());
+    }
+
+    @Test
+    public void closedChildGivesItsReservationBack() {
+        MemoryBudget budget = MemoryBudget.create(100);
+        MemoryLimiter first = budget.newLimiter(60, 0, 100, 0);
+        try {
+            budget.newLimiter(50, 0, 100, 0);
+            fail("reservations exceed the budget");
+        } catch (IllegalArgumentException expected) {
+        }
+        first.close();
+        MemoryLimiter second = budget.newLimiter(50, 0, 100, 0);
+        second.add(50, 0);
+        assertFalse(second.isMaximum());
+    }
+
+    @Test
+    public void byteBudgetIsSharedToo() {
+        MemoryBudget budget = MemoryBudget.create(1000, 1024);
+        MemoryLimiter first = budget.newLimiter(0, 512, 1000, 0);
+        MemoryLimiter second = budget.newLimiter(0, 256, 1000, 0);
+
+        first.add(1, 512 + 256);
+        assertTrue(first.isMaximum());
+        second.add(1, 255);
+        assertFalse(second.isMaximum());
+    }
+
+    @Test
+    public void releasingBelowTheReservationReturnsBorrowedCapacity() {
+        MemoryBudget budget = MemoryBudget.create(100);
+        MemoryLimiter hot = budget.newLimiter(30, 0, 100, 0);
+        MemoryLimiter other = budget.newLimiter(30, 0, 100, 0);
+
+        //hot borrows all 40 unreserved, then drops back below its reservation in one release
+        hot.add(70, 0);
+        other.add(31, 0);
+        assertTrue(other.isMaximum());
+        hot.add(-50, 0);
+        assertFalse(other.isMaximum());
+
+        //a closed child keeps its borrowed share until its messages are released
+        other.add(39, 0);
+        other.close();
+        MemoryLimiter next = budget.newLimiter(30, 0, 100, 0);
+        next.add(30, 0);
+        assertTrue(next.isMaximum());
+        other.add(-70, 0);
+        assertFalse(next.isMaximum());
+    }
+
+    @Test
+    public void releaseOfOneChildWakesASiblingWaitingOnTheBudget() throws Exception {
+        MemoryBudget budget = MemoryBudget.create(100);
+        MemoryLimiter hot = budget.newLimiter(30, 0, 100, 0);
+        final MemoryLimiter other = budget.newLimiter(30, 0, 100, 0);
+        hot.add(70, 0);
+        other.add(31, 0);
+
+        final boolean[] room = new boolean[1];
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                room[0] = other.blockWhenMaximum(TimeUnit.SECONDS.toNanos(5));
+            }
+        });
+        long start = System.nanoTime();
+        waiter.start();
+        long deadline = start + TimeUnit.SECONDS.toNanos(5);
+        while (waiter.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        hot.add(-50, 0);
+        hot.signalAll();
+        waiter.join();
+        assertTrue(room[0]);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
+import io.github.suzunshou.reporter.concurrent.timer.TimeDriven;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryLimiterTest {
+
+    @Test
+    public void limiterWrittenAgainstTheOldContractStillWorks() {
+        //implements what the abstract class asked for before the counting methods came along
+        final boolean[] full = {true};
+        MemoryLimiter limiter = new MemoryLimiter() {
+            @Override
+            public boolean isMaximum() {
+                return full[0];
+            }
+
+            @Override
+            public void signalAll() {
+            }
+        };
+        limiter.add(1, 1);
+        assertEquals(0, limiter.messages());
+        assertFalse(limiter.blockWhenMaximum(TimeUnit.MILLISECONDS.toNanos(5)));
+        full[0] = false;
+        assertTrue(limiter.blockWhenMaximum(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void blockWhenMaximumGivesUpAfterTheTimeout() {
+        MemoryLimiter limiter = MemoryLimiter.create(1);
+        limiter.add(1, 0);
+        long start = System.nanoTime();
+        assertFalse(limiter.blockWhenMaximum(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        limiter.add(-1, 0);
+        assertTrue(limiter.blockWhenMaximum(TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    /**
+     * frees one message once the waiter is blocked on the limiter, or after a deadline so the
+     * releaser never spins forever.
+     */
+    private static Runnable releaseOnceBlocked(final MemoryLimiter limiter, final Thread waiter) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (waiter.getState() != Thread.State.TIMED_WAITING && System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+                limiter.add(-1, 0);
+                limiter.signalAll();
+            }
+        };
+    }
+
+    @Test
+    public void blockWhenMaximumWakesUpOnceRoomIsFreed() throws InterruptedException {
+        final MemoryLimiter limiter = MemoryLimiter.create(1);
+        limiter.add(1, 0);
+        Thread releaser = new Thread(releaseOnceBlocked(limiter, Thread.currentThread()));
+        releaser.start();
+        assertTrue(limiter.blockWhenMaximum(TimeUnit.SECONDS.toNanos(10)));
+        releaser.join();
+    }
+
+    @Test
+    public void clearingTheQueueManagerReleasesTheLimiter() {
+        MemoryLimiter limiter = MemoryLimiter.create(100, 0);
+        HashedWheelTimer timer = new HashedWheelTimer(Executors.defaultThreadFactory(), 10, TimeUnit.MILLISECONDS, 64);
+        try {
+            QueueManager queueManager = new QueueManager(10, 0, OverflowStrategy.Type.DropNew, TimeUnit.MINUTES.toNanos(1),
+                    new NoTimers(), ReporterMetrics.NOOP_METRICS, timer, new ConcurrentSizeBoundedQueueFactory(), limiter);
+            AbstractSizeBoundedQueue queue = queueManager.getOrCreate(TestMessage.KEY);
+            MessagePromise<?> promise = new DefaultMessagePromise<Void>(new TestMessage(0, TestMessage.KEY, 64));
+            queue.offer(promise);
+            queue.offer(new DefaultMessagePromise<Void>(new TestMessage(1, TestMessage.KEY, 64)));
+            assertEquals(2, limiter.messages());
+            assertEquals(128, limiter.bytes());
+
+            assertEquals(2, queueManager.clear());
+            assertEquals(0, limiter.messages());
+            assertEquals(0, limiter.bytes());
+            assertTrue(promise.cause() instanceof MessageDroppedException);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private static final class NoTimers extends TimeDriven<Message.MessageKey> {
+        @Override
+        protected void onTimer(Message.MessageKey timerKey) {
+        }
+
+        @Override
+        protected ScheduledExecutorService scheduler() {
+            return null;
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedOverloadsStillLimit() throws InterruptedException {
+        final MemoryLimiter limiter = MemoryLimiter.create(1, ReporterMetrics.NOOP_METRICS);
+        limiter.add(1, 0);
+        assertTrue(limiter.isMaximum());
+        Thread releaser = new Thread(releaseOnceBlocked(limiter, Thread.currentThread()));
+        releaser.start();
+        limiter.blockWhenMaximum();
+        assertFalse(limiter.isMaximum());
+        releaser.join();
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MpscSizeBoundedQueueTest {
+
+    private static MessagePromise<?> promise(int id) {
+        return new DefaultMessagePromise<Void>(new TestMessage(id));
+    }
+
+    private static int id(MessagePromise<?> promise) {
+        return ((TestMessage) promise.message()).id;
+    }
+
+    @Test
+    public void dropTailKeepsFifoOrderAcrossPartialDrains() {
+        MpscSizeBoundedQueue queue = new MpscSizeBoundedQueue(4, 0, TestMessage.KEY, OverflowStrategy.Type.DropTail);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(promise(i));
+        }
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 2));
+        //the swap slot moves behind the ring once there is room
+        queue.offer(promise(4));
+        queue.offer(promise(5));
+        assertEquals(4, queue.size());
+        assertEquals(4, queue.drainTo(drained, 10));
+        assertTrue(queue.isEmpty());
+
+        List<Integer> ids = new ArrayList<>();
+        for (MessagePromise<?> promise : drained) {
+            ids.add(id(promise));
+            assertFalse(promise.isDone());
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), ids);
+    }
+
+    @Test
+    public void dropTailDropsTheYoungestQueuedMessage() {
+        MpscSizeBoundedQueue queue = new MpscSizeBoundedQueue(3, 0, TestMessage.KEY, OverflowStrategy.Type.DropTail);
+        List<MessagePromise<?>> offered = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MessagePromise<?> promise = promise(i);
+            offered.add(promise);
+            queue.offer(promise);
+        }
+        assertEquals(3, queue.size());
+        //2 and 3 were replaced by younger messages
+        assertTrue(offered.get(2).cause() instanceof MessageDroppedException);
+        assertTrue(offered.get(3).cause() instanceof MessageDroppedException);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 10));
+        assertEquals(0, id(drained.get(0)));
+        assertEquals(1, id(drained.get(1)));
+        assertEquals(4, id(drained.get(2)));
+    }
+
+    @Test
+    public void refusedSwapSlotStaysQueued() {
+        MpscSizeBoundedQueue queue = new MpscSizeBoundedQueue(2, 0, TestMessage.KEY, OverflowStrategy.Type.DropTail);
+        queue.offer(promise(0));
+        MessagePromise<?> youngest = promise(1);
+        queue.offer(youngest);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(1, queue.drainTo(drained, 1));
+        assertEquals(1, queue.size());
+        assertFalse(youngest.isDone());
+        assertEquals(1, queue.drainTo(drained, 1));
+        assertEquals(1, id(drained.get(1)));
+    }
+
+    @Test
+    public void byteCappedDrainTakesAHeavyHead() {
+        MpscSizeBoundedQueue queue = new MpscSizeBoundedQueue(16, 0, TestMessage.KEY, OverflowStrategy.Type.DropTail);
+        queue.offer(new DefaultMessagePromise<Void>(new TestMessage(0, TestMessage.KEY, 500)));
+        for (int i = 1; i < 4; i++) {
+            queue.offer(new DefaultMessagePromise<Void>(new TestMessage(i, TestMessage.KEY, 40)));
+        }
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(1, queue.drainTo(drained, 10, 100));
+        //three messages of 40 bytes exceed the cap of 100
+        assertEquals(2, queue.drainTo(drained, 10, 100));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void dropTailKeepsTheByteBound() {
+        MpscSizeBoundedQueue queue = new MpscSizeBoundedQueue(16, 100, TestMessage.KEY, OverflowStrategy.Type.DropTail);
+        List<MessagePromise<?>> offered = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MessagePromise<?> promise = new DefaultMessagePromise<Void>(new TestMessage(i, TestMessage.KEY, 40));
+            offered.add(promise);
+            queue.offer(promise);
+            //the swap slot may hold one message beyond the bound
+            assertTrue("bytes " + queue.bytes(), queue.bytes() <= 100 + 40);
+        }
+        assertEquals(3, queue.size());
+        int dropped = 0;
+        for (MessagePromise<?> promise : offered) {
+            if (promise.isDone()) {
+                dropped++;
+            }
+        }
+        assertEquals(7, dropped);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        queue.drainTo(drained, 10);
+        assertEquals(9, id(drained.get(2)));
+    }
+}
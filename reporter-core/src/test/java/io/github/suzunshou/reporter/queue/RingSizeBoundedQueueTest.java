@@ -0,0 +1,135 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RingSizeBoundedQueueTest {
+
+    private static MessagePromise<?> promise(int id) {
+        return new DefaultMessagePromise<Void>(new TestMessage(id));
+    }
+
+    private static int id(MessagePromise<?> promise) {
+        return ((TestMessage) promise.message()).id;
+    }
+
+    @Test
+    public void batchOfferAndBulkDrainKeepOrder() {
+        RingSizeBoundedQueue queue = new RingSizeBoundedQueue(8, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+        List<MessagePromise<?>> batch = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            batch.add(promise(i));
+        }
+        queue.offer(batch);
+        assertEquals(6, queue.size());
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 4));
+        assertEquals(2, queue.drainTo(drained, 4));
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, id(drained.get(i)));
+        }
+    }
+
+    @Test
+    public void batchLargerThanTheRoomFallsBackPerMessage() {
+        RingSizeBoundedQueue queue = new RingSizeBoundedQueue(4, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+        List<MessagePromise<?>> batch = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            batch.add(promise(i));
+        }
+        queue.offer(batch);
+        assertEquals(4, queue.size());
+        assertTrue(batch.get(4).cause() instanceof MessageDroppedException);
+        assertTrue(batch.get(5).cause() instanceof MessageDroppedException);
+    }
+
+    @Test
+    public void dropHeadFailsTheOldestMessage() {
+        RingSizeBoundedQueue queue = new RingSizeBoundedQueue(2, 0, TestMessage.KEY, OverflowStrategy.Type.DropHead);
+        MessagePromise<?> oldest = promise(0);
+        queue.offer(oldest);
+        queue.offer(promise(1));
+        queue.offer(promise(2));
+        assertTrue(oldest.cause() instanceof MessageDroppedException);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 10));
+        assertEquals(1, id(drained.get(0)));
+        assertEquals(2, id(drained.get(1)));
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final RingSizeBoundedQueue queue = new RingSizeBoundedQueue(1024, 0, TestMessage.KEY, OverflowStrategy.Type.BackPressure);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(promise(base + i));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+
+        //every producer's messages come out in the order it offered them
+        int[] last = new int[producers];
+        for (int p = 0; p < producers; p++) {
+            last[p] = p * perProducer - 1;
+        }
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        int total = 0;
+        while (total < producers * perProducer) {
+            drained.clear();
+            total += queue.drainTo(drained, 256);
+            for (MessagePromise<?> promise : drained) {
+                int id = id(promise);
+                int p = id / perProducer;
+                assertEquals(last[p] + 1, id);
+                last[p] = id;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void ringIsAllocatedByTheFirstOffer() {
+        //eagerly allocating 2^30 slots would not fit the test heap
+        RingSizeBoundedQueue queue = new RingSizeBoundedQueue(RingSizeBoundedQueue.MAX_CAPACITY, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drainTo(new ArrayList<MessagePromise<?>>(), 10));
+        assertEquals(0, queue.clear());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxSizeAboveTheLargestRingIsRejected() {
+        new RingSizeBoundedQueue(RingSizeBoundedQueue.MAX_CAPACITY + 1, 0, TestMessage.KEY, OverflowStrategy.Type.DropNew);
+    }
+}
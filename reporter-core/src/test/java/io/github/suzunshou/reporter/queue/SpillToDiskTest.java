@@ -0,0 +1,220 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.buffers.BufferFilter;
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.VoidMessagePromise;
+import io.github.suzunshou.reporter.reporter.AsyncReporter;
+import io.github.suzunshou.reporter.reporter.DeadLetterHandler;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.ReporterMetrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpillToDiskTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Message> deadLetters = new ArrayList<>();
+
+    private File spillFolder;
+
+    private ConcurrentSizeBoundedQueue newQueue() throws IOException {
+        return newQueue(0);
+    }
+
+    private ConcurrentSizeBoundedQueue newQueue(long maxBytes) throws IOException {
+        spillFolder = folder.newFolder();
+        ConcurrentSizeBoundedQueue queue = new ConcurrentSizeBoundedQueue(2, TestMessage.KEY, OverflowStrategy.Type.SpillToDisk);
+        queue.spillTo(new MappedSpill(spillFolder, 4096, maxBytes), ReporterMetrics.NOOP_METRICS, new DeadLetterHandler() {
+            @Override
+            public void onDropped(MessageDroppedException dropped) {
+                deadLetters.addAll(dropped.droppedMessages());
+            }
+        });
+        return queue;
+    }
+
+    private static int id(Message message) {
+        return ((TestMessage) message).id;
+    }
+
+    @Test
+    public void spilledMessagesDrainInArrivalOrder() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        List<MessagePromise<?>> offered = offer(queue, 4);
+        assertEquals(4, queue.size());
+        //spilled messages are not reported sent before they are
+        assertFalse(offered.get(2).isDone());
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 10));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, id(drained.get(i).message()));
+        }
+        //the caller's promise comes back and completes with the send
+        assertTrue(drained.get(3) == offered.get(3));
+        drained.get(3).setSuccess();
+        assertTrue(offered.get(3).isSuccess());
+    }
+
+    @Test
+    public void onlyQueueSizeCallersWaitForTheirSpilledMessages() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        List<MessagePromise<?>> offered = offer(queue, 6);
+        assertFalse(offered.get(3).isDone());
+        //the rest is only kept on disk, never reported sent
+        assertTrue(offered.get(4).cause() instanceof MessageSpilledException);
+        assertTrue(offered.get(5).cause() instanceof MessageSpilledException);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(6, queue.drainTo(drained, 10));
+        assertTrue(drained.get(3) == offered.get(3));
+        assertEquals(5, id(drained.get(5).message()));
+        assertTrue(VoidMessagePromise.isVoid(drained.get(5)));
+    }
+
+    @Test
+    public void filteredDrainHandsOutEachSpilledPromiseOnce() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        for (int i = 0; i < 4; i++) {
+            queue.offer(new VoidMessagePromise<Void>(new TestMessage(i), ReporterMetrics.NOOP_METRICS, null));
+        }
+        final List<MessagePromise<?>> accepted = new ArrayList<>();
+        queue.drainTo(new BufferFilter<MessagePromise<?>>() {
+            @Override
+            public boolean accept(MessagePromise<?> promise) {
+                accepted.add(promise);
+                return accepted.size() < 4;
+            }
+        });
+        //the rejected spilled message is drained next with the promise the filter saw
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(1, queue.drainTo(drained, 10));
+        assertTrue(drained.get(0) == accepted.get(3));
+    }
+
+    @Test
+    public void unreadableRecordFailsItsOwnPromise() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        List<MessagePromise<?>> offered = offer(queue, 2);
+        queue.offer(new VoidMessagePromise<Void>(new TestMessage(2), ReporterMetrics.NOOP_METRICS, null));
+        offered.add(null);
+        offered.addAll(offer(queue, 2));
+        corruptSpilledRecord(1);
+
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained, 10));
+        assertTrue(VoidMessagePromise.isVoid(drained.get(2)));
+        assertTrue(offered.get(3).cause() instanceof MessageDroppedException);
+        //the records behind the unreadable one still complete their own callers
+        assertTrue(drained.get(3) == offered.get(4));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void messageOverTheDiskBudgetIsDropped() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue(4096);
+        List<MessagePromise<?>> offered = offer(queue, 100);
+        MessagePromise<?> last = offered.get(99);
+        assertTrue(last.cause() instanceof MessageDroppedException);
+        assertTrue(((MessageDroppedException) last.cause()).isOverflow());
+        assertTrue(queue.size() < 100);
+    }
+
+    private static List<MessagePromise<?>> offer(ConcurrentSizeBoundedQueue queue, int count) {
+        List<MessagePromise<?>> offered = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MessagePromise<?> promise = new DefaultMessagePromise<Void>(new TestMessage(i));
+            offered.add(promise);
+            queue.offer(promise);
+        }
+        return offered;
+    }
+
+    /**
+     * overwrite the serialized message of the index-th spilled record, its header stays intact.
+     */
+    private void corruptSpilledRecord(int index) throws IOException {
+        File[] segments = spillFolder.listFiles();
+        assertEquals(1, segments.length);
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            long position = 0;
+            for (int i = 0; i < index; i++) {
+                file.seek(position);
+                position += 12 + file.readInt();
+            }
+            file.seek(position + 12);
+            file.writeInt(0);
+        }
+    }
+
+    @Test
+    public void spilledVoidPromiseIsReadBackAsVoid() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new VoidMessagePromise<Void>(new TestMessage(i), ReporterMetrics.NOOP_METRICS, null));
+        }
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 10));
+        assertEquals(2, id(drained.get(2).message()));
+        assertTrue(VoidMessagePromise.isVoid(drained.get(2)));
+    }
+
+    @Test
+    public void failedSpilledMessageReachesTheDeadLetterHandler() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new VoidMessagePromise<Void>(new TestMessage(i), ReporterMetrics.NOOP_METRICS, null));
+        }
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        queue.drainTo(drained, 10);
+
+        Message spilled = drained.get(2).message();
+        drained.get(2).setFailure(MessageDroppedException.dropped(new IOException("sink down"), Collections.singletonList(spilled)));
+        assertEquals(1, deadLetters.size());
+        assertEquals(2, id(deadLetters.get(0)));
+    }
+
+    @Test
+    public void closeDropsSpilledMessagesInsteadOfLosingThem() throws IOException {
+        ConcurrentSizeBoundedQueue queue = newQueue();
+        List<MessagePromise<?>> offered = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MessagePromise<?> promise = new DefaultMessagePromise<Void>(new TestMessage(i));
+            offered.add(promise);
+            queue.offer(promise);
+        }
+        queue.offer(new VoidMessagePromise<Void>(new TestMessage(4), ReporterMetrics.NOOP_METRICS, null));
+        queue.close();
+        assertFalse(offered.get(1).isDone());
+        assertTrue(offered.get(2).cause() instanceof MessageDroppedException);
+        assertTrue(offered.get(3).cause() instanceof MessageDroppedException);
+        assertEquals(1, deadLetters.size());
+        assertEquals(4, id(deadLetters.get(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reporterRejectsAFactoryWhichCanNotSpill() throws IOException {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(new RecordingSender());
+        builder.overflowStrategy(OverflowStrategy.Type.SpillToDisk);
+        builder.spillDirectory(SpillDirectory.create(folder.newFolder()));
+        builder.queueFactory(new RingSizeBoundedQueueFactory());
+        builder.build();
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.suzunshou.reporter.queue;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.reporter.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(((TestMessage) message).id);
+        }
+        return ids;
+    }
+
+    //the ack record may roll a segment of its own, so look at the data segments by name
+    private static List<File> dataSegments(File directory) {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    private static void assertOnlyDeleted(List<File> files, int deleted) {
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(files.get(i).getName(), i != deleted, files.get(i).exists());
+        }
+    }
+
+    @Test
+    public void unackedMessagesAreRecovered() throws IOException {
+        File directory = folder.newFolder();
+        WriteAheadLog log = WriteAheadLog.open(directory, 1024 * 1024, true);
+        long first = log.append(new TestMessage(0));
+        log.awaitCommitted(log.append(new TestMessage(1)));
+        log.ack(first);
+        log.close();
+
+        log = WriteAheadLog.open(directory, 1024 * 1024, true);
+        try {
+            assertEquals(Collections.singletonList(1), ids(log.recover()));
+            //only the first call hands them out
+            assertTrue(log.recover().isEmpty());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void ackedSegmentInTheMiddleIsDeleted() throws IOException {
+        File directory = folder.newFolder();
+        //every record rolls a segment of its own
+        WriteAheadLog log = WriteAheadLog.open(directory, 64, true);
+        long[] seqs = new long[4];
+        for (int i = 0; i < seqs.length; i++) {
+            seqs[i] = log.append(new TestMessage(i));
+            log.awaitCommitted(seqs[i]);
+        }
+        List<File> files = dataSegments(directory);
+        assertEquals(4, files.size());
+
+        log.ack(seqs[1]);
+        //the head is still unacked, the acked segment after it goes anyway
+        assertOnlyDeleted(files, 1);
+        log.close();
+
+        log = WriteAheadLog.open(directory, 64, true);
+        try {
+            assertEquals(Arrays.asList(0, 2, 3), ids(log.recover()));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void droppedMessageKeepsItsSegment() throws IOException {
+        File directory = folder.newFolder();
+        //every record rolls a segment of its own
+        WalSizeBoundedQueueFactory factory = new WalSizeBoundedQueueFactory(directory, 64, true);
+        try {
+            AbstractSizeBoundedQueue queue = factory.newSizeBoundedQueue(10, OverflowStrategy.Type.DropNew, TestMessage.KEY);
+            for (int i = 0; i < 4; i++) {
+                queue.offer(new DefaultMessagePromise<Void>(new TestMessage(i)));
+            }
+            List<MessagePromise<?>> drained = new ArrayList<>();
+            queue.drainTo(drained, 10);
+            List<File> files = dataSegments(directory);
+            assertEquals(4, files.size());
+
+            drained.get(1).setFailure(MessageDroppedException.dropped(OverflowStrategy.Type.DropHead.getStrategy(),
+                    drained.get(1).message()));
+            drained.get(2).setSuccess(null);
+            //only the sent message releases its segment
+            assertOnlyDeleted(files, 2);
+        } finally {
+            factory.close();
+        }
+    }
+
+    @Test
+    public void onlySentMessagesAreReleased() throws IOException {
+        File directory = folder.newFolder();
+        WalSizeBoundedQueueFactory factory = new WalSizeBoundedQueueFactory(directory, 1024 * 1024, true);
+        AbstractSizeBoundedQueue queue = factory.newSizeBoundedQueue(10, OverflowStrategy.Type.DropNew, TestMessage.KEY);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(new DefaultMessagePromise<Void>(new TestMessage(i)));
+        }
+        List<MessagePromise<?>> drained = new ArrayList<>();
+        queue.drainTo(drained, 10);
+
+        //a failed message is kept for the next start
+        drained.get(0).setFailure(new IOException("sink rejected it"));
+        drained.get(1).setSuccess(null);
+        queue.close();
+        drained.get(2).setFailure(new IllegalStateException("closed"));
+        factory.close();
+
+        factory = new WalSizeBoundedQueueFactory(directory, 1024 * 1024, true);
+        try {
+            assertEquals(Arrays.asList(0, 2), ids(factory.recover()));
+        } finally {
+            factory.close();
+        }
+    }
+}
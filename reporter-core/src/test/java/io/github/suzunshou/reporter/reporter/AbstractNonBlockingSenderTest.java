@@ -0,0 +1,51 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AbstractNonBlockingSenderTest {
+
+    private static AbstractNonBlockingSender<TestMessage, Integer> sender(final boolean answer) {
+        return new AbstractNonBlockingSender<TestMessage, Integer>(50, TimeUnit.MILLISECONDS) {
+            @Override
+            public void send(List<TestMessage> messages, SendCallback<Integer> callback) {
+                if (answer) {
+                    callback.onSuccess(Collections.nCopies(messages.size(), 1));
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+    }
+
+    @Test
+    public void blockingSendReturnsTheCallbackResults() {
+        List<Integer> results = sender(true).send(Arrays.asList(new TestMessage(0), new TestMessage(1)));
+        assertEquals(Arrays.asList(1, 1), results);
+    }
+
+    @Test
+    public void batchWithoutOutcomeFailsAtTheTimeout() {
+        long start = System.nanoTime();
+        try {
+            sender(false).send(Collections.singletonList(new TestMessage(0)));
+            fail("send returned without an outcome");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+public class BatchCompletionTest {
+
+    private volatile boolean answerNull;
+    private final DefaultAsyncSender<TestMessage, Integer> sender =
+            new DefaultAsyncSender<>(new Sender<TestMessage, Integer>() {
+                @Override
+                public List<Integer> send(List<TestMessage> messages) {
+                    if (answerNull) {
+                        return null;
+                    }
+                    List<Integer> ids = new ArrayList<>(messages.size());
+                    for (TestMessage message : messages) {
+                        ids.add(message.id);
+                    }
+                    return ids;
+                }
+
+                @Override
+                public void close() {
+                }
+            }, 1, new TestMetrics());
+
+    @After
+    public void close() throws IOException {
+        sender.close();
+    }
+
+    private static List<MessagePromise<Integer>> promises(int size) {
+        List<MessagePromise<Integer>> promises = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            promises.add(new DefaultMessagePromise<Integer>(new TestMessage(i)));
+        }
+        return promises;
+    }
+
+    @Test
+    public void nullResultFailsTheBatch() {
+        answerNull = true;
+        List<MessagePromise<Integer>> promises = promises(3);
+        sender.send(promises);
+        for (MessagePromise<Integer> promise : promises) {
+            promise.awaitUninterruptibly();
+            assertTrue(promise.cause() instanceof MessageDroppedException);
+        }
+    }
+
+    @Test
+    public void promiseCompletedElsewhereDoesNotStrandTheOthers() {
+        List<MessagePromise<Integer>> promises = promises(3);
+        promises.get(1).setFailure(new IllegalStateException("given up"));
+        sender.send(promises);
+        promises.get(0).awaitUninterruptibly();
+        promises.get(2).awaitUninterruptibly();
+        assertTrue(promises.get(0).isSuccess());
+        assertTrue(promises.get(2).cause() instanceof MessageDroppedException);
+    }
+}
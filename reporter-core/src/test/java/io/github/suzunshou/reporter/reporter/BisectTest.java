@@ -0,0 +1,94 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BisectTest {
+
+    private static final int POISON = 3;
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile RuntimeException failure;
+    private final DefaultAsyncSender<TestMessage, Integer> sender =
+            new DefaultAsyncSender<>(new Sender<TestMessage, Integer>() {
+                @Override
+                public List<Integer> send(List<TestMessage> messages) {
+                    calls.incrementAndGet();
+                    List<Integer> ids = new ArrayList<>(messages.size());
+                    for (TestMessage message : messages) {
+                        if (message.id == POISON || failure != null) {
+                            throw failure != null ? failure : new RejectedBatchException("poison");
+                        }
+                        ids.add(message.id);
+                    }
+                    return ids;
+                }
+
+                @Override
+                public void close() {
+                }
+            }, 1, new TestMetrics());
+
+    @After
+    public void close() throws IOException {
+        sender.close();
+    }
+
+    private List<MessagePromise<Integer>> sendBatch(int size) {
+        List<MessagePromise<Integer>> promises = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            promises.add(new DefaultMessagePromise<Integer>(new TestMessage(i)));
+        }
+        sender.send(promises);
+        //the composite fails with the first failed message, wait for all of them
+        for (MessagePromise<Integer> promise : promises) {
+            promise.awaitUninterruptibly();
+        }
+        return promises;
+    }
+
+    @Test
+    public void rejectedMessageIsIsolated() {
+        sender.bisect(true);
+        List<MessagePromise<Integer>> promises = sendBatch(8);
+        for (int i = 0; i < promises.size(); i++) {
+            assertEquals("message " + i, i != POISON, promises.get(i).isSuccess());
+        }
+    }
+
+    @Test
+    public void otherFailuresAreNotBisected() {
+        sender.bisect(true);
+        failure = new IllegalStateException("sink down");
+        List<MessagePromise<Integer>> promises = sendBatch(8);
+        assertEquals(1, calls.get());
+        for (MessagePromise<Integer> promise : promises) {
+            assertFalse(promise.isSuccess());
+        }
+    }
+
+    @Test
+    public void splitsAreCapped() {
+        sender.bisect(1);
+        List<MessagePromise<Integer>> promises = sendBatch(8);
+        //one split: the half with the poison fails as a whole, the other half is sent
+        assertEquals(3, calls.get());
+        for (int i = 0; i < promises.size(); i++) {
+            assertEquals("message " + i, i >= 4, promises.get(i).isSuccess());
+        }
+        assertTrue(RejectedBatchException.isRejection(promises.get(0).cause()));
+    }
+}
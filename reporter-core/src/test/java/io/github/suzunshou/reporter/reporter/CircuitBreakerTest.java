@@ -0,0 +1,100 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.CompositeFuture;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final Message.MessageKey OTHER = new TestMessage.Key("other");
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean failing = true;
+    private final DefaultAsyncSender<TestMessage, Integer> sender =
+            new DefaultAsyncSender<>(new Sender<TestMessage, Integer>() {
+                @Override
+                public List<Integer> send(List<TestMessage> messages) {
+                    calls.incrementAndGet();
+                    if (failing) {
+                        throw new IllegalStateException("sink down");
+                    }
+                    return Collections.nCopies(messages.size(), 1);
+                }
+
+                @Override
+                public void close() {
+                }
+            }, 1, new TestMetrics());
+    private final HashedWheelTimer timer = new HashedWheelTimer(
+            ReporterExecutors.daemonThreadFactory("CircuitBreakerTest-"), 1, TimeUnit.MILLISECONDS, 8);
+
+    @After
+    public void close() throws IOException {
+        sender.close();
+        timer.stop();
+    }
+
+    private static CircuitBreakerPolicy.Builder openAfterOneFailure() {
+        return CircuitBreakerPolicy.builder().windowSize(1).minimumCalls(1).failureRateThreshold(1);
+    }
+
+    private static List<MessagePromise<Integer>> batch(int id) {
+        return Collections.<MessagePromise<Integer>>singletonList(new DefaultMessagePromise<Integer>(new TestMessage(id)));
+    }
+
+    @Test
+    public void openBreakerIsNotRetried() {
+        RetryBudget budget = new RetryBudget(5, 0);
+        sender.retry(RetryPolicy.builder().maxAttempts(3).backoff(0, 0, TimeUnit.MILLISECONDS).budget(budget).build(), timer);
+        sender.circuitBreaker(openAfterOneFailure().openDuration(1, TimeUnit.MINUTES).build());
+
+        CompositeFuture future = sender.send(batch(0));
+        assertFalse(future.awaitUninterruptibly().isSuccess());
+        assertTrue(future.cause() instanceof MessageDroppedException);
+        assertTrue(future.cause().getCause() instanceof CircuitBreakerOpenException);
+        //the first failure opened the breaker, its retry found it open and gave up
+        assertEquals(1, calls.get());
+        assertEquals(4, budget.available(), 0.001);
+    }
+
+    @Test
+    public void holdingBreakerHandsOutItsTrialsWithTheSlots() {
+        sender.circuitBreaker(openAfterOneFailure().openDuration(1, TimeUnit.MILLISECONDS).halfOpenTrials(1)
+                .openAction(CircuitBreakerPolicy.OpenAction.HOLD).build());
+        assertTrue(sender.tryAcquire(TestMessage.KEY));
+        assertFalse(sender.send(TestMessage.KEY, batch(0)).awaitUninterruptibly().isSuccess());
+        //the breaker opened before the failure completed, so this outlasts its open duration
+        long failedAt = System.nanoTime();
+        while (System.nanoTime() - failedAt < TimeUnit.MILLISECONDS.toNanos(1)) {
+            Thread.yield();
+        }
+
+        //half-open with a single trial, the second key has to wait for it
+        assertTrue(sender.tryAcquire(TestMessage.KEY));
+        assertFalse(sender.tryAcquire(OTHER));
+        assertTrue(sender.isHolding());
+
+        sender.release(TestMessage.KEY);
+        assertTrue(sender.tryAcquire(OTHER));
+        failing = false;
+        assertTrue(sender.send(OTHER, batch(1)).awaitUninterruptibly().isSuccess());
+        assertEquals(CircuitBreaker.State.CLOSED, sender.circuitBreaker().state());
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CloseDeadLetterTest {
+
+    @Test
+    public void messagesLeftOnCloseAreFailedAndHandedOverOnce() throws Exception {
+        final List<Message> deadLetters = new CopyOnWriteArrayList<>();
+        TestMetrics metrics = new TestMetrics();
+        RecordingSender sender = new RecordingSender();
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(metrics);
+        builder.messageTimeout(0, TimeUnit.MILLISECONDS);
+        builder.bufferedMaxMessages(1);
+        builder.deadLetterHandler(new DeadLetterHandler() {
+            @Override
+            public void onDropped(MessageDroppedException dropped) {
+                deadLetters.addAll(dropped.droppedMessages());
+            }
+        });
+        AsyncReporter<TestMessage, Integer> reporter = builder.build();
+
+        MessageFuture<Integer> sent = reporter.report(new TestMessage(0));
+        MessageFuture<Integer> left = reporter.report(new TestMessage(1));
+        reporter.reportAndForget(new TestMessage(2));
+        //close flushes a single batch of one message
+        reporter.close();
+
+        assertTrue(sent.isSuccess());
+        assertTrue(left.isDone());
+        assertTrue(left.cause() instanceof MessageDroppedException);
+
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : deadLetters) {
+            ids.add(((TestMessage) message).id);
+        }
+        Collections.sort(ids);
+        assertEquals(Arrays.asList(1, 2), ids);
+        assertEquals(2, metrics.messagesDropped());
+    }
+}
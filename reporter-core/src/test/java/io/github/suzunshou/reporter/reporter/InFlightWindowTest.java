@@ -0,0 +1,178 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.CompositeFuture;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightWindowTest {
+
+    /**
+     * holds every send until it is opened.
+     */
+    static final class GatedSender extends RecordingSender {
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public List<Integer> send(List<TestMessage> messages) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.send(messages);
+        }
+    }
+
+    /**
+     * open the gate once the waiter blocks, or after a deadline if it never does.
+     */
+    private static void openOnceBlocked(final CountDownLatch gate, final Thread waiter) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (waiter.getState() == Thread.State.RUNNABLE && System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+                gate.countDown();
+            }
+        }).start();
+    }
+
+    @Test
+    public void windowOfOneKeepsTheSecondBatchQueued() {
+        InFlightWindow window = new InFlightWindow(1, 0);
+        assertTrue(window.tryAcquire(TestMessage.KEY));
+        assertFalse(window.tryAcquire(TestMessage.KEY));
+        assertTrue(window.isRefused(TestMessage.KEY));
+
+        window.release(TestMessage.KEY);
+        assertTrue(window.tryAcquire(TestMessage.KEY));
+    }
+
+    @Test
+    public void idleKeysGiveTheirWindowUp() {
+        InFlightWindow window = new InFlightWindow(1, 0);
+        for (int i = 0; i < 100; i++) {
+            Message.MessageKey key = new TestMessage.Key("key-" + i);
+            assertTrue(window.tryAcquire(key));
+            window.release(key);
+        }
+        assertEquals(0, window.keys());
+
+        //a retired window still bounds the key once it is used again
+        assertTrue(window.tryAcquire(TestMessage.KEY));
+        assertFalse(window.tryAcquire(TestMessage.KEY));
+        assertEquals(1, window.keys());
+    }
+
+    @Test
+    public void flushWaitsForAFullWindow() throws Exception {
+        GatedSender sender = new GatedSender();
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(0, TimeUnit.MILLISECONDS);
+        builder.bufferedMaxMessages(1);
+        builder.maxInFlightPerKey(1);
+        final AsyncReporter<TestMessage, Integer> reporter = builder.build();
+        try {
+            MessageFuture<Integer> first = reporter.report(new TestMessage(0));
+            MessageFuture<Integer> second = reporter.report(new TestMessage(1));
+            //the first batch takes the only slot of the key and waits at the gate
+            assertTrue(reporter.tryFlush(reporter.queueManager.get(TestMessage.KEY)) != null);
+
+            openOnceBlocked(sender.gate, Thread.currentThread());
+            reporter.flush();
+            assertTrue(first.isSuccess());
+            assertTrue(second.isSuccess());
+            assertEquals(2, sender.sent());
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test
+    public void sendsWithoutAKeyWaitForTheWindow() throws Exception {
+        GatedSender sender = new GatedSender();
+        final DefaultAsyncSender<TestMessage, Integer> asyncSender =
+                new DefaultAsyncSender<>(sender, 1, new TestMetrics());
+        try {
+            CompositeFuture first = asyncSender.send(promise(0));
+
+            final AtomicReference<CompositeFuture> second = new AtomicReference<>();
+            Thread submitter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    second.set(asyncSender.send(promise(1)));
+                }
+            });
+            submitter.start();
+            submitter.join(100);
+            assertTrue("second send did not wait", submitter.isAlive());
+
+            sender.gate.countDown();
+            submitter.join(5000);
+            assertTrue(first.awaitUninterruptibly().isSuccess());
+            assertTrue(second.get().awaitUninterruptibly().isSuccess());
+            assertEquals(2, sender.sent());
+        } finally {
+            asyncSender.close();
+        }
+    }
+
+    @Test
+    public void lostCallbackGivesTheSlotBackAtTheDeadline() throws Exception {
+        NonBlockingSender<TestMessage, Integer> silent = new AbstractNonBlockingSender<TestMessage, Integer>() {
+            @Override
+            public void send(List<TestMessage> messages, SendCallback<Integer> callback) {
+                //the callback is lost
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        HashedWheelTimer timer = new HashedWheelTimer(
+                ReporterExecutors.daemonThreadFactory("InFlightWindowTest-"), 1, TimeUnit.MILLISECONDS, 8);
+        DefaultAsyncSender<TestMessage, Integer> asyncSender =
+                new DefaultAsyncSender<>(silent, 1, new TestMetrics(), 1, 0);
+        asyncSender.sendTimeout(20, TimeUnit.MILLISECONDS, timer);
+        try {
+            for (int i = 0; i < 3; i++) {
+                //the slot is given back right after the promises are failed
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (!asyncSender.tryAcquire(TestMessage.KEY)) {
+                    assertTrue("slot of batch " + i + " not given back", System.nanoTime() < deadline);
+                    Thread.yield();
+                }
+                CompositeFuture future = asyncSender.send(TestMessage.KEY, promise(i));
+                assertFalse(future.awaitUninterruptibly().isSuccess());
+                assertTrue(future.cause().getCause() instanceof TimeoutException);
+            }
+        } finally {
+            asyncSender.close();
+            timer.stop();
+        }
+    }
+
+    private static List<MessagePromise<Integer>> promise(int id) {
+        return Collections.<MessagePromise<Integer>>singletonList(new DefaultMessagePromise<Integer>(new TestMessage(id)));
+    }
+}
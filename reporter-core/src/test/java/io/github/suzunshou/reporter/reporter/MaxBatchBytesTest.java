@@ -0,0 +1,43 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MaxBatchBytesTest {
+
+    @Test
+    public void reporterFlushesAndCutsBatchesByBytes() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(50, TimeUnit.MILLISECONDS);
+        builder.maxBatchBytes(100);
+        AsyncReporter<TestMessage, Integer> reporter = builder.build();
+        try {
+            List<MessageFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(reporter.report(new TestMessage(i, TestMessage.KEY, 40)));
+            }
+            for (MessageFuture<Integer> future : futures) {
+                assertTrue(future.await(5, TimeUnit.SECONDS));
+                assertTrue(future.isSuccess());
+            }
+        } finally {
+            reporter.close();
+        }
+        assertEquals(10, sender.sent());
+        for (List<TestMessage> batch : sender.batches) {
+            //three messages of 40 bytes exceed the cap of 100
+            assertTrue("batch of " + batch.size(), batch.size() <= 2);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.queue.BufferOverflowException;
+import io.github.suzunshou.reporter.queue.MessageDroppedException;
+import io.github.suzunshou.reporter.queue.OverflowStrategy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryLimitTest {
+
+    private static final Message.MessageKey A = new TestMessage.Key("a");
+    private static final Message.MessageKey B = new TestMessage.Key("b");
+    private static final Message.MessageKey C = new TestMessage.Key("c");
+
+    /**
+     * no flush threads run without a message timeout, so the reported messages stay queued.
+     */
+    private static AsyncReporter<TestMessage, Integer> fullReporter(OverflowStrategy.Type overflowStrategy) {
+        return fullReporter(overflowStrategy, 0);
+    }
+
+    /**
+     * a message timeout longer than the test keeps the periodic flush away.
+     */
+    private static AsyncReporter<TestMessage, Integer> fullReporter(OverflowStrategy.Type overflowStrategy,
+                                                                    long messageTimeoutSeconds) {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(new RecordingSender())
+                .metrics(new TestMetrics());
+        builder.messageTimeout(messageTimeoutSeconds, TimeUnit.SECONDS);
+        builder.queuedMaxMessages(10);
+        builder.totalQueuedMessages(10).overflowStrategy(overflowStrategy);
+        AsyncReporter<TestMessage, Integer> reporter = builder.build();
+        for (int i = 0; i < 5; i++) {
+            reporter.report(new TestMessage(i, A, 0));
+            reporter.report(new TestMessage(i, B, 0));
+        }
+        return reporter;
+    }
+
+    @Test
+    public void messageBeyondTheLimitIsDropped() throws IOException {
+        AsyncReporter<TestMessage, Integer> reporter = fullReporter(OverflowStrategy.Type.DropHead);
+        try {
+            MessageFuture<Integer> future = reporter.report(new TestMessage(10, C, 0));
+            assertTrue(future.isDone());
+            assertFalse(future.isSuccess());
+            assertTrue(future.cause() instanceof MessageDroppedException);
+            assertTrue(((MessageDroppedException) future.cause()).isOverflow());
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test
+    public void dropStrategyDoesNotWaitForRoom() throws IOException {
+        AsyncReporter<TestMessage, Integer> reporter = fullReporter(OverflowStrategy.Type.DropNew, 4);
+        try {
+            long start = System.nanoTime();
+            MessageFuture<Integer> future = reporter.report(new TestMessage(10, C, 0));
+            //waiting for room would take the whole message timeout
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertTrue(future.isDone());
+            assertTrue(future.cause() instanceof MessageDroppedException);
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void failStrategyThrowsBeyondTheLimit() throws IOException {
+        AsyncReporter<TestMessage, Integer> reporter = fullReporter(OverflowStrategy.Type.Fail);
+        try {
+            reporter.report(new TestMessage(10, C, 0));
+        } finally {
+            reporter.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.queue.OverflowStrategy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerKeyOrderTest {
+
+    private static final int KEYS = 16;
+    private static final int PRODUCERS = 8;
+    private static final int MESSAGES = 500;
+
+    @Test
+    public void messagesOfAProducerAreSentInOrderPerKey() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(5, TimeUnit.MILLISECONDS);
+        builder.flushThreads(4);
+        builder.nThreads(4);
+        builder.maxInFlightPerKey(1);
+        builder.bufferedMaxMessages(16);
+        builder.queuedMaxMessages(64);
+        builder.overflowStrategy(OverflowStrategy.Type.BackPressure);
+        final AsyncReporter<TestMessage, Integer> reporter = builder.build();
+
+        final TestMessage.Key[] keys = new TestMessage.Key[KEYS];
+        for (int k = 0; k < KEYS; k++) {
+            keys[k] = new TestMessage.Key("key-" + k);
+        }
+        final List<MessageFuture<Integer>> futures = new CopyOnWriteArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < MESSAGES; i++) {
+                        //the keys interleave, every producer walks all of them
+                        TestMessage.Key key = keys[(i + producer) % KEYS];
+                        futures.add(reporter.report(new TestMessage(producer * MESSAGES + i, key, 0)));
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        try {
+            for (MessageFuture<Integer> future : futures) {
+                assertTrue(future.awaitUninterruptibly(10, TimeUnit.SECONDS));
+                assertTrue(future.isSuccess());
+            }
+        } finally {
+            reporter.close();
+        }
+
+        assertEquals(PRODUCERS * MESSAGES, sender.sent());
+        //the last id seen per key and producer
+        Map<String, Integer> last = new HashMap<>();
+        for (List<TestMessage> batch : sender.batches) {
+            for (TestMessage message : batch) {
+                int producer = message.id / MESSAGES;
+                String lane = keys[(message.id % MESSAGES + producer) % KEYS] + "/" + producer;
+                Integer previous = last.put(lane, message.id);
+                assertTrue(lane + ": " + message.id + " after " + previous, previous == null || previous < message.id);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReportAllTest {
+
+    private final RecordingSender sender = new RecordingSender();
+    private final TestMetrics metrics = new TestMetrics();
+    private final AsyncReporter<TestMessage, Integer> reporter = newReporter();
+
+    private AsyncReporter<TestMessage, Integer> newReporter() {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(metrics);
+        builder.messageTimeout(50, TimeUnit.MILLISECONDS);
+        return builder.build();
+    }
+
+    @After
+    public void close() throws IOException {
+        reporter.close();
+    }
+
+    @Test
+    public void reportAllCompletesEveryMessage() throws InterruptedException {
+        List<MessageFuture<Integer>> futures = reporter.reportAll(Arrays.asList(
+                new TestMessage(0), new TestMessage(1), new TestMessage(2)));
+        assertEquals(3, futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            assertTrue(futures.get(i).await(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(i), futures.get(i).getNow());
+        }
+        assertEquals(3, metrics.messages());
+    }
+
+    @Test
+    public void nullElementRejectsTheWholeBatch() {
+        try {
+            reporter.reportAll(Arrays.asList(new TestMessage(0), null));
+            fail("null message accepted");
+        } catch (NullPointerException expected) {
+        }
+        assertEquals(0, metrics.messages());
+        reporter.flush();
+        assertEquals(0, sender.sent());
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ReporterMetricsAdapterTest {
+
+    @Test
+    public void plainMetricsKeepTheirCountersAndIgnoreDetails() {
+        final AtomicLong messages = new AtomicLong();
+        ReporterMetrics plain = new ReporterMetrics() {
+            @Override
+            public void incrementMessages(int quantity) {
+                messages.addAndGet(quantity);
+            }
+
+            @Override
+            public void incrementMessagesDropped(int quantity) {
+            }
+
+            @Override
+            public long messages() {
+                return messages.get();
+            }
+
+            @Override
+            public long messagesDropped() {
+                return 0;
+            }
+
+            @Override
+            public long queuedMessages() {
+                return 0;
+            }
+
+            @Override
+            public void updateQueuedMessages(Message.MessageKey key, int update) {
+            }
+
+            @Override
+            public void removeFromQueuedMessages(Message.MessageKey key) {
+            }
+        };
+        DetailedReporterMetrics detailed = ReporterMetricsAdapter.detailed(plain);
+        detailed.incrementMessages(3);
+        detailed.incrementMessagesSent(3);
+        detailed.updateQueuedBytes(TestMessage.KEY, 100);
+
+        assertEquals(3, plain.messages());
+        assertEquals(3, detailed.messages());
+        assertEquals(0, detailed.messagesSent());
+        assertEquals(0, detailed.queuedBytes());
+    }
+
+    @Test
+    public void detailedMetricsAreUsedAsIs() {
+        DetailedReporterMetrics detailed = ReporterMetricsAdapter.detailed(ReporterMetrics.NOOP_METRICS);
+        assertSame(detailed, ReporterMetricsAdapter.detailed(detailed));
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.CompositeFuture;
+import io.github.suzunshou.reporter.concurrent.DefaultMessagePromise;
+import io.github.suzunshou.reporter.concurrent.MessagePromise;
+import io.github.suzunshou.reporter.concurrent.timer.HashedWheelTimer;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void releasedTokenCanBeTakenAgain() {
+        RetryBudget budget = new RetryBudget(1, 0);
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+        budget.release();
+        assertTrue(budget.tryAcquire());
+        //never more than maxTokens
+        budget.release();
+        budget.release();
+        assertEquals(1, budget.available(), 0.001);
+    }
+
+    @Test
+    public void retryWhichCouldNotBeScheduledKeepsItsToken() throws IOException {
+        RetryBudget budget = new RetryBudget(1, 0);
+        HashedWheelTimer timer = new HashedWheelTimer(ReporterExecutors.daemonThreadFactory("RetryBudgetTest-"),
+                1, TimeUnit.MILLISECONDS, 8);
+        timer.stop();
+
+        DefaultAsyncSender<TestMessage, Integer> sender = new DefaultAsyncSender<>(new Sender<TestMessage, Integer>() {
+            @Override
+            public List<Integer> send(List<TestMessage> messages) {
+                throw new IllegalStateException("sink down");
+            }
+
+            @Override
+            public void close() {
+            }
+        }, 1, new TestMetrics());
+        sender.retry(RetryPolicy.builder().maxAttempts(3).budget(budget).build(), timer);
+        try {
+            MessagePromise<Integer> promise = new DefaultMessagePromise<>(new TestMessage(0));
+            CompositeFuture future = sender.send(Collections.singletonList(promise));
+            assertFalse(future.awaitUninterruptibly().isSuccess());
+            assertEquals(1, budget.available(), 0.001);
+        } finally {
+            sender.close();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.encoder.BatchEncoder;
+import io.github.suzunshou.reporter.encoder.ByteBufferPool;
+import io.github.suzunshou.reporter.encoder.ByteSender;
+import io.github.suzunshou.reporter.encoder.EncodedBatch;
+import io.github.suzunshou.reporter.encoder.EncodingSender;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SenderCapabilitiesTest {
+
+    private static final class OrderedSender extends RecordingSender implements CapableSender {
+        @Override
+        public SenderCapabilities capabilities() {
+            return SenderCapabilities.builder().maxMessages(10).ordered(true).build();
+        }
+    }
+
+    private static int maxInFlightPerKey(AsyncReporter.Builder<TestMessage, Integer> builder) throws IOException {
+        builder.metrics(new TestMetrics());
+        builder.build().close();
+        return builder.maxInFlightPerKey;
+    }
+
+    @Test
+    public void orderedSenderKeepsOneBatchPerKeyInFlight() throws IOException {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(new OrderedSender());
+        assertEquals(1, maxInFlightPerKey(builder));
+        assertEquals(10, builder.bufferedMaxMessages);
+    }
+
+    @Test
+    public void explicitMaxInFlightPerKeyWins() throws IOException {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(new OrderedSender());
+        builder.maxInFlightPerKey(4);
+        assertEquals(4, maxInFlightPerKey(builder));
+    }
+
+    @Test
+    public void propertiesOnlyPassAnExplicitMaxInFlightPerKey() throws IOException {
+        AsyncReporter.Builder<TestMessage, Integer> builder = new AsyncReporterProperties().toBuilder(new OrderedSender());
+        assertEquals(1, maxInFlightPerKey(builder));
+
+        builder = new AsyncReporterProperties().setMaxInFlightPerKey(0).toBuilder(new OrderedSender());
+        assertEquals(0, maxInFlightPerKey(builder));
+    }
+
+    @Test
+    public void encodedBatchOverMaxBytesIsRejected() {
+        final List<EncodedBatch> sent = new ArrayList<>();
+        ByteSender<Integer> byteSender = new LimitedByteSender(sent);
+        EncodingSender<TestMessage, Integer> sender = new EncodingSender<>(new BatchEncoder<TestMessage>() {
+            @Override
+            public void encode(List<TestMessage> messages, EncodedBatch batch) {
+                for (TestMessage message : messages) {
+                    batch.writable(4).putInt(message.id);
+                }
+            }
+        }, byteSender, new ByteBufferPool(64, 1024, 4));
+
+        List<Throwable> failures = new ArrayList<>();
+        sender.send(Arrays.asList(new TestMessage(0), new TestMessage(1)), record(failures));
+        assertEquals(1, sent.size());
+        sender.send(Arrays.asList(new TestMessage(0), new TestMessage(1), new TestMessage(2)), record(failures));
+        assertEquals(1, sent.size());
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof RejectedBatchException);
+    }
+
+    private static SendCallback<Integer> record(final List<Throwable> failures) {
+        return new SendCallback<Integer>() {
+            @Override
+            public void onSuccess(List<Integer> results) {
+            }
+
+            @Override
+            public void onFailure(Throwable cause) {
+                failures.add(cause);
+            }
+        };
+    }
+
+    /**
+     * takes eight bytes per call.
+     */
+    private static final class LimitedByteSender implements ByteSender<Integer>, CapableSender {
+        final List<EncodedBatch> sent;
+
+        LimitedByteSender(List<EncodedBatch> sent) {
+            this.sent = sent;
+        }
+
+        @Override
+        public SenderCapabilities capabilities() {
+            return SenderCapabilities.builder().maxBytes(8).build();
+        }
+
+        @Override
+        public void send(EncodedBatch batch, SendCallback<Integer> callback) {
+            sent.add(batch);
+            callback.onSuccess(Collections.nCopies(batch.messageCount(), 1));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
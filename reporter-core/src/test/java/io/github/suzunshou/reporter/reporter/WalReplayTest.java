@@ -0,0 +1,132 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import io.github.suzunshou.reporter.queue.OverflowStrategy;
+import io.github.suzunshou.reporter.queue.WalSizeBoundedQueueFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WalReplayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static AsyncReporter<TestMessage, Integer> reporter(Sender<TestMessage, Integer> sender,
+                                                              WalSizeBoundedQueueFactory factory,
+                                                              long messageTimeoutMillis) {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(messageTimeoutMillis, TimeUnit.MILLISECONDS);
+        builder.queueFactory(factory);
+        return builder.build();
+    }
+
+    @Test
+    public void undeliveredMessageIsReplayedWhenTheNextReporterStarts() throws Exception {
+        File directory = folder.newFolder();
+        WalSizeBoundedQueueFactory factory = new WalSizeBoundedQueueFactory(directory);
+        //no flush threads without a message timeout, the message stays queued
+        AsyncReporter<TestMessage, Integer> crashed = reporter(new RecordingSender(), factory, 0);
+        crashed.report(new TestMessage(42));
+        //the process dies before the reporter is closed
+        factory.close();
+
+        factory = new WalSizeBoundedQueueFactory(directory);
+        final CountDownLatch sent = new CountDownLatch(1);
+        RecordingSender sender = new RecordingSender() {
+            @Override
+            public List<Integer> send(List<TestMessage> messages) {
+                List<Integer> results = super.send(messages);
+                sent.countDown();
+                return results;
+            }
+        };
+        AsyncReporter<TestMessage, Integer> reporter = reporter(sender, factory, 10);
+        try {
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+            assertEquals(1, sender.sent());
+            assertEquals(42, sender.batches.get(0).get(0).id);
+        } finally {
+            reporter.close();
+            factory.close();
+            crashed.close();
+        }
+    }
+
+    @Test
+    public void backlogLargerThanTheQueueIsReplayedUnderBackPressure() throws Exception {
+        File directory = folder.newFolder();
+        WalSizeBoundedQueueFactory factory = new WalSizeBoundedQueueFactory(directory);
+        AsyncReporter<TestMessage, Integer> crashed = reporter(new RecordingSender(), factory, 0);
+        for (int i = 0; i < 8; i++) {
+            crashed.report(new TestMessage(i));
+        }
+        factory.close();
+
+        factory = new WalSizeBoundedQueueFactory(directory);
+        final CountDownLatch sent = new CountDownLatch(8);
+        RecordingSender sender = new RecordingSender() {
+            @Override
+            public List<Integer> send(List<TestMessage> messages) {
+                List<Integer> results = super.send(messages);
+                for (int i = 0; i < messages.size(); i++) {
+                    sent.countDown();
+                }
+                return results;
+            }
+        };
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(10, TimeUnit.MILLISECONDS);
+        builder.queuedMaxMessages(2);
+        builder.bufferedMaxMessages(2);
+        builder.overflowStrategy(OverflowStrategy.Type.BackPressure);
+        builder.queueFactory(factory);
+        //the replay waits for room, the flushers of the built reporter make it
+        AsyncReporter<TestMessage, Integer> reporter = builder.build();
+        try {
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+            assertEquals(8, sender.sent());
+        } finally {
+            reporter.close();
+            factory.close();
+            crashed.close();
+        }
+    }
+
+    @Test
+    public void failedMessageIsReplayed() throws Exception {
+        File directory = folder.newFolder();
+        WalSizeBoundedQueueFactory factory = new WalSizeBoundedQueueFactory(directory);
+        AsyncReporter<TestMessage, Integer> reporter = reporter(new RecordingSender() {
+            @Override
+            public List<Integer> send(List<TestMessage> messages) {
+                throw new IllegalStateException("billing sink down");
+            }
+        }, factory, 10);
+        MessageFuture<Integer> future = reporter.report(new TestMessage(42));
+        assertFalse(future.awaitUninterruptibly().isSuccess());
+        reporter.close();
+        factory.close();
+
+        factory = new WalSizeBoundedQueueFactory(directory);
+        try {
+            List<Message> recovered = factory.recover();
+            assertEquals(1, recovered.size());
+            assertEquals(42, ((TestMessage) recovered.get(0)).id);
+        } finally {
+            factory.close();
+        }
+    }
+}
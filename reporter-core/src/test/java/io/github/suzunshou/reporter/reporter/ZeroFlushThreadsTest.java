@@ -0,0 +1,70 @@
+package io.github.suzunshou.reporter.reporter;
+
+import io.github.suzunshou.reporter.RecordingSender;
+import io.github.suzunshou.reporter.TestMessage;
+import io.github.suzunshou.reporter.TestMetrics;
+import io.github.suzunshou.reporter.concurrent.MessageFuture;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZeroFlushThreadsTest {
+
+    private final RecordingSender sender = new RecordingSender();
+
+    private AsyncReporter<TestMessage, Integer> newReporter(boolean linger) {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        builder.messageTimeout(50, TimeUnit.MILLISECONDS);
+        builder.flushThreads(0).linger(linger);
+        return builder.build();
+    }
+
+    private void assertFlushedByTimeout(boolean linger) throws IOException, InterruptedException {
+        AsyncReporter<TestMessage, Integer> reporter = newReporter(linger);
+        try {
+            MessageFuture<Integer> future = reporter.report(new TestMessage(7));
+            assertTrue(future.await(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(7), future.getNow());
+            assertEquals(1, sender.sent());
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test
+    public void periodicTimerFlushesWithoutFlushThreads() throws Exception {
+        assertFlushedByTimeout(false);
+    }
+
+    @Test
+    public void lingerFlushesWithoutFlushThreads() throws Exception {
+        assertFlushedByTimeout(true);
+    }
+
+    @Test
+    public void fullQueueIsFlushedWithoutFlushThreads() throws Exception {
+        AsyncReporter.Builder<TestMessage, Integer> builder = AsyncReporter.builder(sender).metrics(new TestMetrics());
+        //the timer alone would not flush within the test
+        builder.messageTimeout(30, TimeUnit.SECONDS);
+        builder.queuedMaxMessages(2);
+        builder.flushThreads(0);
+        AsyncReporter<TestMessage, Integer> reporter = builder.build();
+        try {
+            reporter.report(new TestMessage(1));
+            MessageFuture<Integer> future = reporter.report(new TestMessage(2));
+            assertTrue(future.await(5, TimeUnit.SECONDS));
+            assertEquals(2, sender.sent());
+        } finally {
+            reporter.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeFlushThreadsAreRejected() {
+        AsyncReporter.builder(sender).flushThreads(-1).build();
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.suzunshou.reporter.threadpool;
+
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ThreadPoolTest {
+
+    @Test
+    public void ownPoolsKeepTheirSize() {
+        ThreadPool.ExecutorHolder small = new ThreadPool.ExecutorHolder("ThreadPoolTest-small", 1);
+        ThreadPool.ExecutorHolder large = new ThreadPool.ExecutorHolder("ThreadPoolTest-large", 4);
+        try {
+            assertNotSame(small.executor(), large.executor());
+            assertEquals(1, small.threads());
+            assertEquals(4, large.threads());
+        } finally {
+            assertTrue(small.close());
+            assertTrue(large.close());
+        }
+    }
+
+    @Test
+    public void sharedPoolLivesUntilItsLastReporterClosesIt() {
+        ThreadPool.ExecutorHolder first = ThreadPool.shared("ThreadPoolTest-shared", 2);
+        ThreadPool.ExecutorHolder second = ThreadPool.shared("ThreadPoolTest-shared", 2);
+        assertSame(first, second);
+        assertEquals(2, second.threads());
+        assertEquals(2, first.getRefCnt());
+
+        assertFalse(first.close());
+        first.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        assertTrue(second.close());
+
+        try {
+            first.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("closed pool took a task");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(1, first.rejectedTasks());
+        //the name is free again
+        ThreadPool.ExecutorHolder next = ThreadPool.shared("ThreadPoolTest-shared", 1);
+        assertNotSame(first, next);
+        assertTrue(next.close());
+    }
+
+    @Test
+    public void sharedPoolOfAnotherSizeIsRefused() {
+        ThreadPool.ExecutorHolder first = ThreadPool.shared("ThreadPoolTest-sized", 2);
+        try {
+            ThreadPool.shared("ThreadPoolTest-sized", 8);
+            fail("joined a pool of another size");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, first.getRefCnt());
+        assertTrue(first.close());
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.suzunshou.reporter.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Consumer of the batches a {@link SocketReceiver} decoded.
+ */
+public interface BatchHandler {
+
+    /**
+     * handle one batch on the I/O thread of the receiver, copy or decode the payload before
+     * returning and leave slow work to another thread.
+     *
+     * @param batchId         the id the sender completes the batch with
+     * @param messageCount
+     * @param contentEncoding {@code gzip} or {@code deflate} for a compressed batch, {@code null} for a raw one
+     * @param payload         the encoded batch, only valid during the call
+     * @return {@code true} to acknowledge the batch, {@code false} to reject it, the sender fails a rejected batch
+     * @throws Exception rejects the batch as well
+     */
+    boolean onBatch(long batchId, int messageCount, String contentEncoding, ByteBuffer payload) throws Exception;
+}
@@ -0,0 +1,67 @@
+package io.github.suzunshou.reporter.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format shared by {@link SocketSender} and {@link SocketReceiver}, all numbers big endian.
+ * <pre>
+ * batch frame: int length | long batch id | int message count | byte codec | payload
+ * ack frame:   long batch id | byte status
+ * </pre>
+ * length counts the bytes following it. The receiver acks the batches of a connection in the
+ * order they arrived.
+ */
+final class Frames {
+
+    static final int LENGTH_BYTES = 4;
+    //batch id, message count and codec
+    static final int META_BYTES = 8 + 4 + 1;
+    static final int HEADER_BYTES = LENGTH_BYTES + META_BYTES;
+    static final int ACK_BYTES = 8 + 1;
+
+    static final byte RAW = 0;
+    static final byte GZIP = 1;
+    static final byte DEFLATE = 2;
+
+    static final byte ACK_OK = 0;
+    static final byte ACK_REJECTED = 1;
+
+    static final int DEFAULT_MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    private Frames() {
+    }
+
+    static ByteBuffer header(long batchId, int messageCount, byte codec, int payloadBytes) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(META_BYTES + payloadBytes).putLong(batchId).putInt(messageCount).put(codec);
+        header.flip();
+        return header;
+    }
+
+    static byte codec(String contentEncoding) {
+        if (contentEncoding == null) {
+            return RAW;
+        }
+        switch (contentEncoding) {
+            case "gzip":
+                return GZIP;
+            case "deflate":
+                return DEFLATE;
+            default:
+                throw new IllegalArgumentException("Unknown content encoding " + contentEncoding);
+        }
+    }
+
+    static String contentEncoding(byte codec) {
+        switch (codec) {
+            case RAW:
+                return null;
+            case GZIP:
+                return "gzip";
+            case DEFLATE:
+                return "deflate";
+            default:
+                throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+    }
+}
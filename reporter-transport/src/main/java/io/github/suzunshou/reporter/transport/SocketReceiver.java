@@ -0,0 +1,323 @@
+package io.github.suzunshou.reporter.transport;
+
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local end of a {@link SocketSender}. A single I/O thread accepts connections, decodes the
+ * length-prefixed batch frames, see {@link Frames}, hands them to the {@link BatchHandler} and
+ * acknowledges every batch in the order it arrived on its connection.
+ * <p>
+ * Frames are decoded in place from a per-connection read buffer which grows up to the largest
+ * frame, acks of all frames decoded from one read go out in one write.
+ * {@link #loopback(BatchHandler)} binds an ephemeral loopback port, so tests and benchmarks can
+ * run a reporter end to end without an external service.
+ */
+public final class SocketReceiver implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SocketReceiver.class);
+
+    private static final int INITIAL_READ_BYTES = 64 * 1024;
+    //reads per readiness event before the other connections get their turn
+    private static final int MAX_READS = 16;
+
+    private final BatchHandler handler;
+    private final int maxPayloadBytes;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final InetSocketAddress localAddress;
+    private final Thread ioThread;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param bindAddress     port 0 binds an ephemeral port, see {@link #localAddress()}
+     * @param handler
+     * @param maxPayloadBytes larger frames close their connection
+     */
+    public SocketReceiver(InetSocketAddress bindAddress, BatchHandler handler, int maxPayloadBytes) throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (maxPayloadBytes <= 0) {
+            throw new IllegalArgumentException("maxPayloadBytes <= 0: " + maxPayloadBytes);
+        }
+        this.handler = handler;
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.bind(bindAddress);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        this.localAddress = (InetSocketAddress) server.getLocalAddress();
+        this.ioThread = ReporterExecutors.daemonThreadFactory("SocketReceiver-" + localAddress + "-io-")
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                });
+        ioThread.start();
+    }
+
+    /**
+     * a receiver on an ephemeral loopback port taking batches of up to 1 MiB.
+     */
+    public static SocketReceiver loopback(BatchHandler handler) throws IOException {
+        return new SocketReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), handler,
+                Frames.DEFAULT_MAX_PAYLOAD_BYTES);
+    }
+
+    public InetSocketAddress localAddress() {
+        return localAddress;
+    }
+
+    /**
+     * the batches acknowledged so far.
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * the messages of the acknowledged batches.
+     */
+    public long messages() {
+        return messages.get();
+    }
+
+    /**
+     * the payload bytes of the acknowledged batches, as received.
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * the batches the handler rejected.
+     */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            logger.warn("Failed to accept a connection on {}: {}", localAddress, e.toString());
+                        }
+                        continue;
+                    }
+                    Peer peer = (Peer) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            peer.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            peer.flush();
+                        }
+                    } catch (EOFException e) {
+                        peer.close();
+                    } catch (IOException e) {
+                        logger.warn("Connection from {} failed: {}", peer.remote, e.toString());
+                        peer.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Selector of the receiver on {} failed", localAddress, e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close {}", key.channel(), e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the selector", e);
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Peer peer = new Peer(channel);
+            peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() == ioThread) {
+            return;
+        }
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SocketReceiver{localAddress=" + localAddress + '}';
+    }
+
+    private final class Peer {
+        final SocketChannel channel;
+        final Object remote;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_READ_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(Frames.ACK_BYTES * 256);
+
+        Peer(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remote = channel.getRemoteAddress();
+        }
+
+        void read() throws IOException {
+            for (int i = 0; i < MAX_READS; i++) {
+                int n = channel.read(in);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                if (n == 0) {
+                    break;
+                }
+                in.flip();
+                int needed = decode();
+                in.compact();
+                if (needed > in.capacity()) {
+                    //the next frame does not fit, move to a buffer which holds it
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, in.capacity() << 1));
+                    in.flip();
+                    larger.put(in);
+                    in = larger;
+                }
+            }
+            flush();
+        }
+
+        /**
+         * handle the complete frames between position and limit.
+         *
+         * @return the size of the incomplete frame at the position, 0 if unknown yet
+         */
+        int decode() throws IOException {
+            while (in.remaining() >= Frames.LENGTH_BYTES) {
+                int start = in.position();
+                int length = in.getInt(start);
+                if (length < Frames.META_BYTES || length - Frames.META_BYTES > maxPayloadBytes) {
+                    throw new IOException("Frame of " + length + " bytes exceeds maxPayloadBytes " + maxPayloadBytes);
+                }
+                if (in.remaining() < Frames.LENGTH_BYTES + length) {
+                    return Frames.LENGTH_BYTES + length;
+                }
+                in.position(start + Frames.LENGTH_BYTES);
+                long batchId = in.getLong();
+                int messageCount = in.getInt();
+                byte codec = in.get();
+                int end = start + Frames.LENGTH_BYTES + length;
+                ByteBuffer payload = in.duplicate();
+                payload.limit(end);
+                in.position(end);
+                ack(batchId, handle(batchId, messageCount, codec, payload.slice().asReadOnlyBuffer()));
+            }
+            return 0;
+        }
+
+        boolean handle(long batchId, int messageCount, byte codec, ByteBuffer payload) {
+            int payloadBytes = payload.remaining();
+            boolean accepted;
+            try {
+                accepted = handler.onBatch(batchId, messageCount, Frames.contentEncoding(codec), payload);
+            } catch (Exception e) {
+                logger.warn("Handler failed on batch {} from {}", batchId, remote, e);
+                accepted = false;
+            }
+            if (accepted) {
+                batches.incrementAndGet();
+                messages.addAndGet(messageCount);
+                bytes.addAndGet(payloadBytes);
+            } else {
+                rejected.incrementAndGet();
+            }
+            return accepted;
+        }
+
+        void ack(long batchId, boolean accepted) {
+            if (out.remaining() < Frames.ACK_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(out.capacity() << 1);
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.putLong(batchId).put(accepted ? Frames.ACK_OK : Frames.ACK_REJECTED);
+        }
+
+        void flush() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+            //a slow sender leaves acks behind, write them once the socket takes more
+            int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the connection from {}", remote, e);
+            }
+        }
+    }
+}
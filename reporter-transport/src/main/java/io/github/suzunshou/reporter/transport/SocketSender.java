@@ -0,0 +1,514 @@
+package io.github.suzunshou.reporter.transport;
+
+import io.github.suzunshou.reporter.encoder.ByteSender;
+import io.github.suzunshou.reporter.encoder.EncodedBatch;
+import io.github.suzunshou.reporter.reporter.CapableSender;
+import io.github.suzunshou.reporter.reporter.RejectedBatchException;
+import io.github.suzunshou.reporter.reporter.SendCallback;
+import io.github.suzunshou.reporter.reporter.SenderCapabilities;
+import io.github.suzunshou.reporter.threadpool.ReporterExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ByteSender} writing every encoded batch as a length-prefixed frame, see {@link Frames},
+ * to a {@link SocketReceiver} over non-blocking {@link SocketChannel}s.
+ * <p>
+ * Batches are spread over the connections round robin. Each connection has a write queue of its
+ * own, the single I/O thread takes up to 64 queued frames at a time and hands their headers and
+ * payloads to one gathering write, so the payload is never copied out of its pooled buffer. A
+ * batch completes with its batch id once the receiver acked it. A connection which fails fails
+ * its queued and unacknowledged batches and is opened again by the next batch, the retry policy
+ * and the circuit breaker of the reporter decide what happens to them. A connection fails as well
+ * when it is not established within connectTimeout, or when its oldest batch is not acked within
+ * ackTimeout after it was taken for writing. At most pipelineDepth batches of a connection are
+ * written and not acked, the rest wait in its queue.
+ * <p>
+ * Callbacks run on the I/O thread.
+ */
+public final class SocketSender implements ByteSender<Long>, CapableSender {
+    private static final Logger logger = LoggerFactory.getLogger(SocketSender.class);
+
+    //frames gathered into one write
+    private static final int MAX_GATHER = 64;
+    //longest select, the deadlines are checked after every select
+    private static final long MAX_SELECT_MILLIS = 100;
+
+    private final InetSocketAddress address;
+    private final int maxPayloadBytes;
+    private final int pipelineDepth;
+    private final long connectTimeoutNanos;
+    private final long ackTimeoutNanos;
+    private final long selectMillis;
+    private final Connection[] connections;
+    private final Selector selector;
+    private final Thread ioThread;
+
+    private final AtomicLong batchIds = new AtomicLong();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    //connections with queued frames the I/O thread did not look at yet
+    private final ConcurrentLinkedQueue<Connection> signalled = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private SocketSender(Builder builder) throws IOException {
+        this.address = builder.address;
+        this.maxPayloadBytes = builder.maxPayloadBytes;
+        this.pipelineDepth = builder.pipelineDepth;
+        this.connectTimeoutNanos = builder.connectTimeoutNanos;
+        this.ackTimeoutNanos = builder.ackTimeoutNanos;
+        long shortest = TimeUnit.NANOSECONDS.toMillis(Math.min(connectTimeoutNanos, ackTimeoutNanos));
+        this.selectMillis = Math.max(1, Math.min(MAX_SELECT_MILLIS, shortest / 4));
+        this.selector = Selector.open();
+        this.connections = new Connection[builder.connections];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new Connection(i);
+        }
+        this.ioThread = ReporterExecutors.daemonThreadFactory("SocketSender-" + address + "-io-")
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop();
+                    }
+                });
+        ioThread.start();
+    }
+
+    public static Builder builder(InetSocketAddress address) {
+        return new Builder(address);
+    }
+
+    /**
+     * batches up to maxPayloadBytes, connections times pipelineDepth of them in flight.
+     */
+    @Override
+    public SenderCapabilities capabilities() {
+        return SenderCapabilities.builder()
+                .maxBytes(maxPayloadBytes)
+                .preferredConcurrency(connections.length * pipelineDepth)
+                .build();
+    }
+
+    @Override
+    public void send(EncodedBatch batch, SendCallback<Long> callback) {
+        //a duplicate, the batch keeps its own position for the callback
+        ByteBuffer payload = batch.buffer().duplicate();
+        if (payload.remaining() > maxPayloadBytes) {
+            //sending it again fails again, only a bisected part of it may fit
+            callback.onFailure(new RejectedBatchException("Batch of " + payload.remaining()
+                    + " bytes exceeds maxPayloadBytes " + maxPayloadBytes));
+            return;
+        }
+        byte codec;
+        try {
+            codec = Frames.codec(batch.contentEncoding());
+        } catch (IllegalArgumentException e) {
+            callback.onFailure(e);
+            return;
+        }
+        long batchId = batchIds.incrementAndGet();
+        ByteBuffer header = Frames.header(batchId, batch.messageCount(), codec, payload.remaining());
+        Connection connection = connections[(nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+        connection.pending.offer(new Frame(batchId, batch.messageCount(), header, payload, callback));
+        if (closed) {
+            //the I/O thread may have failed the queue already
+            connection.failPending(new ClosedChannelException());
+            return;
+        }
+        if (connection.signalled.compareAndSet(false, true)) {
+            signalled.offer(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (!closed) {
+                selector.select(selectMillis);
+                Connection connection;
+                while ((connection = signalled.poll()) != null) {
+                    connection.signalled();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    int ready = key.readyOps();
+                    if ((ready & SelectionKey.OP_CONNECT) != 0) {
+                        connection.finishConnect();
+                    }
+                    //a failed connection cancelled the key, a new one may be open already
+                    if ((ready & SelectionKey.OP_READ) != 0 && connection.key == key) {
+                        connection.read();
+                    }
+                    if ((ready & SelectionKey.OP_WRITE) != 0 && connection.key == key) {
+                        connection.write();
+                    }
+                }
+                long now = System.nanoTime();
+                for (Connection c : connections) {
+                    c.checkDeadlines(now);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Selector of the sender to {} failed", address, e);
+        } finally {
+            closed = true;
+            for (Connection connection : connections) {
+                connection.close();
+                connection.fail(new ClosedChannelException());
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the selector", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        if (Thread.currentThread() == ioThread) {
+            //closed from a callback, the loop fails what is left once the callback returned
+            return;
+        }
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SocketSender{address=" + address + ", connections=" + connections.length + '}';
+    }
+
+    private static final class Frame {
+        final long batchId;
+        final int messageCount;
+        final ByteBuffer header;
+        final ByteBuffer payload;
+        final SendCallback<Long> callback;
+        //the ack is due by then, set when the frame is taken for writing
+        long deadline;
+
+        Frame(long batchId, int messageCount, ByteBuffer header, ByteBuffer payload, SendCallback<Long> callback) {
+            this.batchId = batchId;
+            this.messageCount = messageCount;
+            this.header = header;
+            this.payload = payload;
+            this.callback = callback;
+        }
+
+        boolean written() {
+            return !header.hasRemaining() && !payload.hasRemaining();
+        }
+
+        void succeeded() {
+            try {
+                callback.onSuccess(Collections.nCopies(messageCount, batchId));
+            } catch (RuntimeException e) {
+                logger.error("Callback of batch {} failed", batchId, e);
+            }
+        }
+
+        void failed(Throwable cause) {
+            try {
+                callback.onFailure(cause);
+            } catch (RuntimeException e) {
+                logger.error("Callback of batch {} failed", batchId, e);
+            }
+        }
+    }
+
+    /**
+     * one socket with its write queue. Only pending and signalled are touched outside the I/O thread.
+     */
+    private final class Connection {
+        final int index;
+        final ConcurrentLinkedQueue<Frame> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean signalled = new AtomicBoolean();
+
+        //taken from pending and not completely written
+        final ArrayDeque<Frame> writing = new ArrayDeque<>();
+        //written and waiting for their ack, the receiver acks in order
+        final ArrayDeque<Frame> inFlight = new ArrayDeque<>();
+        final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER * 2];
+        final ByteBuffer acks = ByteBuffer.allocate(Frames.ACK_BYTES * 256);
+
+        SocketChannel channel;
+        SelectionKey key;
+        long connectDeadline;
+
+        Connection(int index) {
+            this.index = index;
+        }
+
+        void signalled() {
+            signalled.set(false);
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (channel == null) {
+                connect();
+            } else if (channel.isConnected()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void connect() {
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (channel.connect(address)) {
+                    key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+                } else {
+                    connectDeadline = System.nanoTime() + connectTimeoutNanos;
+                    key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void finishConnect() {
+            try {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void write() {
+            try {
+                for (; ; ) {
+                    Frame frame;
+                    while (writing.size() < MAX_GATHER && writing.size() + inFlight.size() < pipelineDepth
+                            && (frame = pending.poll()) != null) {
+                        frame.deadline = System.nanoTime() + ackTimeoutNanos;
+                        writing.add(frame);
+                    }
+                    if (writing.isEmpty()) {
+                        //nothing queued or the pipeline is full, an ack asks for OP_WRITE again
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    int n = 0;
+                    for (Frame f : writing) {
+                        gather[n++] = f.header;
+                        gather[n++] = f.payload;
+                    }
+                    channel.write(gather, 0, n);
+                    Arrays.fill(gather, 0, n, null);
+                    while (!writing.isEmpty() && writing.peek().written()) {
+                        inFlight.add(writing.poll());
+                    }
+                    if (!writing.isEmpty()) {
+                        //the socket buffer is full, wait for the next OP_WRITE
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void read() {
+            try {
+                if (channel.read(acks) < 0) {
+                    failed(new EOFException("Receiver " + address + " closed the connection"));
+                    return;
+                }
+                acks.flip();
+                while (acks.remaining() >= Frames.ACK_BYTES) {
+                    long batchId = acks.getLong();
+                    byte status = acks.get();
+                    Frame frame = inFlight.poll();
+                    if (frame == null || frame.batchId != batchId) {
+                        if (frame != null) {
+                            inFlight.addFirst(frame);
+                        }
+                        failed(new IOException("Unexpected ack of batch " + batchId + " from " + address));
+                        return;
+                    }
+                    if (status == Frames.ACK_OK) {
+                        frame.succeeded();
+                    } else {
+                        frame.failed(new RejectedBatchException("Receiver " + address + " rejected batch " + batchId));
+                    }
+                }
+                acks.compact();
+                if (!pending.isEmpty()) {
+                    //the acks made room in the pipeline
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void checkDeadlines(long now) {
+            if (channel == null) {
+                return;
+            }
+            if (channel.isConnectionPending()) {
+                if (now - connectDeadline > 0) {
+                    failed(new SocketTimeoutException("Connect to " + address + " timed out"));
+                }
+                return;
+            }
+            Frame oldest = inFlight.isEmpty() ? writing.peek() : inFlight.peek();
+            if (oldest != null && now - oldest.deadline > 0) {
+                failed(new SocketTimeoutException("No ack of batch " + oldest.batchId + " from " + address + " in time"));
+            }
+        }
+
+        void failed(IOException cause) {
+            logger.warn("Connection {} to {} failed: {}", index, address, cause.toString());
+            close();
+            fail(cause);
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+                key = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close connection {} to {}", index, address, e);
+                }
+                channel = null;
+            }
+            acks.clear();
+        }
+
+        /**
+         * fail the frames queued so far, frames the callbacks send meanwhile go to a new connection.
+         */
+        void fail(Throwable cause) {
+            List<Frame> failed = new ArrayList<>(inFlight.size() + writing.size());
+            failed.addAll(inFlight);
+            failed.addAll(writing);
+            inFlight.clear();
+            writing.clear();
+            Frame frame;
+            while ((frame = pending.poll()) != null) {
+                failed.add(frame);
+            }
+            for (Frame f : failed) {
+                f.failed(cause);
+            }
+        }
+
+        /**
+         * fail the queued frames only, safe outside the I/O thread.
+         */
+        void failPending(Throwable cause) {
+            Frame frame;
+            while ((frame = pending.poll()) != null) {
+                frame.failed(cause);
+            }
+        }
+    }
+
+    public static final class Builder {
+        final InetSocketAddress address;
+        int connections = 1;
+        int pipelineDepth = 4;
+        int maxPayloadBytes = Frames.DEFAULT_MAX_PAYLOAD_BYTES;
+        long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+        long ackTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+        Builder(InetSocketAddress address) {
+            if (address == null) {
+                throw new NullPointerException("address");
+            }
+            this.address = address;
+        }
+
+        public Builder connections(int connections) {
+            if (connections <= 0)
+                throw new IllegalArgumentException("connections <= 0: " + connections);
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * batches written and not acked per connection, the sender advertises connections times
+         * pipelineDepth as its preferred concurrency.
+         */
+        public Builder pipelineDepth(int pipelineDepth) {
+            if (pipelineDepth <= 0)
+                throw new IllegalArgumentException("pipelineDepth <= 0: " + pipelineDepth);
+            this.pipelineDepth = pipelineDepth;
+            return this;
+        }
+
+        /**
+         * largest encoded batch, it has to match the maxPayloadBytes of the receiver.
+         */
+        public Builder maxPayloadBytes(int maxPayloadBytes) {
+            if (maxPayloadBytes <= 0)
+                throw new IllegalArgumentException("maxPayloadBytes <= 0: " + maxPayloadBytes);
+            this.maxPayloadBytes = maxPayloadBytes;
+            return this;
+        }
+
+        /**
+         * fail a connection which is not established in time, 10 seconds by default.
+         */
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0)
+                throw new IllegalArgumentException("connectTimeout <= 0: " + timeout);
+            this.connectTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * fail a connection whose oldest batch is not acked in time, 30 seconds by default.
+         */
+        public Builder ackTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0)
+                throw new IllegalArgumentException("ackTimeout <= 0: " + timeout);
+            this.ackTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public SocketSender build() throws IOException {
+            return new SocketSender(this);
+        }
+    }
+}
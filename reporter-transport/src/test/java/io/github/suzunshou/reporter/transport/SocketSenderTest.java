@@ -0,0 +1,194 @@
+package io.github.suzunshou.reporter.transport;
+
+import io.github.suzunshou.reporter.encoder.BatchEncoder;
+import io.github.suzunshou.reporter.encoder.ByteBufferPool;
+import io.github.suzunshou.reporter.encoder.EncodedBatch;
+import io.github.suzunshou.reporter.encoder.EncodingSender;
+import io.github.suzunshou.reporter.reporter.Message;
+import io.github.suzunshou.reporter.reporter.RejectedBatchException;
+import io.github.suzunshou.reporter.reporter.SendCallback;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SocketSenderTest {
+
+    private static final BatchEncoder<Text> ENCODER = new BatchEncoder<Text>() {
+        @Override
+        public void encode(List<Text> messages, EncodedBatch batch) {
+            for (Text message : messages) {
+                byte[] bytes = (message.text + '\n').getBytes(StandardCharsets.UTF_8);
+                batch.writable(bytes.length).put(bytes);
+            }
+        }
+    };
+
+    private static EncodingSender<Text, Long> encoding(SocketSender sender) {
+        return new EncodingSender<>(ENCODER, sender, new ByteBufferPool(64, 64 * 1024, 4));
+    }
+
+    private static List<Text> batch(String... texts) {
+        List<Text> messages = new ArrayList<>();
+        for (String text : texts) {
+            messages.add(new Text(text));
+        }
+        return messages;
+    }
+
+    @Test
+    public void batchesTravelToTheReceiverAndAreAcked() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<>();
+        SocketReceiver receiver = SocketReceiver.loopback(new BatchHandler() {
+            @Override
+            public boolean onBatch(long batchId, int messageCount, String contentEncoding, ByteBuffer payload) {
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                received.add(new String(bytes, StandardCharsets.UTF_8));
+                return true;
+            }
+        });
+        //one batch in flight at a time, the others wait for its ack
+        SocketSender sender = SocketSender.builder(receiver.localAddress()).pipelineDepth(1).build();
+        EncodingSender<Text, Long> encoding = encoding(sender);
+        try {
+            List<Callback> callbacks = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Callback callback = new Callback();
+                encoding.send(batch("a" + i, "b" + i), callback);
+                callbacks.add(callback);
+            }
+            for (Callback callback : callbacks) {
+                assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+                assertNull(callback.cause);
+                assertEquals(2, callback.results.size());
+                assertEquals(callback.results.get(0), callback.results.get(1));
+            }
+            assertEquals(Arrays.asList("a0\nb0\n", "a1\nb1\n", "a2\nb2\n", "a3\nb3\n", "a4\nb4\n"), received);
+            assertEquals(10, receiver.messages());
+        } finally {
+            encoding.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void refusedConnectionFailsTheBatch() throws Exception {
+        InetSocketAddress address;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            address = (InetSocketAddress) closed.getLocalSocketAddress();
+        }
+        EncodingSender<Text, Long> encoding = encoding(SocketSender.builder(address).build());
+        try {
+            Callback callback = new Callback();
+            encoding.send(batch("a"), callback);
+            assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(callback.cause), callback.cause instanceof IOException);
+        } finally {
+            encoding.close();
+        }
+    }
+
+    @Test
+    public void missingAckFailsTheBatch() throws Exception {
+        //the backlog completes the connection, nobody ever reads or acks
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            SocketSender sender = SocketSender.builder((InetSocketAddress) silent.getLocalSocketAddress())
+                    .ackTimeout(200, TimeUnit.MILLISECONDS).build();
+            EncodingSender<Text, Long> encoding = encoding(sender);
+            try {
+                Callback callback = new Callback();
+                encoding.send(batch("a"), callback);
+                assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+                assertTrue(String.valueOf(callback.cause), callback.cause instanceof SocketTimeoutException);
+            } finally {
+                encoding.close();
+            }
+        }
+    }
+
+    @Test
+    public void oversizeBatchIsRejectedNotRetried() throws Exception {
+        SocketSender sender = SocketSender.builder(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9))
+                .maxPayloadBytes(4).build();
+        EncodingSender<Text, Long> encoding = encoding(sender);
+        try {
+            Callback callback = new Callback();
+            encoding.send(batch("abc", "def"), callback);
+            assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(callback.cause), callback.cause instanceof RejectedBatchException);
+        } finally {
+            encoding.close();
+        }
+    }
+
+    private static final class Callback implements SendCallback<Long> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile List<Long> results = Collections.emptyList();
+        volatile Throwable cause;
+
+        @Override
+        public void onSuccess(List<Long> results) {
+            this.results = results;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            this.cause = cause;
+            done.countDown();
+        }
+    }
+
+    private static final class Text extends Message {
+        private static final long serialVersionUID = 1L;
+        private static final MessageKey KEY = new MessageKey() {
+            @Override
+            public int hashCode() {
+                return 0;
+            }
+
+            @Override
+            public boolean equals(Object obj) {
+                return obj == this;
+            }
+
+            @Override
+            public String toString() {
+                return "text";
+            }
+        };
+
+        final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        protected MessageKey asMessageKey() {
+            return KEY;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}